@@ -0,0 +1,139 @@
+package id.caltic.labs.wiki.auth;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.shareddata.impl.ClusterSerializable;
+import io.vertx.ext.web.Session;
+import io.vertx.ext.web.sstore.ClusteredSessionStore;
+import io.vertx.ext.web.sstore.LocalSessionStore;
+import io.vertx.ext.web.sstore.SessionStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Session lookups in the store of each {@code SESSION_STORE} setting, the sessions holding a logged in
+ * {@link WikiUser} as the wiki keeps them. The clustered store runs two Hazelcast nodes in this JVM, sessions being
+ * written through one and read through the other, so lookups cross the loopback network. Setup prints the heap
+ * taken per session, which for the clustered store includes the Hazelcast backup copy, and the serialized size of a
+ * session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class SessionStoreBenchmark {
+
+  private static final String SESSION_MAP = "wiki.sessions";
+  private static final long TIMEOUT = TimeUnit.HOURS.toMillis(1);
+
+  @Param({"local", "clustered"})
+  public String store;
+
+  @Param({"10000"})
+  public int sessions;
+
+  private Vertx writer;
+  private Vertx reader;
+  private SessionStore readStore;
+  private String[] ids;
+
+  @Setup
+  public void setUp() throws Exception {
+    if ("clustered".equals(store)) {
+      writer = await(handler -> Vertx.clusteredVertx(new VertxOptions(), handler));
+      reader = await(handler -> Vertx.clusteredVertx(new VertxOptions(), handler));
+    } else {
+      writer = Vertx.vertx();
+      reader = writer;
+    }
+    SessionStore writeStore = create(writer);
+    readStore = create(reader);
+
+    ids = new String[sessions];
+    long before = usedHeap();
+    for (int i = 0; i < sessions; i++) {
+      Session session = session(writeStore, i);
+      this.<Void>await(handler -> writeStore.put(session, handler));
+      ids[i] = session.id();
+    }
+    long after = usedHeap();
+
+    // what the clustered store keeps and sends for each session
+    Buffer serialized = Buffer.buffer();
+    ((ClusterSerializable) session(writeStore, 0)).writeToBuffer(serialized);
+    System.out.printf("%n%s store: %d bytes of heap per session, %d bytes per serialized session%n", store,
+        (after - before) / sessions, serialized.length());
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    this.<Void>await(writer::close);
+    if (reader != writer) {
+      this.<Void>await(reader::close);
+    }
+  }
+
+  @Benchmark
+  public Session lookup() throws Exception {
+    String id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    return await(handler -> readStore.get(id, handler));
+  }
+
+  private SessionStore create(Vertx vertx) {
+    return "clustered".equals(store) ? ClusteredSessionStore.create(vertx, SESSION_MAP)
+        : LocalSessionStore.create(vertx, SESSION_MAP);
+  }
+
+  private static Session session(SessionStore store, int index) {
+    Session session = store.createSession(TIMEOUT);
+    String role = index % 3 == 0 ? "writer" : "editor";
+    session.put("user", new WikiUser("user" + index, new Authorities(new HashSet<>(Arrays.asList(role)),
+        new HashSet<>(role.equals("writer") ? Arrays.asList("update") : Arrays.asList("create", "update", "delete"))),
+        null));
+    return session;
+  }
+
+  private static long usedHeap() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  private <T> T await(Consumer<Handler<AsyncResult<T>>> call) throws Exception {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    call.accept(ar -> {
+      if (ar.succeeded()) {
+        result.complete(ar.result());
+      } else {
+        result.completeExceptionally(ar.cause());
+      }
+    });
+    return result.get(30, TimeUnit.SECONDS);
+  }
+}
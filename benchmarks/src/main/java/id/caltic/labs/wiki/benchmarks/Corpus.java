@@ -0,0 +1,71 @@
+package id.caltic.labs.wiki.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generates wiki-like markdown: headings, paragraphs with emphasis and wiki links, lists and code blocks.
+ */
+public final class Corpus {
+
+  private static final String[] WORDS = ("vert.x event loop verticle worker pool markdown page wiki render " +
+      "template cache index search postgres query connection session latency throughput handler future " +
+      "buffer codec cluster node deploy instance router route request response body header").split(" ");
+
+  private Corpus() {
+  }
+
+  public static String pageName(int index) {
+    return "Page-" + index;
+  }
+
+  public static String markdown(int bytes, long seed, int pageCount) {
+    Random random = new Random(seed);
+    StringBuilder markdown = new StringBuilder(bytes + 256);
+    markdown.append("# ").append(word(random)).append(' ').append(word(random)).append("\n\n");
+    int section = 0;
+    while (markdown.length() < bytes) {
+      markdown.append("## Section ").append(++section).append("\n\n");
+      paragraph(markdown, random, pageCount);
+      markdown.append("\n\n");
+      for (int item = 0; item < 3 + random.nextInt(3); item++) {
+        markdown.append("- ");
+        sentence(markdown, random, 4 + random.nextInt(6), pageCount);
+        markdown.append('\n');
+      }
+      markdown.append('\n');
+      if (random.nextInt(3) == 0) {
+        markdown.append("    vertx.deployVerticle(\"").append(word(random)).append("\");\n")
+            .append("    router.get(\"/").append(word(random)).append("\").handler(this::handle);\n\n");
+      }
+    }
+    return markdown.toString();
+  }
+
+  private static void paragraph(StringBuilder markdown, Random random, int pageCount) {
+    for (int sentence = 0; sentence < 3 + random.nextInt(4); sentence++) {
+      sentence(markdown, random, 8 + random.nextInt(12), pageCount);
+      markdown.append(". ");
+    }
+  }
+
+  private static void sentence(StringBuilder markdown, Random random, int words, int pageCount) {
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        markdown.append(' ');
+      }
+      int kind = random.nextInt(20);
+      if (kind == 0) {
+        markdown.append('*').append(word(random)).append('*');
+      } else if (kind == 1 && pageCount > 0) {
+        String target = pageName(random.nextInt(pageCount));
+        markdown.append('[').append(target).append("](/wiki/").append(target).append(')');
+      } else {
+        markdown.append(word(random));
+      }
+    }
+  }
+
+  private static String word(Random random) {
+    return WORDS[random.nextInt(WORDS.length)];
+  }
+}
@@ -0,0 +1,145 @@
+package id.caltic.labs.wiki.benchmarks;
+
+import com.github.rjeschke.txtmark.Processor;
+import id.caltic.labs.wiki.database.WikiMessageCodec;
+import id.caltic.labs.wiki.database.WikiService;
+import id.caltic.labs.wiki.database.WikiServiceVertxEBProxy;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceBinder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips through the generated WikiService event-bus proxy against an in-memory service, with the default
+ * JSON codecs or with {@link WikiMessageCodec}, and the JSON encoding a clustered event bus would apply to the same
+ * payloads. {@code MessageCodecBenchmark} compares the encodings themselves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBusProxyBenchmark {
+
+  private static final String ADDRESS = "benchmark.wikidb.queue";
+
+  @Param({"4096", "65536"})
+  public int pageBytes;
+
+  @Param({"100", "10000"})
+  public int pageNames;
+
+  @Param({"json", "binary"})
+  public String codec;
+
+  private Vertx vertx;
+  private WikiService proxy;
+  private JsonObject page;
+  private JsonArray names;
+  private String encodedPage;
+
+  @Setup
+  public void setUp() {
+    String markdown = Corpus.markdown(pageBytes, 42, 1000);
+    page = new JsonObject()
+        .put("found", true)
+        .put("id", 1)
+        .put("rawContent", markdown)
+        .put("html", Processor.process(markdown))
+        .put("version", 1)
+        .put("updatedAt", System.currentTimeMillis());
+    encodedPage = page.encode();
+    names = new JsonArray();
+    for (int i = 0; i < pageNames; i++) {
+      names.add(Corpus.pageName(i));
+    }
+
+    vertx = Vertx.vertx();
+    if ("binary".equals(codec)) {
+      WikiMessageCodec.bind(vertx, ADDRESS, inMemoryService());
+      proxy = WikiService.createProxy(vertx, ADDRESS);
+    } else {
+      new ServiceBinder(vertx).setAddress(ADDRESS).register(WikiService.class, inMemoryService());
+      proxy = new WikiServiceVertxEBProxy(vertx, ADDRESS);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    vertx.close();
+  }
+
+  @Benchmark
+  public JsonObject fetchPageRoundTrip() throws Exception {
+    CompletableFuture<JsonObject> reply = new CompletableFuture<>();
+    proxy.fetchPage("Benchmark", complete(reply));
+    return reply.get();
+  }
+
+  @Benchmark
+  public JsonArray fetchAllPagesRoundTrip() throws Exception {
+    CompletableFuture<JsonArray> reply = new CompletableFuture<>();
+    proxy.fetchAllPages(complete(reply));
+    return reply.get();
+  }
+
+  @Benchmark
+  public Buffer encodePage() {
+    return Buffer.buffer(page.encode());
+  }
+
+  @Benchmark
+  public JsonObject decodePage() {
+    return new JsonObject(encodedPage);
+  }
+
+  private static <T> Handler<AsyncResult<T>> complete(CompletableFuture<T> future) {
+    return ar -> {
+      if (ar.succeeded()) {
+        future.complete(ar.result());
+      } else {
+        future.completeExceptionally(ar.cause());
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private WikiService inMemoryService() {
+    return (WikiService) Proxy.newProxyInstance(WikiService.class.getClassLoader(),
+        new Class<?>[]{WikiService.class}, (service, method, args) -> {
+          Handler<AsyncResult<Object>> handler = (Handler<AsyncResult<Object>>) args[args.length - 1];
+          switch (method.getName()) {
+            case "fetchPage":
+              handler.handle(Future.succeededFuture(page));
+              break;
+            case "fetchAllPages":
+              handler.handle(Future.succeededFuture(names));
+              break;
+            default:
+              handler.handle(Future.failedFuture(method.getName() + " is not benchmarked"));
+          }
+          return service;
+        });
+  }
+}
@@ -0,0 +1,519 @@
+package id.caltic.labs.wiki.benchmarks;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * End-to-end load test: starts an embedded Postgres, launches the wiki in a child JVM against it, seeds pages
+ * and drives one scenario at several concurrency levels, printing throughput and latency percentiles.
+ * <p>
+ * Options are given as {@code --name=value}: {@code scenario} (page, index, search, save, upload, mixed, or
+ * startup, which launches the application {@code runs} times and reports how long it took to serve a first page),
+ * {@code pages}, {@code pageBytes}, {@code saveBytes} (size of the pages written by save and upload),
+ * {@code requests}, {@code concurrency} (comma separated), {@code backend}, {@code dbInstances} (comma separated:
+ * the application is relaunched with each number of database verticles in turn, against the same pages, to show
+ * how throughput scales with them), {@code httpInstances}, {@code sessionStore}, {@code port}, {@code appHeap}
+ * (maximum heap of the application, as in -Xmx), {@code replicas} (read replica pools, all pointing at the
+ * embedded database as stand-ins), {@code seedWith} (jdbc inserts pages directly, import streams them through the
+ * bulk import endpoint and reports its throughput; combine it with {@code --requests=0} to only measure the import)
+ * and {@code p99Target} (milliseconds; the harness fails if a level's p99 latency is above it).
+ * The peak heap of the application is sampled from its metrics while each level runs.
+ */
+public final class LoadHarness {
+
+  private static final String APP_MAIN = "id.caltic.labs.wiki.MainVerticle";
+  private static final String HEAP_METRIC = "jvm_memory_used_bytes{area=\"heap\"} ";
+  // bodies written by the save and upload scenarios are prepared once, pages of several MB being slow to build
+  private static final int WRITE_VARIANTS = 8;
+  // from a single common word to combinations few pages match, the search scenario going through them in turn
+  private static final String[] SEARCH_QUERIES = {"verticle", "verticle & cache", "event loop", "codec | cluster",
+      "postgres & session & latency"};
+
+  private final Map<String, String> options;
+  private final String scenario;
+  private final int pages;
+  private final int port;
+  private final List<Buffer> writes = new ArrayList<>();
+  private final List<String> missedTargets = new ArrayList<>();
+
+  private LoadHarness(Map<String, String> options) {
+    this.options = options;
+    this.scenario = option("scenario", "page");
+    this.pages = Integer.parseInt(option("pages", "1000"));
+    this.port = Integer.parseInt(option("port", "9180"));
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      int separator = arg.indexOf('=');
+      if (!arg.startsWith("--") || separator < 0) {
+        throw new IllegalArgumentException("Expected --name=value but got " + arg);
+      }
+      options.put(arg.substring(2, separator), arg.substring(separator + 1));
+    }
+    new LoadHarness(options).run();
+  }
+
+  private String option(String name, String defaultValue) {
+    return options.getOrDefault(name, defaultValue);
+  }
+
+  private void run() throws Exception {
+    try (EmbeddedPostgres postgres = EmbeddedPostgres.start()) {
+      try (Connection connection = postgres.getPostgresDatabase().getConnection()) {
+        seedAuth(connection);
+      }
+      List<Integer> dbInstances = Arrays.stream(option("dbInstances", "1").split(","))
+          .map(count -> Integer.valueOf(count.trim()))
+          .collect(Collectors.toList());
+      if ("startup".equals(scenario)) {
+        measureStartup(postgres.getPort(), dbInstances.get(0));
+        return;
+      }
+
+      for (int run = 0; run < dbInstances.size(); run++) {
+        long launchedAt = System.nanoTime();
+        Process app = launch(postgres.getPort(), dbInstances.get(run));
+        try {
+          awaitReady(app);
+          System.out.printf("Application ready with %d database verticles after %d ms%n", dbInstances.get(run),
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launchedAt));
+
+          // later runs find the pages seeded by the first one
+          if (run == 0) {
+            seed(postgres);
+          }
+          if (Integer.parseInt(option("requests", "20000")) > 0) {
+            drive(dbInstances.get(run));
+          }
+        } finally {
+          app.destroy();
+          app.waitFor(10, TimeUnit.SECONDS);
+        }
+      }
+    }
+    if (!missedTargets.isEmpty()) {
+      throw new IllegalStateException("p99 above " + option("p99Target", "") + " ms at " + missedTargets);
+    }
+  }
+
+  private void seed(EmbeddedPostgres postgres) throws Exception {
+    if ("import".equals(option("seedWith", "jdbc"))) {
+      importPages();
+    } else {
+      try (Connection connection = postgres.getPostgresDatabase().getConnection()) {
+        seedPages(connection);
+      }
+    }
+  }
+
+  private void seedAuth(Connection connection) throws Exception {
+    String script;
+    try (InputStream in = LoadHarness.class.getResourceAsStream("/sql/vertx_auth_jdbc.sql");
+         Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A")) {
+      script = scanner.next();
+    }
+    String statements = Arrays.stream(script.split("\n"))
+        .filter(line -> !line.startsWith("---"))
+        .collect(Collectors.joining("\n"));
+    try (Statement statement = connection.createStatement()) {
+      for (String sql : statements.split(";")) {
+        if (!sql.trim().isEmpty()) {
+          statement.execute(sql);
+        }
+      }
+    }
+  }
+
+  private Process launch(int databasePort, int dbInstances) throws Exception {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    List<String> command = new ArrayList<>(Arrays.asList(java, "-cp", System.getProperty("java.class.path")));
+    if (options.containsKey("appHeap")) {
+      command.add("-Xmx" + option("appHeap", ""));
+    }
+    command.addAll(Arrays.asList("io.vertx.core.Launcher", "run", APP_MAIN));
+    ProcessBuilder builder = new ProcessBuilder(command);
+    Map<String, String> env = builder.environment();
+    String databaseUrl = "jdbc:postgresql://localhost:" + databasePort + "/postgres";
+    env.put("JDBC_DATABASE_URL", databaseUrl);
+    env.put("WIKIDB_REPLICA_URLS",
+        String.join(",", Collections.nCopies(Integer.parseInt(option("replicas", "0")), databaseUrl)));
+    env.put("DATABASE_USER", "postgres");
+    env.put("DATABASE_PASSWORD", "postgres");
+    env.put("WIKIDB_BACKEND", option("backend", "async"));
+    env.put("VERTICLE_DB_INSTANCE", String.valueOf(dbInstances));
+    env.put("VERTICLE_HTTP_INSTANCE", option("httpInstances", "1"));
+    env.put("SESSION_STORE", option("sessionStore", "local"));
+    env.put("PORT", String.valueOf(port));
+    builder.redirectErrorStream(true);
+    builder.redirectOutput(new File("load-harness-app.log"));
+    return builder.start();
+  }
+
+  private void awaitReady(Process app) throws Exception {
+    await(app, System.nanoTime(), 100, () -> status("/health/ready", null) == 200);
+  }
+
+  /**
+   * Launches the application {@code runs} times against the same database, the first run creating the schema, and
+   * reports when it listened, when it reported ready and when it served a first wiki page to a logged in user, all
+   * from the launch of its JVM.
+   */
+  private void measureStartup(int databasePort, int dbInstances) throws Exception {
+    int runs = Integer.parseInt(option("runs", "5"));
+    System.out.printf("%-6s %14s %14s %14s%n", "run", "listening ms", "ready ms", "first page ms");
+    for (int run = 1; run <= runs; run++) {
+      long launchedAt = System.nanoTime();
+      Process app = launch(databasePort, dbInstances);
+      try {
+        long listening = await(app, launchedAt, 5, () -> status("/health/live", null) == 200);
+        long ready = await(app, launchedAt, 5, () -> status("/health/ready", null) == 200);
+        long firstPage = await(app, launchedAt, 5, () -> {
+          String cookie = loginCookie();
+          return cookie != null && status("/wiki/" + Corpus.pageName(0), cookie) == 200;
+        });
+        System.out.printf("%-6d %14d %14d %14d%n", run, listening, ready, firstPage);
+      } finally {
+        app.destroy();
+        app.waitFor(10, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  /**
+   * Polls {@code condition} every {@code intervalMillis} and returns the milliseconds elapsed since {@code from}
+   * once it holds.
+   */
+  private static long await(Process app, long from, long intervalMillis, Callable<Boolean> condition)
+      throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+    while (System.nanoTime() < deadline) {
+      if (!app.isAlive()) {
+        throw new IllegalStateException("Application exited, see load-harness-app.log");
+      }
+      if (condition.call()) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - from);
+      }
+      Thread.sleep(intervalMillis);
+    }
+    throw new IllegalStateException("Application did not start within 60 seconds");
+  }
+
+  /**
+   * -1 while the application isn't listening.
+   */
+  private int status(String path, String cookie) {
+    try {
+      HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path)
+          .openConnection();
+      connection.setInstanceFollowRedirects(false);
+      if (cookie != null) {
+        connection.setRequestProperty("Cookie", cookie);
+      }
+      int status = connection.getResponseCode();
+      connection.disconnect();
+      return status;
+    } catch (java.io.IOException notYetListening) {
+      return -1;
+    }
+  }
+
+  private String loginCookie() {
+    try {
+      HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/login")
+          .openConnection();
+      connection.setInstanceFollowRedirects(false);
+      connection.setDoOutput(true);
+      connection.setRequestMethod("POST");
+      connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+      try (java.io.OutputStream out = connection.getOutputStream()) {
+        out.write("username=admin&password=admin&return_url=%2F".getBytes(StandardCharsets.UTF_8));
+      }
+      List<String> cookies = connection.getHeaderFields().get("Set-Cookie");
+      int status = connection.getResponseCode();
+      connection.disconnect();
+      if (status != 303 || cookies == null) {
+        return null;
+      }
+      return cookies.stream().map(value -> value.split(";", 2)[0]).collect(Collectors.joining("; "));
+    } catch (java.io.IOException notYetListening) {
+      return null;
+    }
+  }
+
+  /**
+   * Runs after the application has created the schema; ids follow insertion order on a fresh database.
+   */
+  private void seedPages(Connection connection) throws Exception {
+    int pageBytes = Integer.parseInt(option("pageBytes", "4096"));
+    connection.setAutoCommit(false);
+    try (PreparedStatement insert = connection.prepareStatement("INSERT INTO pages (name, content) VALUES (?, ?)")) {
+      for (int i = 0; i < pages; i++) {
+        insert.setString(1, Corpus.pageName(i));
+        insert.setString(2, Corpus.markdown(pageBytes, i, pages));
+        insert.addBatch();
+        if (i % 500 == 499) {
+          insert.executeBatch();
+        }
+      }
+      insert.executeBatch();
+    }
+    connection.commit();
+    System.out.printf("Seeded %d pages of ~%d bytes%n", pages, pageBytes);
+  }
+
+  private void importPages() throws Exception {
+    int pageBytes = Integer.parseInt(option("pageBytes", "4096"));
+    Vertx vertx = Vertx.vertx();
+    try {
+      HttpClient client = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(port));
+      String cookie = login(client);
+      CountDownLatch done = new CountDownLatch(1);
+      long startedAt = System.nanoTime();
+      HttpClientRequest request = client.post("/import/pages", response -> response.bodyHandler(body -> {
+        String[] reports = body.toString("UTF-8").trim().split("\n");
+        System.out.println("Import summary: " + reports[reports.length - 1]);
+        done.countDown();
+      }));
+      request.setChunked(true).putHeader("Cookie", cookie).putHeader("Content-Type", "application/x-ndjson");
+      request.exceptionHandler(failure -> {
+        failure.printStackTrace();
+        done.countDown();
+      });
+      vertx.runOnContext(v -> writePages(request, 0, pageBytes));
+      done.await();
+      System.out.printf("Imported %d pages of ~%d bytes in %d ms%n", pages, pageBytes,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+    } finally {
+      vertx.close();
+    }
+  }
+
+  private void writePages(HttpClientRequest request, int from, int pageBytes) {
+    int index = from;
+    while (index < pages && !request.writeQueueFull()) {
+      request.write(new JsonObject()
+          .put("name", Corpus.pageName(index))
+          .put("markdown", Corpus.markdown(pageBytes, index, pages))
+          .encode() + "\n");
+      index++;
+    }
+    if (index == pages) {
+      request.end();
+    } else {
+      int next = index;
+      request.drainHandler(v -> writePages(request, next, pageBytes));
+    }
+  }
+
+  private void drive(int dbInstances) throws Exception {
+    int requests = Integer.parseInt(option("requests", "20000"));
+    prepareWrites();
+    Vertx vertx = Vertx.vertx();
+    try {
+      HttpClient scraper = vertx.createHttpClient(new HttpClientOptions().setDefaultPort(port));
+      AtomicLong peakHeap = new AtomicLong();
+      vertx.setPeriodic(100, id -> scraper.getNow("/metrics", response -> response.bodyHandler(body -> {
+        String metrics = body.toString("UTF-8");
+        int at = metrics.indexOf(HEAP_METRIC);
+        if (at >= 0) {
+          String value = metrics.substring(at + HEAP_METRIC.length(), metrics.indexOf('\n', at));
+          peakHeap.accumulateAndGet((long) Double.parseDouble(value), Math::max);
+        }
+      })));
+      System.out.printf("%-8s %-8s %-12s %10s %10s %10s %10s %10s %8s %12s%n", "scenario", "db inst",
+          "concurrency", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "errors", "peak heap MB");
+      for (String level : option("concurrency", "1,8,32,128").split(",")) {
+        int concurrency = Integer.parseInt(level.trim());
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions()
+            .setDefaultPort(port)
+            .setMaxPoolSize(concurrency)
+            .setKeepAlive(true));
+        String cookie = login(client);
+        // warm up the JIT, the page cache and the connection pools before measuring
+        runLevel(client, cookie, concurrency, Math.min(requests, 2000));
+        peakHeap.set(0);
+        Result result = runLevel(client, cookie, concurrency, requests);
+        System.out.printf("%-8s %-8d %-12d %10.0f %10.2f %10.2f %10.2f %10.2f %8d %12d%n", scenario, dbInstances,
+            concurrency, result.throughput(), result.percentile(50), result.percentile(90), result.percentile(99),
+            result.percentile(100), result.errors, peakHeap.get() / (1024 * 1024));
+        if (options.containsKey("p99Target")
+            && result.percentile(99) > Double.parseDouble(option("p99Target", ""))) {
+          missedTargets.add(dbInstances + " database verticles, concurrency " + concurrency);
+        }
+        client.close();
+      }
+    } finally {
+      vertx.close();
+    }
+  }
+
+  private String login(HttpClient client) throws Exception {
+    CountDownLatch done = new CountDownLatch(1);
+    String[] cookie = new String[1];
+    client.post("/login", response -> {
+      List<String> cookies = response.cookies();
+      cookie[0] = cookies.stream().map(value -> value.split(";", 2)[0]).collect(Collectors.joining("; "));
+      done.countDown();
+    }).putHeader("Content-Type", "application/x-www-form-urlencoded")
+        .end("username=admin&password=admin&return_url=%2F");
+    if (!done.await(30, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("Login timed out");
+    }
+    return cookie[0];
+  }
+
+  private Result runLevel(HttpClient client, String cookie, int concurrency, int requests) throws Exception {
+    long[] latencies = new long[requests];
+    AtomicInteger issued = new AtomicInteger();
+    AtomicInteger errors = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(requests);
+    long startedAt = System.nanoTime();
+    for (int i = 0; i < concurrency; i++) {
+      next(client, cookie, requests, latencies, issued, errors, done);
+    }
+    done.await();
+    return new Result(latencies, errors.get(), System.nanoTime() - startedAt);
+  }
+
+  private void next(HttpClient client, String cookie, int requests, long[] latencies, AtomicInteger issued,
+                    AtomicInteger errors, CountDownLatch done) {
+    int slot = issued.getAndIncrement();
+    if (slot >= requests) {
+      return;
+    }
+    long sentAt = System.nanoTime();
+    boolean upload = "upload".equals(scenario);
+    boolean write = upload || "save".equals(scenario) || ("mixed".equals(scenario) && slot % 10 == 0);
+    int page = ThreadLocalRandom.current().nextInt(pages);
+    String uri = write ? null : readUri(page, slot);
+    HttpClientRequest request;
+    if (upload) {
+      request = client.request(HttpMethod.PUT, "/wiki/" + Corpus.pageName(page) + "/source",
+          response -> response.bodyHandler(body -> {
+            record(response.statusCode() != 204, slot, sentAt, latencies, errors, done);
+            next(client, cookie, requests, latencies, issued, errors, done);
+          }));
+      request.putHeader("Content-Type", "text/markdown; charset=utf-8");
+    } else if (write) {
+      request = client.request(HttpMethod.POST, "/action/save", response -> response.bodyHandler(body -> {
+        record(response.statusCode() != 303, slot, sentAt, latencies, errors, done);
+        next(client, cookie, requests, latencies, issued, errors, done);
+      }));
+      request.putHeader("Content-Type", "application/x-www-form-urlencoded");
+    } else {
+      request = client.request(HttpMethod.GET, uri, response -> response.bodyHandler(body -> {
+        record(response.statusCode() != 200, slot, sentAt, latencies, errors, done);
+        next(client, cookie, requests, latencies, issued, errors, done);
+      }));
+    }
+    request.putHeader("Cookie", cookie);
+    request.exceptionHandler(failure -> {
+      record(true, slot, sentAt, latencies, errors, done);
+      next(client, cookie, requests, latencies, issued, errors, done);
+    });
+    Buffer body = write ? writes.get(slot % writes.size()) : null;
+    if (upload) {
+      request.end(body);
+    } else if (write) {
+      Buffer form = Buffer.buffer("id=" + (page + 1) + "&title=" + Corpus.pageName(page) + "&newPage=no&markdown=");
+      request.putHeader("Content-Length", String.valueOf(form.length() + body.length()));
+      request.write(form);
+      request.end(body);
+    } else {
+      request.end();
+    }
+  }
+
+  /**
+   * Raw markdown for uploads, its form-encoded value for saves.
+   */
+  private void prepareWrites() {
+    int saveBytes = Integer.parseInt(option("saveBytes", "1024"));
+    for (int i = 0; i < WRITE_VARIANTS; i++) {
+      String markdown = Corpus.markdown(saveBytes, i, pages);
+      writes.add(Buffer.buffer("upload".equals(scenario) ? markdown : encode(markdown)));
+    }
+  }
+
+  private String readUri(int page, int slot) {
+    switch (scenario) {
+      case "index":
+        return "/";
+      case "search":
+        return "/search?q=" + encode(SEARCH_QUERIES[slot % SEARCH_QUERIES.length]);
+      default:
+        return "/wiki/" + Corpus.pageName(page);
+    }
+  }
+
+  private static void record(boolean failed, int slot, long sentAt, long[] latencies, AtomicInteger errors,
+                             CountDownLatch done) {
+    latencies[slot] = System.nanoTime() - sentAt;
+    if (failed) {
+      errors.incrementAndGet();
+    }
+    done.countDown();
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    } catch (java.io.UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class Result {
+    final long[] latencies;
+    final int errors;
+    final long elapsedNanos;
+
+    Result(long[] latencies, int errors, long elapsedNanos) {
+      this.latencies = latencies.clone();
+      Arrays.sort(this.latencies);
+      this.errors = errors;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    double throughput() {
+      return latencies.length / (elapsedNanos / 1e9);
+    }
+
+    double percentile(int percentile) {
+      int index = Math.min(latencies.length - 1, (int) Math.ceil(percentile / 100.0 * latencies.length) - 1);
+      return latencies[Math.max(0, index)] / 1e6;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package id.caltic.labs.wiki.benchmarks;
+
+import com.github.rjeschke.txtmark.Processor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkdownRenderBenchmark {
+
+  @Param({"1024", "16384", "262144"})
+  public int pageBytes;
+
+  private String markdown;
+
+  @Setup
+  public void setUp() {
+    markdown = Corpus.markdown(pageBytes, 42, 1000);
+  }
+
+  @Benchmark
+  public String process() {
+    return Processor.process(markdown);
+  }
+}
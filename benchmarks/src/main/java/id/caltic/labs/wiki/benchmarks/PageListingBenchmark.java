@@ -0,0 +1,66 @@
+package id.caltic.labs.wiki.benchmarks;
+
+import io.vertx.core.json.JsonArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the way fetchAllPages used to shape its result (parallel sort on the common pool) with a sequential
+ * collect of rows the database already returns in order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageListingBenchmark {
+
+  @Param({"1000", "100000"})
+  public int pages;
+
+  private List<JsonArray> shuffledRows;
+  private List<JsonArray> sortedRows;
+
+  @Setup
+  public void setUp() {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < pages; i++) {
+      names.add(Corpus.pageName(i));
+    }
+    Collections.sort(names);
+    sortedRows = names.stream().map(name -> new JsonArray().add(name)).collect(Collectors.toList());
+    shuffledRows = new ArrayList<>(sortedRows);
+    Collections.shuffle(shuffledRows, new Random(42));
+  }
+
+  @Benchmark
+  public JsonArray parallelSortedCollect() {
+    return new JsonArray(shuffledRows.parallelStream()
+        .map(json -> json.getString(0)).sorted()
+        .collect(Collectors.toList()));
+  }
+
+  @Benchmark
+  public JsonArray orderedCollect() {
+    return new JsonArray(sortedRows.stream()
+        .map(json -> json.getString(0))
+        .collect(Collectors.toList()));
+  }
+}
@@ -0,0 +1,113 @@
+package id.caltic.labs.wiki.database;
+
+import com.github.rjeschke.txtmark.Processor;
+import id.caltic.labs.wiki.benchmarks.Corpus;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes a fetched page and a list of page names the way a clustered event bus would, as JSON text
+ * with the default codecs and with {@link WikiMessageCodec}. Message sizes are printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+  @Param({"4096", "65536"})
+  public int pageBytes;
+
+  @Param({"100", "10000"})
+  public int pageNames;
+
+  private JsonObject page;
+  private JsonArray names;
+  private String pageJson;
+  private String namesJson;
+  private Buffer pageBinary;
+  private Buffer namesBinary;
+
+  @Setup
+  public void setUp() {
+    String markdown = Corpus.markdown(pageBytes, 42, 1000);
+    page = new JsonObject()
+        .put("found", true)
+        .put("id", 1)
+        .put("rawContent", markdown)
+        .put("html", Processor.process(markdown))
+        .put("version", 1)
+        .put("updatedAt", System.currentTimeMillis());
+    names = new JsonArray();
+    for (int i = 0; i < pageNames; i++) {
+      names.add(Corpus.pageName(i));
+    }
+    pageJson = page.encode();
+    namesJson = names.encode();
+    pageBinary = encodePageBinary();
+    namesBinary = encodeNamesBinary();
+    System.out.printf("%npage: %d bytes as JSON, %d as binary; %d names: %d bytes as JSON, %d as binary%n",
+        Buffer.buffer(pageJson).length(), pageBinary.length(), pageNames, Buffer.buffer(namesJson).length(),
+        namesBinary.length());
+  }
+
+  @Benchmark
+  public Buffer encodePageJson() {
+    return Buffer.buffer(page.encode());
+  }
+
+  @Benchmark
+  public Buffer encodePageBinary() {
+    Buffer buffer = Buffer.buffer();
+    WikiMessageCodec.INSTANCE.encodeToWire(buffer, page);
+    return buffer;
+  }
+
+  @Benchmark
+  public JsonObject decodePageJson() {
+    return new JsonObject(pageJson);
+  }
+
+  @Benchmark
+  public Object decodePageBinary() {
+    return WikiMessageCodec.INSTANCE.decodeFromWire(0, pageBinary);
+  }
+
+  @Benchmark
+  public Buffer encodeNamesJson() {
+    return Buffer.buffer(names.encode());
+  }
+
+  @Benchmark
+  public Buffer encodeNamesBinary() {
+    Buffer buffer = Buffer.buffer();
+    WikiMessageCodec.INSTANCE.encodeToWire(buffer, names);
+    return buffer;
+  }
+
+  @Benchmark
+  public JsonArray decodeNamesJson() {
+    return new JsonArray(namesJson);
+  }
+
+  @Benchmark
+  public Object decodeNamesBinary() {
+    return WikiMessageCodec.INSTANCE.decodeFromWire(0, namesBinary);
+  }
+}
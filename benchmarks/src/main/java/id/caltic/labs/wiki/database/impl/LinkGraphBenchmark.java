@@ -0,0 +1,139 @@
+package id.caltic.labs.wiki.database.impl;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import id.caltic.labs.wiki.benchmarks.Corpus;
+import id.caltic.labs.wiki.database.WikiService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.SQLClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Seeds an embedded Postgres with pages of about ten wiki links each, a tenth of them pointing at pages that don't
+ * exist, and measures the link graph queries along with a save that moves one link. With the default parameters
+ * the graph holds 100k pages and around a million links; seeding time and graph size are printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkGraphBenchmark {
+
+  private static final int PAGE_BYTES = 1536;
+  private static final int BATCH_SIZE = 1000;
+
+  @Param({"100000"})
+  public int pages;
+
+  private EmbeddedPostgres postgres;
+  private Vertx vertx;
+  private WikiService wikiService;
+  private final Random random = new Random(42);
+  private int savedId;
+  private String savedMarkdown;
+  private int saves;
+
+  @Setup
+  public void setUp() throws Exception {
+    postgres = EmbeddedPostgres.start();
+    vertx = Vertx.vertx();
+    SQLClient client = JDBCClient.createNonShared(vertx, new JsonObject()
+        .put("url", postgres.getJdbcUrl("postgres", "postgres"))
+        .put("driver_class", "org.postgresql.Driver")
+        .put("max_pool_size", 4));
+    wikiService = this.<WikiService>await(handler -> WikiService.create(vertx, client, client, handler));
+
+    long startedAt = System.nanoTime();
+    // links go to a tenth more pages than there are, hence the broken ones
+    int targets = pages + pages / 10;
+    for (int from = 0; from < pages; from += BATCH_SIZE) {
+      JsonArray batch = new JsonArray();
+      for (int i = from; i < Math.min(pages, from + BATCH_SIZE); i++) {
+        batch.add(new JsonObject().put("name", Corpus.pageName(i)).put("markdown", Corpus.markdown(PAGE_BYTES, i,
+            targets)));
+      }
+      this.<JsonObject>await(handler -> wikiService.createPages(batch, handler));
+    }
+    long links;
+    try (Connection connection = postgres.getPostgresDatabase().getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute("VACUUM ANALYZE");
+      try (ResultSet count = statement.executeQuery("SELECT count(*) FROM page_links")) {
+        count.next();
+        links = count.getLong(1);
+      }
+    }
+    System.out.printf("%nSeeded %d pages and %d links in %d ms%n", pages, links,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+
+    savedMarkdown = Corpus.markdown(PAGE_BYTES, 0, targets);
+    savedId = this.<JsonObject>await(handler -> wikiService.fetchPageVersion(Corpus.pageName(0), handler))
+        .getInteger("id");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    vertx.close(ar -> closed.complete(null));
+    closed.get();
+    postgres.close();
+  }
+
+  @Benchmark
+  public JsonArray fetchBacklinks() {
+    String name = Corpus.pageName(random.nextInt(pages));
+    return await(handler -> wikiService.fetchBacklinks(name, 1000, handler));
+  }
+
+  @Benchmark
+  public JsonObject fetchLinkReport() {
+    return await(handler -> wikiService.fetchLinkReport(1000, handler));
+  }
+
+  /**
+   * Appends a link to a different page on every save, so that each one drops a link and adds another.
+   */
+  @Benchmark
+  public Void savePageMovingALink() {
+    String markdown = savedMarkdown + "\n\nSee [next](/wiki/" + Corpus.pageName(saves++ % pages) + ").\n";
+    return await(handler -> wikiService.savePage(savedId, markdown, -1, handler));
+  }
+
+  private <T> T await(Consumer<Handler<AsyncResult<T>>> call) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    call.accept(ar -> {
+      if (ar.succeeded()) {
+        result.complete(ar.result());
+      } else {
+        result.completeExceptionally(ar.cause());
+      }
+    });
+    return result.join();
+  }
+}
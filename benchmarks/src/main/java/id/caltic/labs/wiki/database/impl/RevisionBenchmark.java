@@ -0,0 +1,115 @@
+package id.caltic.labs.wiki.database.impl;
+
+import id.caltic.labs.wiki.benchmarks.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a page history of local edits (a sentence replaced, inserted or removed per save) and measures what
+ * saving and rebuilding revisions cost with a snapshot every {@link WikiServiceImpl#SNAPSHOT_INTERVAL}
+ * revisions, against rebuilding through the whole chain. Storage for the history is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RevisionBenchmark {
+
+  @Param({"4096", "65536"})
+  public int pageBytes;
+
+  @Param({"1000", "5000"})
+  public int revisions;
+
+  private final List<Delta> deltas = new ArrayList<>();
+  private String first;
+  private String previous;
+  private String latest;
+  private int worstCaseFrom;
+  private String worstCaseSnapshot;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    first = Corpus.markdown(pageBytes, 42, 1000);
+    List<String> contents = new ArrayList<>();
+    contents.add(first);
+    String content = first;
+    long deltaBytes = 0;
+    long snapshotBytes = first.length();
+    for (int revision = 2; revision <= revisions; revision++) {
+      String next = edit(content, random);
+      Delta delta = Delta.between(content, next);
+      deltas.add(delta);
+      contents.add(next);
+      if ((revision - 1) % WikiServiceImpl.SNAPSHOT_INTERVAL == 0) {
+        snapshotBytes += next.length();
+      } else {
+        deltaBytes += delta.text.length();
+      }
+      content = next;
+    }
+    previous = contents.get(contents.size() - 2);
+    latest = content;
+    // the revision just before a snapshot is the longest chain to rebuild
+    worstCaseFrom = ((revisions - 2) / WikiServiceImpl.SNAPSHOT_INTERVAL) * WikiServiceImpl.SNAPSHOT_INTERVAL;
+    worstCaseSnapshot = contents.get(worstCaseFrom);
+
+    long fullCopies = contents.stream().mapToLong(String::length).sum();
+    System.out.printf("%n%d revisions of ~%d chars: %d chars as snapshots and deltas, %d as full copies%n",
+        revisions, pageBytes, snapshotBytes + deltaBytes, fullCopies);
+  }
+
+  @Benchmark
+  public Delta saveRevision() {
+    return Delta.between(previous, latest);
+  }
+
+  @Benchmark
+  public String rebuildFromSnapshot() {
+    String content = worstCaseSnapshot;
+    int to = Math.min(deltas.size(), worstCaseFrom + WikiServiceImpl.SNAPSHOT_INTERVAL - 1);
+    for (int i = worstCaseFrom; i < to; i++) {
+      content = deltas.get(i).applyTo(content);
+    }
+    return content;
+  }
+
+  @Benchmark
+  public String rebuildWholeChain() {
+    String content = first;
+    for (Delta delta : deltas) {
+      content = delta.applyTo(content);
+    }
+    return content;
+  }
+
+  private static String edit(String content, Random random) {
+    int at = random.nextInt(content.length() + 1);
+    int end = Math.min(content.length(), at + random.nextInt(24));
+    switch (random.nextInt(3)) {
+      case 0:
+        return content.substring(0, at) + "*revised " + random.nextInt(100000) + "* " + content.substring(at);
+      case 1:
+        return content.substring(0, at) + content.substring(end);
+      default:
+        return content.substring(0, at) + "*revised " + random.nextInt(100000) + "* " + content.substring(end);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package id.caltic.labs.wiki.http;
+
+import com.github.rjeschke.txtmark.Processor;
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import id.caltic.labs.wiki.benchmarks.Corpus;
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares rendering a whole page through FreeMarker into a string, layout included, and encoding it afterwards
+ * (what the FreeMarker template engine did for every request) with {@link Templates}, which writes pre-encoded
+ * layout buffers around a body rendered straight into bytes. Run with {@code -prof gc} to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateRenderBenchmark {
+
+  @Param({"4096", "65536"})
+  public int pageBytes;
+
+  @Param({"100", "1000"})
+  public int indexPages;
+
+  private Template header;
+  private Template footer;
+  private Template pageBody;
+  private Template indexBody;
+  private Templates templates;
+  private Map<String, Object> page;
+  private Map<String, Object> index;
+
+  @Setup
+  public void setUp() throws Exception {
+    Configuration configuration = new Configuration(Configuration.VERSION_2_3_23);
+    configuration.setTemplateLoader(new ClassTemplateLoader(TemplateRenderBenchmark.class, "/templates"));
+    configuration.setDefaultEncoding("UTF-8");
+    header = configuration.getTemplate("header.ftl");
+    footer = configuration.getTemplate("footer.ftl");
+    pageBody = configuration.getTemplate("page.ftl");
+    indexBody = configuration.getTemplate("index.ftl");
+    templates = Templates.load();
+
+    String markdown = Corpus.markdown(pageBytes, 42, 1000);
+    page = new HashMap<>();
+    page.put("title", "Benchmark");
+    page.put("id", 1);
+    page.put("newPage", "no");
+    page.put("canDelete", true);
+    page.put("rawContent", markdown);
+    page.put("content", Processor.process(markdown));
+    page.put("timestamp", "Thu, 1 Jan 2018 00:00:00 GMT");
+
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < indexPages; i++) {
+      names.add(Corpus.pageName(i));
+    }
+    index = new HashMap<>();
+    index.put("title", "Wiki Home");
+    index.put("pages", names);
+    index.put("paged", false);
+    index.put("next", Corpus.pageName(indexPages));
+    index.put("canCreatePage", true);
+    index.put("username", "admin");
+  }
+
+  @Benchmark
+  public Buffer pageThroughFreeMarker() throws Exception {
+    return wholePage(pageBody, page);
+  }
+
+  @Benchmark
+  public void pagePrecompiled(Blackhole blackhole) throws Exception {
+    layout(blackhole, "page.ftl", page);
+  }
+
+  @Benchmark
+  public Buffer indexThroughFreeMarker() throws Exception {
+    return wholePage(indexBody, index);
+  }
+
+  @Benchmark
+  public void indexPrecompiled(Blackhole blackhole) throws Exception {
+    layout(blackhole, "index.ftl", index);
+  }
+
+  private Buffer wholePage(Template body, Map<String, Object> data) throws Exception {
+    Map<String, Object> model = Collections.singletonMap("context", data);
+    StringWriter out = new StringWriter();
+    header.process(model, out);
+    body.process(model, out);
+    footer.process(model, out);
+    return Buffer.buffer(out.toString());
+  }
+
+  private void layout(Blackhole blackhole, String template, Map<String, Object> data) throws Exception {
+    blackhole.consume(templates.head((String) data.get("title")));
+    blackhole.consume(templates.render(template, data));
+    blackhole.consume(templates.footer);
+  }
+}
@@ -1,35 +1,46 @@
 package id.caltic.labs.wiki;
 
 import id.caltic.labs.wiki.database.WikiDatabaseVerticle;
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
 public class MainVerticle extends AbstractVerticle {
   private static final Logger LOGGER = LoggerFactory.getLogger(MainVerticle.class);
 
   public void start(Future<Void> startFuture) throws Exception {
+    registerMemoryGauges(MetricsRegistry.get(vertx));
+    long start = System.nanoTime();
     Future<String> dbVerticleDeployment = Future.future();
+    Future<String> httpVerticleDeployment = Future.future();
 
     String httpInstance = System.getenv("VERTICLE_HTTP_INSTANCE");
+    String dbInstance = System.getenv("VERTICLE_DB_INSTANCE");
 
     DeploymentOptions httpOptions = new DeploymentOptions()
         .setInstances((httpInstance == null || httpInstance.isEmpty()) ? 1 : Integer.valueOf(httpInstance));
+    DeploymentOptions dbOptions = new DeploymentOptions()
+        .setInstances((dbInstance == null || dbInstance.isEmpty()) ? 1 : Integer.valueOf(dbInstance));
 
+    // HTTP instances don't wait for the database: they listen right away and report ready on /health/ready
+    // once they reached it
     vertx.deployVerticle(
-        new WikiDatabaseVerticle(), dbVerticleDeployment.completer());
-
-    dbVerticleDeployment.compose(id -> {
-      Future<String> httpVerticleDeployment = Future.future();
-      vertx.deployVerticle(
-          "id.caltic.labs.wiki.http.HttpServerVerticle",
-          httpOptions, httpVerticleDeployment.completer());
+        WikiDatabaseVerticle.class.getName(), dbOptions, dbVerticleDeployment.completer());
+    vertx.deployVerticle(
+        "id.caltic.labs.wiki.http.HttpServerVerticle",
+        httpOptions, httpVerticleDeployment.completer());
 
-      return httpVerticleDeployment;
-    }).setHandler(ar -> {
+    CompositeFuture.all(dbVerticleDeployment, httpVerticleDeployment).setHandler(ar -> {
       if (ar.succeeded()) {
+        LOGGER.info("Verticles deployed in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
         startFuture.complete();
       } else {
         startFuture.fail(ar.cause());
@@ -37,4 +48,13 @@ public class MainVerticle extends AbstractVerticle {
     });
   }
 
+  private static void registerMemoryGauges(MetricsRegistry metrics) {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    metrics.gauge("jvm_memory_used_bytes", "JVM memory in use", () -> memory.getHeapMemoryUsage().getUsed(),
+        "area", "heap");
+    metrics.gauge("jvm_memory_used_bytes", "JVM memory in use", () -> memory.getNonHeapMemoryUsage().getUsed(),
+        "area", "nonheap");
+    metrics.gauge("jvm_memory_max_bytes", "Largest amount of memory the JVM may use",
+        () -> memory.getHeapMemoryUsage().getMax(), "area", "heap");
+  }
 }
\ No newline at end of file
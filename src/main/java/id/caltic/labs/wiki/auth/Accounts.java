@@ -0,0 +1,19 @@
+package id.caltic.labs.wiki.auth;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+
+/**
+ * Where {@link CachingAuthProvider} finds users: the vertx-auth-jdbc tables, or a file for the embedded backend.
+ */
+interface Accounts {
+
+  /**
+   * The stored password hash and salt of {@code username}, in the columns of the vertx-auth-jdbc user table, or
+   * null when there is no such user.
+   */
+  void credentials(String username, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  void authorities(String username, Handler<AsyncResult<Authorities>> resultHandler);
+}
@@ -0,0 +1,52 @@
+package id.caltic.labs.wiki.auth;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Immutable role and permission sets of one user, as loaded from user_roles and roles_perms.
+ */
+final class Authorities {
+
+  private final Set<String> roles;
+  private final Set<String> permissions;
+
+  Authorities(Set<String> roles, Set<String> permissions) {
+    this.roles = Collections.unmodifiableSet(roles);
+    this.permissions = Collections.unmodifiableSet(permissions);
+  }
+
+  boolean hasRole(String role) {
+    return roles.contains(role);
+  }
+
+  boolean hasPermission(String permission) {
+    return permissions.contains(permission);
+  }
+
+  Set<String> roles() {
+    return roles;
+  }
+
+  Set<String> permissions() {
+    return permissions;
+  }
+
+  void writeTo(JsonObject principal) {
+    principal.put("roles", new JsonArray(new ArrayList<>(roles)));
+    principal.put("permissions", new JsonArray(new ArrayList<>(permissions)));
+  }
+
+  static Authorities readFrom(JsonObject principal) {
+    Set<String> roles = new HashSet<>();
+    Set<String> permissions = new HashSet<>();
+    principal.getJsonArray("roles", new JsonArray()).forEach(role -> roles.add((String) role));
+    principal.getJsonArray("permissions", new JsonArray()).forEach(perm -> permissions.add((String) perm));
+    return new Authorities(roles, permissions);
+  }
+}
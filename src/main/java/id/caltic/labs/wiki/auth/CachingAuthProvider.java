@@ -0,0 +1,175 @@
+package id.caltic.labs.wiki.auth;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.auth.AuthProvider;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.auth.jdbc.JDBCHashStrategy;
+import io.vertx.ext.jdbc.JDBCClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Authenticates against the vertx-auth-jdbc tables, or the accounts file of the embedded backend, hashing passwords
+ * on a worker thread, and keeps each user's roles and permissions in memory for a limited time. Publishing a username
+ * on {@link #AUTH_INVALIDATE} (or an empty message for everybody) drops cached authorities on every node. One provider
+ * serves all the HTTP verticles of a Vert.x instance, through the {@link #LOCAL_MAP} local map, so that its cache is
+ * loaded and invalidated once.
+ */
+public class CachingAuthProvider implements AuthProvider, Shareable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CachingAuthProvider.class);
+
+  public static final String AUTH_INVALIDATE = "wiki.auth.invalidate";
+  static final String LOCAL_MAP = "wiki.auth";
+  private static final String SHARED_NAME = "jdbc";
+
+  private static final class CachedAuthorities {
+    final Authorities authorities;
+    final long expiresAt;
+
+    CachedAuthorities(Authorities authorities, long expiresAt) {
+      this.authorities = authorities;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final Vertx vertx;
+  private final Accounts accounts;
+  private final JDBCHashStrategy hashStrategy;
+  private final long ttlMillis;
+  private final ConcurrentMap<String, CachedAuthorities> cache = new ConcurrentHashMap<>();
+
+  /**
+   * The provider of this Vert.x instance, created with {@code client} and {@code ttlMillis} by the first verticle
+   * asking for it.
+   */
+  public static CachingAuthProvider get(Vertx vertx, JDBCClient client, long ttlMillis) {
+    return get(vertx, new JdbcAccounts(client), ttlMillis);
+  }
+
+  /**
+   * The provider of this Vert.x instance for the embedded backend, reading users from the JSON document at
+   * {@code path}, a file or a class path resource.
+   */
+  public static CachingAuthProvider getEmbedded(Vertx vertx, String path, long ttlMillis) {
+    return get(vertx, new EmbeddedAccounts(new JsonObject(vertx.fileSystem().readFileBlocking(path))), ttlMillis);
+  }
+
+  private static CachingAuthProvider get(Vertx vertx, Accounts accounts, long ttlMillis) {
+    LocalMap<String, CachingAuthProvider> map = vertx.sharedData().getLocalMap(LOCAL_MAP);
+    CachingAuthProvider provider = map.get(SHARED_NAME);
+    if (provider == null) {
+      CachingAuthProvider created = new CachingAuthProvider(vertx, accounts, ttlMillis);
+      provider = map.putIfAbsent(SHARED_NAME, created);
+      if (provider == null) {
+        provider = created;
+        created.listen();
+      }
+    }
+    return provider;
+  }
+
+  CachingAuthProvider(Vertx vertx, Accounts accounts, long ttlMillis) {
+    this.vertx = vertx;
+    this.accounts = accounts;
+    this.hashStrategy = JDBCHashStrategy.createSHA512(vertx);
+    this.ttlMillis = ttlMillis;
+  }
+
+  private void listen() {
+    vertx.eventBus().<String>consumer(AUTH_INVALIDATE, message -> invalidate(message.body()));
+    vertx.setPeriodic(ttlMillis, tick -> evictExpired(System.currentTimeMillis()));
+  }
+
+  @Override
+  public void authenticate(JsonObject authInfo, Handler<AsyncResult<User>> resultHandler) {
+    String username = authInfo.getString("username");
+    String password = authInfo.getString("password");
+    if (username == null || password == null) {
+      resultHandler.handle(Future.failedFuture("username and password are required"));
+      return;
+    }
+
+    accounts.credentials(username, query -> {
+      if (query.failed()) {
+        resultHandler.handle(Future.failedFuture(query.cause()));
+        return;
+      }
+      if (query.result() == null) {
+        resultHandler.handle(Future.failedFuture("Invalid username/password"));
+        return;
+      }
+      JsonArray row = query.result();
+      vertx.<Boolean>executeBlocking(future -> future.complete(passwordMatches(row, password)), false, check -> {
+        if (check.failed()) {
+          resultHandler.handle(Future.failedFuture(check.cause()));
+        } else if (!check.result()) {
+          resultHandler.handle(Future.failedFuture("Invalid username/password"));
+        } else {
+          authorities(username, load -> {
+            if (load.succeeded()) {
+              resultHandler.handle(Future.succeededFuture(new WikiUser(username, load.result(), this)));
+            } else {
+              resultHandler.handle(Future.failedFuture(load.cause()));
+            }
+          });
+        }
+      });
+    });
+  }
+
+  void authorities(String username, Handler<AsyncResult<Authorities>> resultHandler) {
+    long now = System.currentTimeMillis();
+    CachedAuthorities cached = cache.get(username);
+    if (cached != null && cached.expiresAt > now) {
+      resultHandler.handle(Future.succeededFuture(cached.authorities));
+      return;
+    }
+
+    accounts.authorities(username, load -> {
+      if (load.failed()) {
+        LOGGER.error("Could not load authorities of " + username, load.cause());
+        resultHandler.handle(Future.failedFuture(load.cause()));
+        return;
+      }
+      Authorities authorities = load.result();
+      cache.put(username, new CachedAuthorities(authorities, now + ttlMillis));
+      resultHandler.handle(Future.succeededFuture(authorities));
+    });
+  }
+
+  public void invalidate(String username) {
+    if (username == null || username.isEmpty()) {
+      cache.clear();
+    } else {
+      cache.remove(username);
+    }
+  }
+
+  private void evictExpired(long now) {
+    cache.values().removeIf(entry -> entry.expiresAt <= now);
+  }
+
+  private boolean passwordMatches(JsonArray row, String password) {
+    String storedHash = hashStrategy.getHashedStoredPwd(row);
+    String salt = hashStrategy.getSalt(row);
+    int version = -1;
+    int separator = storedHash.lastIndexOf('$');
+    if (separator != -1) {
+      version = Integer.parseInt(storedHash.substring(separator + 1));
+    }
+    String hash = hashStrategy.computeHash(password, salt, version);
+    return MessageDigest.isEqual(storedHash.getBytes(StandardCharsets.UTF_8), hash.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,51 @@
+package id.caltic.labs.wiki.auth;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Users of the embedded backend, which has no tables for them, read from a JSON document once: {@code users} lists
+ * each {@code username} with its {@code password} hash, {@code salt} and {@code roles}, as vertx-auth-jdbc stores
+ * them, and {@code roles} maps each role to its permissions.
+ */
+class EmbeddedAccounts implements Accounts {
+
+  private final Map<String, JsonArray> credentials = new HashMap<>();
+  private final Map<String, Authorities> authorities = new HashMap<>();
+
+  EmbeddedAccounts(JsonObject accounts) {
+    JsonObject rolePermissions = accounts.getJsonObject("roles", new JsonObject());
+    for (Object entry : accounts.getJsonArray("users", new JsonArray())) {
+      JsonObject user = (JsonObject) entry;
+      String username = user.getString("username");
+      credentials.put(username, new JsonArray().add(user.getString("password")).add(user.getString("salt")));
+      Set<String> roles = new HashSet<>();
+      Set<String> permissions = new HashSet<>();
+      for (Object role : user.getJsonArray("roles", new JsonArray())) {
+        roles.add((String) role);
+        rolePermissions.getJsonArray((String) role, new JsonArray()).forEach(perm -> permissions.add((String) perm));
+      }
+      authorities.put(username, new Authorities(roles, permissions));
+    }
+  }
+
+  @Override
+  public void credentials(String username, Handler<AsyncResult<JsonArray>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(credentials.get(username)));
+  }
+
+  @Override
+  public void authorities(String username, Handler<AsyncResult<Authorities>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(authorities.getOrDefault(username,
+        new Authorities(Collections.emptySet(), Collections.emptySet()))));
+  }
+}
@@ -0,0 +1,58 @@
+package id.caltic.labs.wiki.auth;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.jdbc.JDBCClient;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Users of the vertx-auth-jdbc tables, see {@code sql/vertx_auth_jdbc.sql}.
+ */
+class JdbcAccounts implements Accounts {
+
+  private static final String CREDENTIALS_QUERY = "SELECT password, password_salt FROM \"user\" WHERE username = ?";
+  private static final String AUTHORITIES_QUERY = "SELECT ur.role, rp.perm FROM user_roles ur " +
+      "LEFT JOIN roles_perms rp ON rp.role = ur.role WHERE ur.username = ?";
+
+  private final JDBCClient client;
+
+  JdbcAccounts(JDBCClient client) {
+    this.client = client;
+  }
+
+  @Override
+  public void credentials(String username, Handler<AsyncResult<JsonArray>> resultHandler) {
+    client.queryWithParams(CREDENTIALS_QUERY, new JsonArray().add(username), query -> {
+      if (query.failed()) {
+        resultHandler.handle(Future.failedFuture(query.cause()));
+      } else if (query.result().getNumRows() != 1) {
+        resultHandler.handle(Future.succeededFuture());
+      } else {
+        resultHandler.handle(Future.succeededFuture(query.result().getResults().get(0)));
+      }
+    });
+  }
+
+  @Override
+  public void authorities(String username, Handler<AsyncResult<Authorities>> resultHandler) {
+    client.queryWithParams(AUTHORITIES_QUERY, new JsonArray().add(username), query -> {
+      if (query.failed()) {
+        resultHandler.handle(Future.failedFuture(query.cause()));
+        return;
+      }
+      Set<String> roles = new HashSet<>();
+      Set<String> permissions = new HashSet<>();
+      for (JsonArray row : query.result().getResults()) {
+        roles.add(row.getString(0));
+        if (row.getString(1) != null) {
+          permissions.add(row.getString(1));
+        }
+      }
+      resultHandler.handle(Future.succeededFuture(new Authorities(roles, permissions)));
+    });
+  }
+}
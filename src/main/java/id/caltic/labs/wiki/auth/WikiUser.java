@@ -0,0 +1,138 @@
+package id.caltic.labs.wiki.auth;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.AbstractUser;
+import io.vertx.ext.auth.AuthProvider;
+import io.vertx.ext.auth.User;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+public class WikiUser extends AbstractUser {
+
+  private static final String ROLE_PREFIX = "role:";
+  private static final byte FORMAT_VERSION = 1;
+
+  private JsonObject principal;
+  private CachingAuthProvider authProvider;
+
+  public WikiUser() {
+  }
+
+  WikiUser(String username, Authorities authorities, CachingAuthProvider authProvider) {
+    this.principal = new JsonObject().put("username", username);
+    this.authProvider = authProvider;
+    authorities.writeTo(principal);
+  }
+
+  public String username() {
+    return principal.getString("username");
+  }
+
+  @Override
+  public JsonObject principal() {
+    return principal;
+  }
+
+  @Override
+  public void setAuthProvider(AuthProvider authProvider) {
+    if (authProvider instanceof CachingAuthProvider) {
+      this.authProvider = (CachingAuthProvider) authProvider;
+    }
+  }
+
+  /**
+   * Unlike {@link AbstractUser}, granted permissions are not remembered per session: the provider cache decides,
+   * so that expiry and invalidation apply to users who are already logged in. The principal keeps the authorities
+   * of the login and is never written afterwards, requests of one session possibly running on several event loops.
+   */
+  @Override
+  public User isAuthorized(String authority, Handler<AsyncResult<Boolean>> resultHandler) {
+    doIsPermitted(authority, resultHandler);
+    return this;
+  }
+
+  @Override
+  protected void doIsPermitted(String permission, Handler<AsyncResult<Boolean>> resultHandler) {
+    if (authProvider == null) {
+      resultHandler.handle(Future.succeededFuture(isPermitted(Authorities.readFrom(principal), permission)));
+      return;
+    }
+    authProvider.authorities(username(), ar -> {
+      if (ar.succeeded()) {
+        resultHandler.handle(Future.succeededFuture(isPermitted(ar.result(), permission)));
+      } else {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+      }
+    });
+  }
+
+  private static boolean isPermitted(Authorities authorities, String permission) {
+    if (permission.startsWith(ROLE_PREFIX)) {
+      return authorities.hasRole(permission.substring(ROLE_PREFIX.length()));
+    }
+    return authorities.hasPermission(permission);
+  }
+
+  /**
+   * Sessions keep the user in this compact form: a format byte, then the username, roles and permissions as
+   * length-prefixed UTF-8 strings. The per-session permission memo of {@link AbstractUser} is not written.
+   */
+  @Override
+  public void writeToBuffer(Buffer buffer) {
+    Authorities authorities = Authorities.readFrom(principal);
+    buffer.appendByte(FORMAT_VERSION);
+    appendString(buffer, username());
+    appendStrings(buffer, authorities.roles());
+    appendStrings(buffer, authorities.permissions());
+  }
+
+  @Override
+  public int readFromBuffer(int pos, Buffer buffer) {
+    if (buffer.getByte(pos) != FORMAT_VERSION) {
+      throw new IllegalStateException("Unsupported session user format " + buffer.getByte(pos));
+    }
+    pos++;
+    String username = readString(buffer, pos);
+    pos += 2 + buffer.getUnsignedShort(pos);
+    Set<String> roles = new HashSet<>();
+    pos = readStrings(buffer, pos, roles);
+    Set<String> permissions = new HashSet<>();
+    pos = readStrings(buffer, pos, permissions);
+
+    principal = new JsonObject().put("username", username);
+    new Authorities(roles, permissions).writeTo(principal);
+    return pos;
+  }
+
+  private static void appendStrings(Buffer buffer, Set<String> values) {
+    buffer.appendUnsignedShort(values.size());
+    values.forEach(value -> appendString(buffer, value));
+  }
+
+  private static void appendString(Buffer buffer, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    buffer.appendUnsignedShort(bytes.length);
+    buffer.appendBytes(bytes);
+  }
+
+  private static int readStrings(Buffer buffer, int pos, Set<String> values) {
+    int count = buffer.getUnsignedShort(pos);
+    pos += 2;
+    for (int i = 0; i < count; i++) {
+      values.add(readString(buffer, pos));
+      pos += 2 + buffer.getUnsignedShort(pos);
+    }
+    return pos;
+  }
+
+  private static String readString(Buffer buffer, int pos) {
+    int length = buffer.getUnsignedShort(pos);
+    return buffer.getString(pos + 2, pos + 2 + length, "UTF-8");
+  }
+}
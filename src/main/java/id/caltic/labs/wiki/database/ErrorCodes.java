@@ -3,5 +3,9 @@ package id.caltic.labs.wiki.database;
 public enum ErrorCodes {
   NO_ACTION_SPECIFIED,
   BAD_ACTION,
-  DB_ERROR
+  DB_ERROR,
+  STALE_VERSION,
+  PAGE_NOT_FOUND,
+  BUSY,
+  PAGE_TOO_LARGE
 }
@@ -0,0 +1,48 @@
+package id.caltic.labs.wiki.database;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call counters of one WikiDatabaseVerticle instance, published in the {@link #LOCAL_MAP} local map so that
+ * other verticles of the same JVM can read them.
+ */
+public class ServiceStats implements Shareable {
+
+  public static final String LOCAL_MAP = "wikidb.stats";
+
+  private final String instance;
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicInteger maxPending = new AtomicInteger();
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  public ServiceStats(String instance) {
+    this.instance = instance;
+  }
+
+  public void callStarted() {
+    calls.incrementAndGet();
+    int depth = pending.incrementAndGet();
+    maxPending.accumulateAndGet(depth, Math::max);
+  }
+
+  public void callEnded(boolean succeeded) {
+    pending.decrementAndGet();
+    if (!succeeded) {
+      failures.incrementAndGet();
+    }
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+        .put("instance", instance)
+        .put("pending", pending.get())
+        .put("maxPending", maxPending.get())
+        .put("calls", calls.get())
+        .put("failures", failures.get());
+  }
+}
@@ -1,45 +1,213 @@
 package id.caltic.labs.wiki.database;
 
+import id.caltic.labs.wiki.database.impl.CoalescingWikiService;
+import id.caltic.labs.wiki.database.impl.InstrumentedWikiService;
+import id.caltic.labs.wiki.database.impl.PoolWarmer;
+import id.caltic.labs.wiki.database.impl.PostgresUrl;
+import id.caltic.labs.wiki.database.impl.ReplicaRoutingClient;
+import id.caltic.labs.wiki.metrics.EventLoopProbe;
+import id.caltic.labs.wiki.metrics.MeteredSQLClient;
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import id.caltic.labs.wiki.metrics.TimedProxy;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.ext.asyncsql.PostgreSQLClient;
 import io.vertx.ext.jdbc.JDBCClient;
-import io.vertx.serviceproxy.ServiceBinder;
+import io.vertx.ext.sql.SQLClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 public class WikiDatabaseVerticle extends AbstractVerticle {
   private static final Logger LOGGER = LoggerFactory.getLogger(WikiDatabaseVerticle.class);
 
   private static final String WIKIDB_QUEUE = "wikidb.queue";
+  private static final String WIKIDB_PRIMARY_QUEUE = "wikidb.queue.primary";
+  private static final String WIKIDB_POOL = "wikidb";
+  private static final String WIKIDB_PAGES_CHANGED = "wikidb.pages.changed";
+
+  private String statsKey;
+  private String dbUser;
+  private String dbPwd;
 
   public void start(Future<Void> startFuture) throws Exception {
 
-    String dbUser = System.getenv("DATABASE_USER");
-    String dbPwd = System.getenv("DATABASE_PASSWORD");
+    dbUser = System.getenv("DATABASE_USER");
+    dbPwd = System.getenv("DATABASE_PASSWORD");
 
     String connUri = Optional.ofNullable(System.getenv("JDBC_DATABASE_URL"))
         .orElse("jdbc:postgresql://localhost:5432/caltic_wiki");
     Integer dbPool = Integer.valueOf(Optional.ofNullable(System.getenv("DATABASE_POOL"))
         .orElse("10"));
+    String backend = Optional.ofNullable(System.getenv("WIKIDB_BACKEND"))
+        .orElse("async");
+    // "all" also coalesces here, across every HTTP verticle of the cluster sending to this instance
+    boolean coalesceReads = "all".equals(System.getenv("COALESCE_READS"));
+    // comma separated, same form as JDBC_DATABASE_URL
+    String replicaUrls = Optional.ofNullable(System.getenv("WIKIDB_REPLICA_URLS"))
+        .orElse("");
+    Integer replicaPool = Integer.valueOf(Optional.ofNullable(System.getenv("DATABASE_POOL_REPLICA"))
+        .orElse(String.valueOf(dbPool)));
+    long replicaCheckInterval = Long.valueOf(Optional.ofNullable(System.getenv("WIKIDB_REPLICA_CHECK_INTERVAL"))
+        .orElse("5000"));
+    long replicaMaxLag = Long.valueOf(Optional.ofNullable(System.getenv("WIKIDB_REPLICA_MAX_LAG"))
+        .orElse("10000"));
+    Integer warmConnections = Integer.valueOf(Optional.ofNullable(System.getenv("DATABASE_POOL_WARM"))
+        .orElse(String.valueOf(dbPool)));
+    // empty to keep the pages in memory only
+    String embeddedPath = Optional.ofNullable(System.getenv("WIKIDB_EMBEDDED_PATH"))
+        .orElse("caltic_wiki.log");
+
+    if (!"jdbc".equals(backend) && !"async".equals(backend) && !"embedded".equals(backend)) {
+      startFuture.fail("Unknown WIKIDB_BACKEND: " + backend);
+      return;
+    }
+    LOGGER.info("Using " + backend + " database backend");
+    MetricsRegistry metrics = MetricsRegistry.get(vertx);
+    EventLoopProbe.start(vertx, metrics);
+    if ("embedded".equals(backend)) {
+      startEmbedded(startFuture, embeddedPath, metrics, coalesceReads);
+      return;
+    }
+    SQLClient dbClient = MeteredSQLClient.wrap(SQLClient.class, createClient(backend, connUri, WIKIDB_POOL, dbPool),
+        metrics, WIKIDB_POOL, dbPool);
+
+    SQLClient readClient = dbClient;
+    List<SQLClient> replicas = new ArrayList<>();
+    List<String> replicaPools = new ArrayList<>();
+    for (String replicaUrl : replicaUrls.split(",")) {
+      if (!replicaUrl.trim().isEmpty()) {
+        String pool = WIKIDB_POOL + "-replica-" + replicas.size();
+        replicas.add(MeteredSQLClient.wrap(SQLClient.class, createClient(backend, replicaUrl.trim(), pool, replicaPool),
+            metrics, pool, replicaPool));
+        replicaPools.add(pool);
+      }
+    }
+    if (!replicas.isEmpty()) {
+      LOGGER.info("Routing reads to {} replicas", replicas.size());
+      readClient = ReplicaRoutingClient.wrap(vertx, dbClient, replicas, replicaPools, metrics,
+          replicaCheckInterval, replicaMaxLag);
+    }
 
-    JDBCClient jdbcClient = JDBCClient.createShared(vertx, new JsonObject()
-        .put("url", connUri)
-        .put("driver_class", "org.postgresql.Driver")
-        .put("user", dbUser)
-        .put("password", dbPwd)
-        .put("max_pool_size", dbPool));
-
-    WikiService.create(jdbcClient, ready -> {
-      if (ready.succeeded()) {
-        ServiceBinder binder = new ServiceBinder(vertx);
-        binder.setAddress(WIKIDB_QUEUE).register(WikiService.class, ready.result());
+    // the pools open their connections while the schema is checked, before the first request needs them
+    List<Future> warmed = new ArrayList<>();
+    warmed.add(warm(dbClient, WIKIDB_POOL, Math.min(warmConnections, dbPool)));
+    for (int i = 0; i < replicas.size(); i++) {
+      warmed.add(warm(replicas.get(i), replicaPools.get(i), Math.min(warmConnections, replicaPool)));
+    }
+    Future<WikiService> created = Future.future();
+    warmed.add(created);
+
+    boolean routed = readClient != dbClient;
+    WikiService.create(vertx, dbClient, readClient, created.completer());
+    CompositeFuture.all(warmed).setHandler(ready -> {
+      if (ready.failed()) {
+        startFuture.fail(ready.cause());
+        return;
+      }
+      ServiceStats stats = registerStats();
+      register(WIKIDB_QUEUE, created.result(), stats, metrics, coalesceReads);
+      if (!routed) {
+        register(WIKIDB_PRIMARY_QUEUE, created.result(), stats, metrics, coalesceReads);
         startFuture.complete();
+        return;
+      }
+      // callers that need to read their own writes, replicas being asynchronous
+      WikiService.create(vertx, dbClient, dbClient, primary -> {
+        if (primary.succeeded()) {
+          register(WIKIDB_PRIMARY_QUEUE, primary.result(), stats, metrics, coalesceReads);
+          startFuture.complete();
+        } else {
+          startFuture.fail(primary.cause());
+        }
+      });
+    });
+  }
+
+  /**
+   * There are no replicas nor pools in the process, so both queues lead to the same service.
+   */
+  private void startEmbedded(Future<Void> startFuture, String path, MetricsRegistry metrics, boolean coalesceReads) {
+    WikiService.createEmbedded(vertx, path, created -> {
+      if (created.failed()) {
+        startFuture.fail(created.cause());
+        return;
+      }
+      ServiceStats stats = registerStats();
+      register(WIKIDB_QUEUE, created.result(), stats, metrics, coalesceReads);
+      register(WIKIDB_PRIMARY_QUEUE, created.result(), stats, metrics, coalesceReads);
+      startFuture.complete();
+    });
+  }
+
+  private SQLClient createClient(String backend, String connUri, String pool, int poolSize) {
+    if ("jdbc".equals(backend)) {
+      JsonObject config = new JsonObject()
+          .put("url", connUri)
+          .put("driver_class", "org.postgresql.Driver")
+          .put("user", dbUser)
+          .put("password", dbPwd)
+          .put("max_pool_size", poolSize);
+      // every pool needs a data source of its own, a shared one being configured by whoever creates it first
+      return JDBCClient.createShared(vertx, config, pool);
+    }
+    return PostgreSQLClient.createShared(vertx, PostgresUrl.asyncConfig(connUri, dbUser, dbPwd)
+        .put("maxPoolSize", poolSize), pool);
+  }
+
+  /**
+   * Never fails: a pool that couldn't be warmed up opens its connections on demand, as it would have anyway.
+   */
+  private Future<Void> warm(SQLClient client, String pool, int connections) {
+    Future<Void> warmed = Future.future();
+    long start = System.nanoTime();
+    PoolWarmer.warm(vertx, pool, client, connections, ar -> {
+      if (ar.succeeded()) {
+        LOGGER.info("Opened {} connections of pool {} in {} ms", connections, pool,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
       } else {
-        startFuture.fail(ready.cause());
+        LOGGER.warn("Could not warm up pool " + pool, ar.cause());
       }
+      warmed.complete();
     });
+    return warmed;
+  }
+
+  private void register(String address, WikiService service, ServiceStats stats, MetricsRegistry metrics,
+                        boolean coalesceReads) {
+    if (coalesceReads) {
+      WikiService coalescing = CoalescingWikiService.wrap(service, metrics, "db");
+      vertx.eventBus().consumer(WIKIDB_PAGES_CHANGED, message -> CoalescingWikiService.detach(coalescing));
+      service = coalescing;
+    }
+    WikiService timed = TimedProxy.wrap(WikiService.class, service, metrics,
+        "wikiservice_server_seconds", "WikiService calls as executed by the database verticle");
+    WikiMessageCodec.bind(vertx, address, InstrumentedWikiService.wrap(timed, stats));
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (statsKey != null) {
+      vertx.sharedData().getLocalMap(ServiceStats.LOCAL_MAP).remove(statsKey);
+    }
+  }
+
+  private ServiceStats registerStats() {
+    LocalMap<String, ServiceStats> statsMap = vertx.sharedData().getLocalMap(ServiceStats.LOCAL_MAP);
+    for (int index = 0; ; index++) {
+      String key = "wikidb-" + index;
+      ServiceStats stats = new ServiceStats(key);
+      if (statsMap.putIfAbsent(key, stats) == null) {
+        statsKey = key;
+        return stats;
+      }
+    }
   }
 }
@@ -0,0 +1,278 @@
+package id.caltic.labs.wiki.database;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Carries the {@link JsonObject} and {@link JsonArray} bodies of {@link WikiService} calls and replies over the
+ * event bus. Across the cluster they travel in a binary form: a tag per value, strings as varint length-prefixed
+ * UTF-8, the field names of the service arguments and results as a single byte and arrays of strings without a tag
+ * per element. Local delivery hands the body itself over instead of a copy, so a body must not be changed once sent;
+ * the generated proxy and the service implementations build a fresh one for every message.
+ */
+public final class WikiMessageCodec implements MessageCodec<Object, Object> {
+
+  public static final String NAME = "wiki";
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INT = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte TRUE = 5;
+  private static final byte FALSE = 6;
+  private static final byte OBJECT = 7;
+  private static final byte ARRAY = 8;
+  private static final byte STRING_ARRAY = 9;
+  // anything else JSON can hold, as the JSON text of a one-element array
+  private static final byte JSON = 10;
+
+  private static final int UNKNOWN_KEY = 0xFF;
+  // nodes of a cluster must agree on this list: append new names, never reorder or remove any
+  private static final String[] KEYS = {
+      "found", "id", "rawContent", "html", "version", "updatedAt", "name", "markdown", "pages", "next",
+      "revisions", "revision", "createdAt", "rank", "snippet", "after", "limit", "title", "baseVersion", "before",
+      "uploadId", "sequence", "chunk", "query", "created", "saved", "names", "broken", "orphans", "from", "to"};
+  private static final Map<String, Integer> KEY_INDEX = new HashMap<>();
+
+  static {
+    for (int i = 0; i < KEYS.length; i++) {
+      KEY_INDEX.put(KEYS[i], i);
+    }
+  }
+
+  static final WikiMessageCodec INSTANCE = new WikiMessageCodec();
+
+  private WikiMessageCodec() {
+  }
+
+  /**
+   * Registers the codec on {@code eventBus} unless a verticle deployed earlier did already.
+   */
+  public static void register(EventBus eventBus) {
+    try {
+      eventBus.registerCodec(INSTANCE);
+    } catch (IllegalStateException e) {
+      // already registered
+    }
+  }
+
+  /**
+   * Delivery options sending a body through this codec.
+   */
+  public static DeliveryOptions deliveryOptions() {
+    return new DeliveryOptions().setCodecName(NAME);
+  }
+
+  /**
+   * Serves {@code service} on {@code address} like a {@code ServiceBinder} would, except that JSON replies go
+   * through this codec: the generated handler replies with the default one, and service binder interceptors can't
+   * hand it another message.
+   */
+  public static MessageConsumer<JsonObject> bind(Vertx vertx, String address, WikiService service) {
+    register(vertx.eventBus());
+    WikiServiceVertxProxyHandler handler = new WikiServiceVertxProxyHandler(vertx, service);
+    return vertx.eventBus().consumer(address, message -> handler.handle(replyingThroughCodec(message)));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Message<JsonObject> replyingThroughCodec(Message<JsonObject> message) {
+    return (Message<JsonObject>) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class<?>[]{Message.class},
+        (proxy, method, args) -> {
+          Object[] forwarded = args;
+          if (method.getName().equals("reply") && (args[0] instanceof JsonObject || args[0] instanceof JsonArray)) {
+            if (args.length == 1) {
+              forwarded = new Object[]{args[0], deliveryOptions()};
+              method = Message.class.getMethod("reply", Object.class, DeliveryOptions.class);
+            } else if (args.length == 2 && !(args[1] instanceof DeliveryOptions)) {
+              forwarded = new Object[]{args[0], deliveryOptions(), args[1]};
+              method = Message.class.getMethod("reply", Object.class, DeliveryOptions.class, Handler.class);
+            }
+          }
+          try {
+            return method.invoke(message, forwarded);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  @Override
+  public void encodeToWire(Buffer buffer, Object body) {
+    write(buffer, body);
+  }
+
+  @Override
+  public Object decodeFromWire(int pos, Buffer buffer) {
+    return new Reader(buffer, pos).read();
+  }
+
+  @Override
+  public Object transform(Object body) {
+    return body;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public byte systemCodecID() {
+    return -1;
+  }
+
+  private static void write(Buffer buffer, Object value) {
+    if (value == null) {
+      buffer.appendByte(NULL);
+    } else if (value instanceof String) {
+      buffer.appendByte(STRING);
+      writeString(buffer, (String) value);
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      buffer.appendByte(INT).appendInt(((Number) value).intValue());
+    } else if (value instanceof Long) {
+      buffer.appendByte(LONG).appendLong((Long) value);
+    } else if (value instanceof Double || value instanceof Float) {
+      buffer.appendByte(DOUBLE).appendDouble(((Number) value).doubleValue());
+    } else if (value instanceof Boolean) {
+      buffer.appendByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof JsonObject) {
+      JsonObject object = (JsonObject) value;
+      buffer.appendByte(OBJECT);
+      writeLength(buffer, object.size());
+      for (Map.Entry<String, Object> field : object) {
+        Integer key = KEY_INDEX.get(field.getKey());
+        if (key == null) {
+          buffer.appendByte((byte) UNKNOWN_KEY);
+          writeString(buffer, field.getKey());
+        } else {
+          buffer.appendByte(key.byteValue());
+        }
+        write(buffer, field.getValue());
+      }
+    } else if (value instanceof JsonArray) {
+      writeArray(buffer, (JsonArray) value);
+    } else {
+      buffer.appendByte(JSON);
+      writeString(buffer, new JsonArray().add(value).encode());
+    }
+  }
+
+  private static void writeArray(Buffer buffer, JsonArray array) {
+    boolean strings = true;
+    for (int i = 0; i < array.size() && strings; i++) {
+      strings = array.getValue(i) instanceof String;
+    }
+    buffer.appendByte(strings ? STRING_ARRAY : ARRAY);
+    writeLength(buffer, array.size());
+    for (Object element : array) {
+      if (strings) {
+        writeString(buffer, (String) element);
+      } else {
+        write(buffer, element);
+      }
+    }
+  }
+
+  private static void writeString(Buffer buffer, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeLength(buffer, bytes.length);
+    buffer.appendBytes(bytes);
+  }
+
+  private static void writeLength(Buffer buffer, int length) {
+    int remaining = length;
+    while ((remaining & ~0x7F) != 0) {
+      buffer.appendByte((byte) ((remaining & 0x7F) | 0x80));
+      remaining >>>= 7;
+    }
+    buffer.appendByte((byte) remaining);
+  }
+
+  private static final class Reader {
+    final Buffer buffer;
+    int pos;
+
+    Reader(Buffer buffer, int pos) {
+      this.buffer = buffer;
+      this.pos = pos;
+    }
+
+    Object read() {
+      byte tag = buffer.getByte(pos++);
+      switch (tag) {
+        case NULL:
+          return null;
+        case STRING:
+          return readString();
+        case INT:
+          pos += 4;
+          return buffer.getInt(pos - 4);
+        case LONG:
+          pos += 8;
+          return buffer.getLong(pos - 8);
+        case DOUBLE:
+          pos += 8;
+          return buffer.getDouble(pos - 8);
+        case TRUE:
+          return true;
+        case FALSE:
+          return false;
+        case OBJECT:
+          JsonObject object = new JsonObject();
+          for (int size = readLength(); size > 0; size--) {
+            int key = buffer.getUnsignedByte(pos++);
+            object.put(key == UNKNOWN_KEY ? readString() : KEYS[key], read());
+          }
+          return object;
+        case ARRAY:
+        case STRING_ARRAY:
+          JsonArray array = new JsonArray();
+          for (int size = readLength(); size > 0; size--) {
+            Object element = tag == STRING_ARRAY ? readString() : read();
+            if (element == null) {
+              array.addNull();
+            } else {
+              array.add(element);
+            }
+          }
+          return array;
+        case JSON:
+          return new JsonArray(readString()).getValue(0);
+        default:
+          throw new IllegalStateException("Unknown value tag " + tag + " at " + (pos - 1));
+      }
+    }
+
+    String readString() {
+      int length = readLength();
+      pos += length;
+      return buffer.getString(pos - length, pos);
+    }
+
+    int readLength() {
+      int length = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = buffer.getByte(pos++);
+        length |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return length;
+        }
+      }
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package id.caltic.labs.wiki.database;
 
+import id.caltic.labs.wiki.database.impl.EmbeddedWikiService;
 import id.caltic.labs.wiki.database.impl.WikiServiceImpl;
 import io.vertx.codegen.annotations.Fluent;
 import io.vertx.codegen.annotations.ProxyGen;
@@ -8,32 +9,128 @@ import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.SQLClient;
 
 @ProxyGen
 public interface WikiService {
 
-  static WikiService create(JDBCClient jdbcClient, Handler<AsyncResult<WikiService>> resultHandler) {
-    return new WikiServiceImpl(jdbcClient, resultHandler);
+  /**
+   * Reads that may lag behind the latest writes go through {@code readClient}, which can be {@code dbClient} itself.
+   */
+  static WikiService create(Vertx vertx, SQLClient dbClient, SQLClient readClient,
+                            Handler<AsyncResult<WikiService>> resultHandler) {
+    return new WikiServiceImpl(vertx, dbClient, readClient, resultHandler);
   }
 
+  /**
+   * Keeps the pages in this process, logging every change to the file at {@code path} or nowhere when it is empty.
+   */
+  static WikiService createEmbedded(Vertx vertx, String path, Handler<AsyncResult<WikiService>> resultHandler) {
+    return new EmbeddedWikiService(vertx, path, resultHandler);
+  }
+
+  /**
+   * Calls go out through {@link WikiMessageCodec}; results come back the same way from a service bound with
+   * {@link WikiMessageCodec#bind}.
+   */
   static WikiService createProxy(Vertx vertx, String address) {
-    return new WikiServiceVertxEBProxy(vertx, address);
+    WikiMessageCodec.register(vertx.eventBus());
+    return new WikiServiceVertxEBProxy(vertx, address, WikiMessageCodec.deliveryOptions());
   }
 
   @Fluent
   WikiService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler);
 
+  @Fluent
+  WikiService fetchPageNames(String after, int limit, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  @Fluent
+  WikiService exportPages(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler);
+
   @Fluent
   WikiService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler);
 
+  @Fluent
+  WikiService fetchPageVersion(String name, Handler<AsyncResult<JsonObject>> resultHandler);
+
   @Fluent
   WikiService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler);
 
+  /**
+   * Saves a new revision of a page edited from {@code baseVersion}, failing with
+   * {@link ErrorCodes#STALE_VERSION} if the page was saved by someone else in the meantime. A negative
+   * {@code baseVersion} overwrites whatever is current.
+   */
+  @Fluent
+  WikiService savePage(int id, String markdown, int baseVersion, Handler<AsyncResult<Void>> resultHandler);
+
+  /**
+   * Completes with {@code {found, revision, markdown, createdAt}}.
+   */
+  @Fluent
+  WikiService fetchRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  /**
+   * Lists revisions newest first, starting below {@code before} when it is positive. Completes with
+   * {@code {revisions: [{revision, createdAt}], next}}, {@code next} being present when older revisions remain.
+   */
+  @Fluent
+  WikiService listRevisions(String name, int before, int limit, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  /**
+   * Inserts a batch of {@code {name, markdown}} pages in one transaction, skipping names that already exist.
+   * Completes with {@code {created}}, the number of pages inserted.
+   */
+  @Fluent
+  WikiService createPages(JsonArray pages, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  /**
+   * Inserts or replaces a batch of {@code {name, markdown}} pages in one transaction. When a name appears more
+   * than once the last occurrence wins. Completes with {@code {saved}}, the number of pages written.
+   */
+  @Fluent
+  WikiService savePages(JsonArray pages, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  /**
+   * Stages one piece of a page uploaded in several, to be saved by {@link #commitUpload} once every piece has
+   * arrived. Pieces are put back together in {@code sequence} order.
+   */
+  @Fluent
+  WikiService appendUpload(String uploadId, int sequence, String chunk, Handler<AsyncResult<Void>> resultHandler);
+
+  /**
+   * Saves the pieces staged under {@code uploadId} as the content of page {@code name}, creating the page if it
+   * doesn't exist yet and otherwise behaving like {@link #savePage}. The staged pieces are dropped either way.
+   */
+  @Fluent
+  WikiService commitUpload(String uploadId, String name, int baseVersion, Handler<AsyncResult<Void>> resultHandler);
+
   @Fluent
-  WikiService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler);
+  WikiService discardUpload(String uploadId, Handler<AsyncResult<Void>> resultHandler);
+
+  @Fluent
+  WikiService searchPages(String query, int limit, Handler<AsyncResult<JsonArray>> resultHandler);
 
   @Fluent
   WikiService deletePage(int id, Handler<AsyncResult<Void>> resultHandler);
 
+  /**
+   * Completes with the names of the pages linking to page {@code name}, which need not exist, in name order.
+   */
+  @Fluent
+  WikiService fetchBacklinks(String name, int limit, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  /**
+   * Completes with {@code {broken: [{from, to}], orphans: [name]}}: links to pages that don't exist, and pages
+   * no other page links to, each list holding at most {@code limit} entries.
+   */
+  @Fluent
+  WikiService fetchLinkReport(int limit, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  /**
+   * Completes once the database answered a trivial query, proving the whole path to it works.
+   */
+  @Fluent
+  WikiService ping(Handler<AsyncResult<Void>> resultHandler);
+
 }
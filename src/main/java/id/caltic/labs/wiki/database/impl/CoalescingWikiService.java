@@ -0,0 +1,145 @@
+package id.caltic.labs.wiki.database.impl;
+
+import id.caltic.labs.wiki.database.WikiService;
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps a {@link WikiService} so that identical reads issued while one is already in flight wait for its result
+ * instead of being sent again: a hundred concurrent views of the same page cost one query. Writes made through the
+ * wrapper detach the reads in flight so that later callers start a fresh one and never see content older than a
+ * write they know about; the owner calls {@link #detach(WikiService)} for changes made elsewhere.
+ * Instances are confined to the event loop of the verticle owning them and are not thread-safe.
+ */
+public class CoalescingWikiService implements InvocationHandler {
+
+  private static final Set<String> COALESCED = new HashSet<>(Arrays.asList("fetchPage", "fetchAllPages"));
+  private static final Set<String> WRITES = new HashSet<>(Arrays.asList(
+      "createPage", "createPages", "savePage", "savePages", "commitUpload", "deletePage"));
+
+  private static final class Flight {
+    final List<Handler<AsyncResult<Object>>> followers = new ArrayList<>();
+  }
+
+  private final WikiService delegate;
+  private final MetricsRegistry metrics;
+  private final String side;
+  private final Map<List<Object>, Flight> inFlight = new HashMap<>();
+
+  private CoalescingWikiService(WikiService delegate, MetricsRegistry metrics, String side) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+    this.side = side;
+  }
+
+  /**
+   * {@code side} labels the coalescing metrics.
+   */
+  public static WikiService wrap(WikiService delegate, MetricsRegistry metrics, String side) {
+    return (WikiService) Proxy.newProxyInstance(WikiService.class.getClassLoader(),
+        new Class<?>[]{WikiService.class}, new CoalescingWikiService(delegate, metrics, side));
+  }
+
+  /**
+   * Reads already in flight on {@code coalescing}, as returned by {@link #wrap}, keep their waiters but no longer
+   * accept new ones. Owners caching what they read must call this before invalidating their cache, or a read
+   * issued in between could join an older one and cache its result as fresh.
+   */
+  public static void detach(WikiService coalescing) {
+    ((CoalescingWikiService) Proxy.getInvocationHandler(coalescing)).detach();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(this, args);
+    }
+
+    int last = args == null ? -1 : args.length - 1;
+    if (WRITES.contains(method.getName())) {
+      detach();
+    }
+    if (!COALESCED.contains(method.getName()) || last < 0 || !(args[last] instanceof Handler)) {
+      return call(proxy, method, args);
+    }
+
+    List<Object> key = new ArrayList<>(Arrays.asList(args).subList(0, last));
+    key.add(0, method.getName());
+    Handler<AsyncResult<Object>> resultHandler = (Handler<AsyncResult<Object>>) args[last];
+    Flight joined = inFlight.get(key);
+    if (joined != null) {
+      joined.followers.add(resultHandler);
+      counter("wikiservice_reads_coalesced", "WikiService reads answered by a read already in flight", method)
+          .incrementAndGet();
+      return proxy;
+    }
+
+    Flight flight = new Flight();
+    inFlight.put(key, flight);
+    counter("wikiservice_reads_sent", "Coalescable WikiService reads actually sent", method).incrementAndGet();
+    args[last] = (Handler<AsyncResult<Object>>) ar -> {
+      inFlight.remove(key, flight);
+      try {
+        resultHandler.handle(ar);
+      } finally {
+        for (Handler<AsyncResult<Object>> follower : flight.followers) {
+          follower.handle(ar.succeeded() ? Future.succeededFuture(copy(ar.result())) : ar);
+        }
+      }
+    };
+    try {
+      return call(proxy, method, args);
+    } catch (Throwable t) {
+      inFlight.remove(key, flight);
+      throw t;
+    }
+  }
+
+  private void detach() {
+    inFlight.clear();
+  }
+
+  private Object call(Object proxy, Method method, Object[] args) throws Throwable {
+    try {
+      Object result = method.invoke(delegate, args);
+      return result == delegate ? proxy : result;
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private AtomicLong counter(String name, String help, Method method) {
+    return metrics.level(name, help, "side", side, "method", method.getName());
+  }
+
+  /**
+   * Every waiter gets its own copy, so that one of them changing its result can't affect the others.
+   */
+  private static Object copy(Object result) {
+    if (result instanceof JsonObject) {
+      return ((JsonObject) result).copy();
+    }
+    if (result instanceof JsonArray) {
+      return ((JsonArray) result).copy();
+    }
+    return result;
+  }
+}
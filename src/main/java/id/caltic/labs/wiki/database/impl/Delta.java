@@ -0,0 +1,48 @@
+package id.caltic.labs.wiki.database.impl;
+
+/**
+ * A revision stored relative to the one before it: the length of the text both share at the start and at the
+ * end, and what replaces everything in between. Typical wiki edits touch one region, so this stays small
+ * without needing a diff algorithm.
+ */
+final class Delta {
+
+  final int prefix;
+  final int suffix;
+  final String text;
+
+  Delta(int prefix, int suffix, String text) {
+    this.prefix = prefix;
+    this.suffix = suffix;
+    this.text = text;
+  }
+
+  static Delta between(String previous, String next) {
+    int limit = Math.min(previous.length(), next.length());
+    int prefix = 0;
+    while (prefix < limit && previous.charAt(prefix) == next.charAt(prefix)) {
+      prefix++;
+    }
+    // never split a surrogate pair, the middle text must stay valid for the database
+    if (prefix > 0 && Character.isHighSurrogate(next.charAt(prefix - 1))) {
+      prefix--;
+    }
+    int suffix = 0;
+    while (suffix < limit - prefix
+        && previous.charAt(previous.length() - 1 - suffix) == next.charAt(next.length() - 1 - suffix)) {
+      suffix++;
+    }
+    if (suffix > 0 && Character.isLowSurrogate(next.charAt(next.length() - suffix))) {
+      suffix--;
+    }
+    return new Delta(prefix, suffix, next.substring(prefix, next.length() - suffix));
+  }
+
+  String applyTo(String previous) {
+    return new StringBuilder(prefix + text.length() + suffix)
+        .append(previous, 0, prefix)
+        .append(text)
+        .append(previous, previous.length() - suffix, previous.length())
+        .toString();
+  }
+}
@@ -0,0 +1,918 @@
+package id.caltic.labs.wiki.database.impl;
+
+import id.caltic.labs.wiki.database.ErrorCodes;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.serviceproxy.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The pages of {@link EmbeddedWikiService}, held in memory with their revisions, links and a word index. Every
+ * change is appended to a log file as one JSON line, the whole of a batch going in a single line, and the log is
+ * replayed when the store is opened; a last line cut short by a crash is dropped. Without a log file the pages live
+ * as long as the process. Readers share a lock that writers only hold while they update the maps and hand their
+ * line to the file: a writer prepares its record, delta and encoding included, from what it read beforehand, and
+ * prepares it again in the rare case the pages changed in between. Waiting for the disk happens outside of it.
+ */
+final class EmbeddedStore implements Shareable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedStore.class);
+
+  static final String LOCAL_MAP = "wiki.embedded";
+
+  // same links as the Postgres backend indexes
+  private static final Pattern LINK = Pattern.compile("\\]\\(/wiki/([^)\\s#?/]+)[)\\s#?]");
+  private static final int MAX_NAME_LENGTH = 255;
+  private static final long UPLOAD_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+  // snippets mimic ts_headline: two fragments of at most 20 words, starting a few words before a match
+  private static final int SNIPPET_FRAGMENTS = 2;
+  private static final int SNIPPET_WORDS = 20;
+  private static final int SNIPPET_LEAD_WORDS = 5;
+  // a name match weighs like Postgres' A weight, a body match like its B weight
+  private static final double NAME_WEIGHT = 1.0;
+  private static final double BODY_WEIGHT = 0.4;
+
+  private static final class Revision {
+    final long createdAt;
+    final boolean snapshot;
+    final Delta delta;
+
+    Revision(long createdAt, boolean snapshot, Delta delta) {
+      this.createdAt = createdAt;
+      this.snapshot = snapshot;
+      this.delta = delta;
+    }
+  }
+
+  private static final class Page {
+    final int id;
+    final String name;
+    final Set<String> nameTerms;
+    // revision n is at index n - 1
+    final List<Revision> revisions = new ArrayList<>();
+    String markdown;
+    String html;
+    int version;
+    int snapshotRevision;
+    long updatedAt;
+    Set<String> links = Collections.emptySet();
+    Map<String, Integer> bodyTerms = Collections.emptyMap();
+
+    Page(int id, String name) {
+      this.id = id;
+      this.name = name;
+      this.nameTerms = terms(name).keySet();
+    }
+  }
+
+  private static final class Upload {
+    final long createdAt = System.currentTimeMillis();
+    final TreeMap<Integer, String> chunks = new TreeMap<>();
+  }
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final TreeMap<String, Page> pagesByName = new TreeMap<>();
+  private final Map<Integer, Page> pagesById = new HashMap<>();
+  // link target, existing or not, to the ids of the pages linking to it
+  private final TreeMap<String, TreeSet<Integer>> linkedFrom = new TreeMap<>();
+  private final Map<String, Set<Integer>> pagesByTerm = new HashMap<>();
+  // staged pieces are not logged: an upload cut by a restart fails with its request anyway
+  private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+  private final FileChannel log;
+  private long logSize;
+  // ids are taken before the write lock, so that records can be encoded outside of it; a failed write leaves a gap
+  private final AtomicInteger nextId = new AtomicInteger(1);
+  private int users;
+
+  private EmbeddedStore(FileChannel log) {
+    this.log = log;
+  }
+
+  /**
+   * The store logging to {@code path}, opened by the first caller in this Vert.x instance; an empty path gives a
+   * store in memory only. Blocks while the log is replayed. Every call must be matched by a {@link #release}.
+   */
+  static synchronized EmbeddedStore get(Vertx vertx, String path) throws IOException {
+    LocalMap<String, EmbeddedStore> stores = vertx.sharedData().getLocalMap(LOCAL_MAP);
+    EmbeddedStore store = stores.get(path);
+    if (store == null) {
+      store = open(path.isEmpty() ? null : Paths.get(path));
+      stores.put(path, store);
+    }
+    store.users++;
+    return store;
+  }
+
+  static synchronized void release(Vertx vertx, String path, EmbeddedStore store) throws IOException {
+    if (--store.users == 0) {
+      vertx.sharedData().getLocalMap(LOCAL_MAP).remove(path);
+      store.close();
+    }
+  }
+
+  /**
+   * Opens the log at {@code path}, creating it if needed, or an unlogged store when {@code path} is null. The log
+   * is locked, so that two processes can't interleave their changes in it.
+   */
+  static EmbeddedStore open(Path path) throws IOException {
+    if (path == null) {
+      return new EmbeddedStore(null);
+    }
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    try {
+      if (channel.tryLock() == null) {
+        throw new IOException(path + " is used by another process");
+      }
+    } catch (OverlappingFileLockException e) {
+      channel.close();
+      throw new IOException(path + " is already open", e);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    EmbeddedStore store = new EmbeddedStore(channel);
+    long start = System.nanoTime();
+    try {
+      store.replay(path);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    LOGGER.info("Replayed {} pages from {} in {} ms", store.pagesById.size(), path,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return store;
+  }
+
+  void close() throws IOException {
+    if (log != null) {
+      log.close();
+    }
+  }
+
+  boolean logged() {
+    return log != null;
+  }
+
+  JsonArray pageNames() {
+    lock.readLock().lock();
+    try {
+      return new JsonArray(new ArrayList<>(pagesByName.keySet()));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The first {@code limit} page names after {@code after}, with {@code next} when more follow.
+   */
+  JsonObject pageNames(String after, int limit) {
+    lock.readLock().lock();
+    try {
+      JsonArray pages = new JsonArray();
+      JsonObject response = new JsonObject().put("pages", pages);
+      for (String name : pagesAfter(after).keySet()) {
+        if (pages.size() == limit) {
+          response.put("next", pages.getString(limit - 1));
+          break;
+        }
+        pages.add(name);
+      }
+      return response;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  JsonArray exportPages(String after, int limit) {
+    lock.readLock().lock();
+    try {
+      JsonArray pages = new JsonArray();
+      for (Page page : pagesAfter(after).values()) {
+        if (pages.size() == limit) {
+          break;
+        }
+        pages.add(new JsonObject()
+            .put("name", page.name)
+            .put("markdown", page.markdown)
+            .put("version", page.version)
+            .put("updatedAt", page.updatedAt));
+      }
+      return pages;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The page as fetched from Postgres; {@code html} is missing for pages replayed from the log and not rendered
+   * since, see {@link #backfillHtml}.
+   */
+  JsonObject page(String name) {
+    lock.readLock().lock();
+    try {
+      Page page = pagesByName.get(name);
+      if (page == null) {
+        return new JsonObject().put("found", false);
+      }
+      JsonObject response = new JsonObject()
+          .put("found", true)
+          .put("id", page.id)
+          .put("rawContent", page.markdown)
+          .put("version", page.version)
+          .put("updatedAt", page.updatedAt);
+      if (page.html != null) {
+        response.put("html", page.html);
+      }
+      return response;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  JsonObject pageVersion(String name) {
+    lock.readLock().lock();
+    try {
+      Page page = pagesByName.get(name);
+      if (page == null) {
+        return new JsonObject().put("found", false);
+      }
+      return new JsonObject()
+          .put("found", true)
+          .put("id", page.id)
+          .put("version", page.version)
+          .put("updatedAt", page.updatedAt);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  Integer pageId(String name) {
+    lock.readLock().lock();
+    try {
+      Page page = pagesByName.get(name);
+      return page == null ? null : page.id;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Keeps {@code html} as the rendering of page {@code id}, unless the page changed since {@code version}.
+   */
+  void backfillHtml(int id, int version, String html) {
+    lock.writeLock().lock();
+    try {
+      Page page = pagesById.get(id);
+      if (page != null && page.version == version && page.html == null) {
+        page.html = html;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  JsonObject revision(String name, int revision) {
+    lock.readLock().lock();
+    try {
+      Page page = pagesByName.get(name);
+      if (page == null || revision < 1 || revision > page.revisions.size()) {
+        return new JsonObject().put("found", false);
+      }
+      int base = revision;
+      while (!page.revisions.get(base - 1).snapshot) {
+        base--;
+      }
+      String markdown = page.revisions.get(base - 1).delta.text;
+      for (int next = base + 1; next <= revision; next++) {
+        markdown = page.revisions.get(next - 1).delta.applyTo(markdown);
+      }
+      return new JsonObject()
+          .put("found", true)
+          .put("revision", revision)
+          .put("markdown", markdown)
+          .put("createdAt", page.revisions.get(revision - 1).createdAt);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  JsonObject revisions(String name, int before, int limit) {
+    lock.readLock().lock();
+    try {
+      JsonArray revisions = new JsonArray();
+      JsonObject response = new JsonObject().put("revisions", revisions);
+      Page page = pagesByName.get(name);
+      if (page == null) {
+        return response;
+      }
+      int newest = before > 0 ? Math.min(before - 1, page.revisions.size()) : page.revisions.size();
+      for (int revision = newest; revision >= 1; revision--) {
+        if (revisions.size() == limit) {
+          response.put("next", revision + 1);
+          break;
+        }
+        revisions.add(new JsonObject()
+            .put("revision", revision)
+            .put("createdAt", page.revisions.get(revision - 1).createdAt));
+      }
+      return response;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Pages holding every word of {@code query}, best first: words are matched whole and regardless of case, but
+   * not stemmed as Postgres does.
+   */
+  JsonArray search(String query, int limit) {
+    Set<String> wanted = terms(query).keySet();
+    JsonArray results = new JsonArray();
+    if (wanted.isEmpty()) {
+      return results;
+    }
+    lock.readLock().lock();
+    try {
+      // the rarest word bounds the candidates
+      Set<Integer> candidates = null;
+      for (String term : wanted) {
+        Set<Integer> pages = pagesByTerm.getOrDefault(term, Collections.emptySet());
+        if (candidates == null || pages.size() < candidates.size()) {
+          candidates = pages;
+        }
+      }
+      List<Page> hits = new ArrayList<>();
+      Map<Page, Double> ranks = new HashMap<>();
+      for (int id : candidates) {
+        Page page = pagesById.get(id);
+        double rank = 0;
+        for (String term : wanted) {
+          int count = page.bodyTerms.getOrDefault(term, 0);
+          if (count == 0 && !page.nameTerms.contains(term)) {
+            rank = -1;
+            break;
+          }
+          rank += (page.nameTerms.contains(term) ? NAME_WEIGHT : 0) + BODY_WEIGHT * count / (count + 1.0);
+        }
+        if (rank >= 0) {
+          hits.add(page);
+          ranks.put(page, rank);
+        }
+      }
+      hits.sort(Comparator.<Page>comparingDouble(ranks::get).reversed().thenComparing(page -> page.name));
+      for (Page page : hits.subList(0, Math.min(limit, hits.size()))) {
+        results.add(new JsonObject()
+            .put("name", page.name)
+            .put("rank", ranks.get(page))
+            .put("snippet", snippet(page.markdown, wanted)));
+      }
+      return results;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  JsonArray backlinks(String name, int limit) {
+    lock.readLock().lock();
+    try {
+      List<String> names = new ArrayList<>();
+      for (int id : linkedFrom.getOrDefault(name, new TreeSet<>())) {
+        String from = pagesById.get(id).name;
+        if (!from.equals(name)) {
+          names.add(from);
+        }
+      }
+      Collections.sort(names);
+      return new JsonArray(names.subList(0, Math.min(limit, names.size())));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  JsonObject linkReport(int limit) {
+    lock.readLock().lock();
+    try {
+      JsonArray broken = new JsonArray();
+      for (Map.Entry<String, TreeSet<Integer>> target : linkedFrom.entrySet()) {
+        if (broken.size() == limit) {
+          break;
+        }
+        if (!pagesByName.containsKey(target.getKey())) {
+          for (int id : target.getValue()) {
+            if (broken.size() == limit) {
+              break;
+            }
+            broken.add(new JsonObject().put("from", pagesById.get(id).name).put("to", target.getKey()));
+          }
+        }
+      }
+      // a page linking to itself is still an orphan
+      JsonArray orphans = new JsonArray();
+      for (Page page : pagesByName.values()) {
+        if (orphans.size() == limit) {
+          break;
+        }
+        Set<Integer> from = linkedFrom.get(page.name);
+        if (from == null || (from.size() == 1 && from.contains(page.id))) {
+          orphans.add(page.name);
+        }
+      }
+      return new JsonObject().put("broken", broken).put("orphans", orphans);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Completes with the change to publish, {@code {name, version}}.
+   */
+  JsonObject create(String name, String markdown, String html) {
+    JsonObject record = createRecord(nextId.getAndIncrement(), name, markdown, System.currentTimeMillis());
+    byte[] line = encode(record);
+    lock.writeLock().lock();
+    try {
+      if (pagesByName.containsKey(name)) {
+        throw new IllegalStateException("Page " + name + " already exists");
+      }
+      append(line);
+      apply(record).html = html;
+    } finally {
+      lock.writeLock().unlock();
+    }
+    sync();
+    return new JsonObject().put("name", name).put("version", 1);
+  }
+
+  /**
+   * Saves a new revision like {@code WikiServiceImpl} does, completing with the change to publish,
+   * {@code {id, name, version}}.
+   */
+  JsonObject save(int id, String markdown, String html, int baseVersion) {
+    JsonObject change = null;
+    while (change == null) {
+      Page page;
+      String previous;
+      int version;
+      boolean snapshot;
+      lock.readLock().lock();
+      try {
+        page = pagesById.get(id);
+        if (page == null) {
+          throw new ServiceException(ErrorCodes.PAGE_NOT_FOUND.ordinal(), "Page " + id + " does not exist");
+        }
+        if (baseVersion >= 0 && baseVersion != page.version) {
+          throw new ServiceException(ErrorCodes.STALE_VERSION.ordinal(),
+              "Page " + id + " was saved as version " + page.version + " since version " + baseVersion);
+        }
+        previous = page.markdown;
+        version = page.version;
+        snapshot = version + 1 - page.snapshotRevision >= WikiServiceImpl.SNAPSHOT_INTERVAL;
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      long now = System.currentTimeMillis();
+      JsonObject record;
+      if (snapshot) {
+        record = replaceRecord(id, markdown, now);
+      } else {
+        Delta delta = Delta.between(previous, markdown);
+        record = new JsonObject()
+            .put("op", "save")
+            .put("id", id)
+            .put("prefix", delta.prefix)
+            .put("suffix", delta.suffix)
+            .put("text", delta.text)
+            .put("at", now);
+      }
+      byte[] line = encode(record);
+
+      lock.writeLock().lock();
+      try {
+        // another save got in first: the next round fails a conditional save or diffs against the new content
+        if (pagesById.get(id) == page && page.version == version) {
+          append(line);
+          apply(record).html = html;
+          change = new JsonObject().put("id", id).put("name", page.name).put("version", page.version);
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+    sync();
+    return change;
+  }
+
+  /**
+   * Writes a batch of pages at once, skipping existing ones unless {@code replace} is set. Completes with the
+   * number of pages written.
+   */
+  int writePages(Map<String, String> markdownByName, Map<String, String> htmlByName, boolean replace) {
+    while (true) {
+      // the id of each page that exists, or null
+      Map<String, Integer> existing = new HashMap<>();
+      lock.readLock().lock();
+      try {
+        for (String name : markdownByName.keySet()) {
+          Page page = pagesByName.get(name);
+          existing.put(name, page == null ? null : page.id);
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      long now = System.currentTimeMillis();
+      JsonArray records = new JsonArray();
+      for (Map.Entry<String, String> page : markdownByName.entrySet()) {
+        Integer id = existing.get(page.getKey());
+        if (id == null) {
+          records.add(createRecord(nextId.getAndIncrement(), page.getKey(), page.getValue(), now));
+        } else if (replace) {
+          records.add(replaceRecord(id, page.getValue(), now));
+        }
+      }
+      if (records.isEmpty()) {
+        return 0;
+      }
+      JsonObject batch = new JsonObject().put("op", "batch").put("records", records);
+      byte[] line = encode(batch);
+
+      lock.writeLock().lock();
+      try {
+        // pages created or deleted in between change what the batch has to do
+        if (!existing.entrySet().stream().allMatch(page -> Objects.equals(page.getValue(), idOf(page.getKey())))) {
+          continue;
+        }
+        append(line);
+        apply(batch);
+        for (Object record : records) {
+          Page page = pagesById.get(((JsonObject) record).getInteger("id"));
+          page.html = htmlByName.get(page.name);
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+      sync();
+      return records.size();
+    }
+  }
+
+  private Integer idOf(String name) {
+    Page page = pagesByName.get(name);
+    return page == null ? null : page.id;
+  }
+
+  void delete(int id) {
+    lock.writeLock().lock();
+    try {
+      if (!pagesById.containsKey(id)) {
+        return;
+      }
+      JsonObject record = new JsonObject().put("op", "delete").put("id", id);
+      append(encode(record));
+      apply(record);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    sync();
+  }
+
+  void appendUpload(String uploadId, int sequence, String chunk) {
+    Upload upload = uploads.computeIfAbsent(uploadId, key -> new Upload());
+    synchronized (upload) {
+      if (upload.chunks.putIfAbsent(sequence, chunk) != null) {
+        throw new IllegalStateException("Piece " + sequence + " of upload " + uploadId + " was already staged");
+      }
+    }
+  }
+
+  String upload(String uploadId) {
+    Upload upload = uploads.get(uploadId);
+    if (upload == null) {
+      return "";
+    }
+    synchronized (upload) {
+      return String.join("", upload.chunks.values());
+    }
+  }
+
+  /**
+   * Also drops uploads abandoned for a day, by a crashed HTTP verticle for instance.
+   */
+  void discardUpload(String uploadId) {
+    uploads.remove(uploadId);
+    long expired = System.currentTimeMillis() - UPLOAD_TTL_MILLIS;
+    uploads.values().removeIf(upload -> upload.createdAt < expired);
+  }
+
+  private static JsonObject createRecord(int id, String name, String markdown, long now) {
+    return new JsonObject()
+        .put("op", "create")
+        .put("id", id)
+        .put("name", name)
+        .put("markdown", markdown)
+        .put("at", now);
+  }
+
+  private static JsonObject replaceRecord(int id, String markdown, long now) {
+    return new JsonObject()
+        .put("op", "save")
+        .put("id", id)
+        .put("markdown", markdown)
+        .put("at", now);
+  }
+
+  /**
+   * The only way pages change, both live and when replaying: a record that was logged always applies.
+   */
+  private Page apply(JsonObject record) {
+    switch (record.getString("op")) {
+      case "create": {
+        Page page = new Page(record.getInteger("id"), record.getString("name"));
+        String markdown = record.getString("markdown");
+        page.markdown = markdown;
+        page.version = 1;
+        page.snapshotRevision = 1;
+        page.updatedAt = record.getLong("at");
+        page.revisions.add(new Revision(page.updatedAt, true, new Delta(0, 0, markdown)));
+        pagesByName.put(page.name, page);
+        pagesById.put(page.id, page);
+        nextId.accumulateAndGet(page.id + 1, Math::max);
+        index(page);
+        return page;
+      }
+      case "save": {
+        Page page = pagesById.get(record.getInteger("id"));
+        unindex(page);
+        int next = page.version + 1;
+        long at = record.getLong("at");
+        if (record.containsKey("markdown")) {
+          page.markdown = record.getString("markdown");
+          page.revisions.add(new Revision(at, true, new Delta(0, 0, page.markdown)));
+          page.snapshotRevision = next;
+        } else {
+          Delta delta = new Delta(record.getInteger("prefix"), record.getInteger("suffix"), record.getString("text"));
+          page.markdown = delta.applyTo(page.markdown);
+          page.revisions.add(new Revision(at, false, delta));
+        }
+        page.version = next;
+        page.updatedAt = at;
+        page.html = null;
+        index(page);
+        return page;
+      }
+      case "delete": {
+        Page page = pagesById.remove(record.getInteger("id"));
+        pagesByName.remove(page.name);
+        unindex(page);
+        return page;
+      }
+      case "batch": {
+        Page last = null;
+        for (Object entry : record.getJsonArray("records")) {
+          last = apply((JsonObject) entry);
+        }
+        return last;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown log record " + record.getString("op"));
+    }
+  }
+
+  private void index(Page page) {
+    page.links = links(page.markdown);
+    for (String to : page.links) {
+      linkedFrom.computeIfAbsent(to, key -> new TreeSet<>()).add(page.id);
+    }
+    page.bodyTerms = terms(page.markdown);
+    for (String term : page.nameTerms) {
+      pagesByTerm.computeIfAbsent(term, key -> new HashSet<>()).add(page.id);
+    }
+    for (String term : page.bodyTerms.keySet()) {
+      pagesByTerm.computeIfAbsent(term, key -> new HashSet<>()).add(page.id);
+    }
+  }
+
+  private void unindex(Page page) {
+    for (String to : page.links) {
+      Set<Integer> from = linkedFrom.get(to);
+      from.remove(page.id);
+      if (from.isEmpty()) {
+        linkedFrom.remove(to);
+      }
+    }
+    Set<String> terms = new HashSet<>(page.nameTerms);
+    terms.addAll(page.bodyTerms.keySet());
+    for (String term : terms) {
+      Set<Integer> pages = pagesByTerm.get(term);
+      pages.remove(page.id);
+      if (pages.isEmpty()) {
+        pagesByTerm.remove(term);
+      }
+    }
+  }
+
+  private Map<String, Page> pagesAfter(String after) {
+    return after == null || after.isEmpty() ? pagesByName : pagesByName.tailMap(after, false);
+  }
+
+  /**
+   * The log line of {@code record}, or null when there is no log.
+   */
+  private byte[] encode(JsonObject record) {
+    return log == null ? null : (record.encode() + "\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Called with the write lock held, so that lines go to the log in the order their changes were applied.
+   */
+  private void append(byte[] encoded) {
+    if (log == null) {
+      return;
+    }
+    ByteBuffer line = ByteBuffer.wrap(encoded);
+    int length = line.remaining();
+    try {
+      while (line.hasRemaining()) {
+        log.write(line);
+      }
+      logSize += length;
+    } catch (IOException e) {
+      // leave no partial line for the next record to be glued to
+      try {
+        log.truncate(logSize);
+        log.position(logSize);
+      } catch (IOException ignored) {
+        LOGGER.error("Could not cut a partial record from the log", ignored);
+      }
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Forces what was appended so far to disk, changes from other threads included.
+   */
+  private void sync() {
+    if (log == null) {
+      return;
+    }
+    try {
+      log.force(false);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void replay(Path path) throws IOException {
+    long offset = 0;
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+      for (int b = in.read(); b != -1; b = in.read()) {
+        if (b != '\n') {
+          line.write(b);
+          continue;
+        }
+        JsonObject record;
+        try {
+          record = new JsonObject(new String(line.toByteArray(), StandardCharsets.UTF_8));
+        } catch (DecodeException e) {
+          throw new IOException("Corrupt record at byte " + offset + " of " + path, e);
+        }
+        apply(record);
+        offset += line.size() + 1;
+        line.reset();
+      }
+    }
+    if (line.size() > 0) {
+      LOGGER.warn("Dropping a record of {} bytes cut short at the end of {}", line.size(), path);
+      log.truncate(offset);
+    }
+    logSize = offset;
+    log.position(offset);
+  }
+
+  static Set<String> links(String markdown) {
+    Set<String> links = new HashSet<>();
+    Matcher matcher = LINK.matcher(markdown == null ? "" : markdown);
+    while (matcher.find()) {
+      if (matcher.group(1).length() <= MAX_NAME_LENGTH) {
+        links.add(matcher.group(1));
+      }
+    }
+    return links;
+  }
+
+  /**
+   * Lower cased words, letters and digits, with how many times each occurs.
+   */
+  static Map<String, Integer> terms(String text) {
+    Map<String, Integer> terms = new HashMap<>();
+    List<int[]> words = words(text == null ? "" : text);
+    for (int[] word : words) {
+      terms.merge(text.substring(word[0], word[1]).toLowerCase(Locale.ROOT), 1, Integer::sum);
+    }
+    return terms;
+  }
+
+  private static List<int[]> words(String text) {
+    List<int[]> words = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (inWord && start < 0) {
+        start = i;
+      } else if (!inWord && start >= 0) {
+        words.add(new int[]{start, i});
+        start = -1;
+      }
+    }
+    return words;
+  }
+
+  /**
+   * HTML escaped fragments of {@code markdown} around the words of {@code wanted}, marked with {@code <mark>}, or
+   * its first words if none occurs in it.
+   */
+  static String snippet(String markdown, Set<String> wanted) {
+    List<int[]> words = words(markdown);
+    List<Integer> starts = new ArrayList<>();
+    int covered = 0;
+    for (int i = 0; i < words.size() && starts.size() < SNIPPET_FRAGMENTS; i++) {
+      if (i >= covered && wanted.contains(word(markdown, words.get(i)))) {
+        int start = Math.max(covered, i - SNIPPET_LEAD_WORDS);
+        starts.add(start);
+        covered = start + SNIPPET_WORDS;
+      }
+    }
+    if (starts.isEmpty() && !words.isEmpty()) {
+      starts.add(0);
+    }
+    StringBuilder snippet = new StringBuilder();
+    for (int start : starts) {
+      if (snippet.length() > 0) {
+        snippet.append(" ... ");
+      }
+      int end = Math.min(words.size(), start + SNIPPET_WORDS);
+      for (int i = start; i < end; i++) {
+        int[] word = words.get(i);
+        if (i > start) {
+          escape(snippet, markdown.substring(words.get(i - 1)[1], word[0]));
+        }
+        boolean marked = wanted.contains(word(markdown, word));
+        snippet.append(marked ? "<mark>" : "");
+        escape(snippet, markdown.substring(word[0], word[1]));
+        snippet.append(marked ? "</mark>" : "");
+      }
+    }
+    return snippet.toString();
+  }
+
+  private static String word(String text, int[] word) {
+    return text.substring(word[0], word[1]).toLowerCase(Locale.ROOT);
+  }
+
+  private static void escape(StringBuilder out, String text) {
+    out.append(text
+        .replace("&", "&amp;")
+        .replace("<", "&lt;")
+        .replace(">", "&gt;")
+        .replace("\"", "&quot;"));
+  }
+}
@@ -0,0 +1,338 @@
+package id.caltic.labs.wiki.database.impl;
+
+import com.github.rjeschke.txtmark.Processor;
+import id.caltic.labs.wiki.database.WikiService;
+import id.caltic.labs.wiki.render.RenderPool;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * A {@link WikiService} keeping its pages in the process, for single node wikis and tests: see
+ * {@link EmbeddedStore}. Reads are answered from memory on the calling thread; writes to a logged store wait for the
+ * disk on a worker thread. Search matches whole words without stemming, and names sort by code point rather than
+ * by the collation of a database.
+ */
+public class EmbeddedWikiService implements WikiService {
+  private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedWikiService.class);
+
+  private static final String WIKIDB_PAGES_CHANGED = "wikidb.pages.changed";
+
+  private static final int MAX_PAGE_LIMIT = 1000;
+  private static final int MAX_SEARCH_LIMIT = 100;
+
+  private final Vertx vertx;
+  private final RenderPool renderPool;
+  private EmbeddedStore store;
+
+  /**
+   * Logs changes to the file at {@code path}, or keeps them in memory only when {@code path} is empty. Services on
+   * the same path share their pages within a Vert.x instance; the file is closed once the verticles that opened it
+   * are undeployed.
+   */
+  public EmbeddedWikiService(Vertx vertx, String path, Handler<AsyncResult<WikiService>> resultHandler) {
+    this.vertx = vertx;
+    this.renderPool = RenderPool.create(vertx);
+
+    Context context = vertx.getOrCreateContext();
+    vertx.<EmbeddedStore>executeBlocking(future -> {
+      try {
+        future.complete(EmbeddedStore.get(vertx, path));
+      } catch (IOException e) {
+        future.fail(e);
+      }
+    }, opened -> {
+      if (opened.failed()) {
+        LOGGER.error("Database initialisation error", opened.cause());
+        resultHandler.handle(Future.failedFuture(opened.cause()));
+        return;
+      }
+      store = opened.result();
+      context.addCloseHook(closed -> vertx.executeBlocking(future -> {
+        try {
+          EmbeddedStore.release(vertx, path, store);
+          future.complete();
+        } catch (IOException e) {
+          future.fail(e);
+        }
+      }, closed));
+      resultHandler.handle(Future.succeededFuture(this));
+    });
+  }
+
+  @Override
+  public WikiService ping(Handler<AsyncResult<Void>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture());
+    return this;
+  }
+
+  @Override
+  public WikiService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(store.pageNames()));
+    return this;
+  }
+
+  @Override
+  public WikiService fetchPageNames(String after, int limit, Handler<AsyncResult<JsonObject>> resultHandler) {
+    int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_LIMIT));
+    resultHandler.handle(Future.succeededFuture(store.pageNames(after, pageSize)));
+    return this;
+  }
+
+  @Override
+  public WikiService exportPages(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_LIMIT));
+    resultHandler.handle(Future.succeededFuture(store.exportPages(after, pageSize)));
+    return this;
+  }
+
+  @Override
+  public WikiService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+    JsonObject page = store.page(name);
+    if (!page.getBoolean("found") || page.containsKey("html")) {
+      resultHandler.handle(Future.succeededFuture(page));
+      return this;
+    }
+    // replayed from the log, not rendered yet
+    Rendering.markdown(renderPool, page.getString("rawContent"), render -> {
+      if (render.succeeded()) {
+        page.put("html", render.result());
+        store.backfillHtml(page.getInteger("id"), page.getInteger("version"), render.result());
+        resultHandler.handle(Future.succeededFuture(page));
+      } else {
+        LOGGER.error("Markdown rendering error", render.cause());
+        resultHandler.handle(Future.failedFuture(render.cause()));
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public WikiService fetchPageVersion(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(store.pageVersion(name)));
+    return this;
+  }
+
+  @Override
+  public WikiService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    String content = markdown == null ? "" : markdown;
+    Rendering.markdown(renderPool, content, render -> {
+      if (render.failed()) {
+        LOGGER.error("Markdown rendering error", render.cause());
+        resultHandler.handle(Future.failedFuture(render.cause()));
+        return;
+      }
+      write(() -> store.create(title, content, render.result()), res -> {
+        if (res.succeeded()) {
+          publishChange(res.result());
+        }
+        resultHandler.handle(res.mapEmpty());
+      });
+    });
+    return this;
+  }
+
+  @Override
+  public WikiService savePage(int id, String markdown, int baseVersion, Handler<AsyncResult<Void>> resultHandler) {
+    String content = markdown == null ? "" : markdown;
+    Rendering.markdown(renderPool, content, render -> {
+      if (render.failed()) {
+        LOGGER.error("Markdown rendering error", render.cause());
+        resultHandler.handle(Future.failedFuture(render.cause()));
+        return;
+      }
+      write(() -> store.save(id, content, render.result(), baseVersion), res -> {
+        if (res.succeeded()) {
+          publishChange(res.result());
+        }
+        resultHandler.handle(res.mapEmpty());
+      });
+    });
+    return this;
+  }
+
+  @Override
+  public WikiService fetchRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(store.revision(name, revision)));
+    return this;
+  }
+
+  @Override
+  public WikiService listRevisions(String name, int before, int limit,
+                                   Handler<AsyncResult<JsonObject>> resultHandler) {
+    int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_LIMIT));
+    resultHandler.handle(Future.succeededFuture(store.revisions(name, before, pageSize)));
+    return this;
+  }
+
+  @Override
+  public WikiService createPages(JsonArray pages, Handler<AsyncResult<JsonObject>> resultHandler) {
+    writePages(pages, false, "created", resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiService savePages(JsonArray pages, Handler<AsyncResult<JsonObject>> resultHandler) {
+    writePages(pages, true, "saved", resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiService appendUpload(String uploadId, int sequence, String chunk,
+                                  Handler<AsyncResult<Void>> resultHandler) {
+    try {
+      store.appendUpload(uploadId, sequence, chunk == null ? "" : chunk);
+      resultHandler.handle(Future.succeededFuture());
+    } catch (IllegalStateException e) {
+      LOGGER.error("Database query error", e);
+      resultHandler.handle(Future.failedFuture(e));
+    }
+    return this;
+  }
+
+  @Override
+  public WikiService commitUpload(String uploadId, String name, int baseVersion,
+                                  Handler<AsyncResult<Void>> resultHandler) {
+    Integer id = store.pageId(name);
+    String markdown = store.upload(uploadId);
+    Handler<AsyncResult<Void>> saved = save -> discardUpload(uploadId, discarded -> resultHandler.handle(save));
+    if (id == null) {
+      createPage(name, markdown, saved);
+    } else {
+      savePage(id, markdown, baseVersion, saved);
+    }
+    return this;
+  }
+
+  @Override
+  public WikiService discardUpload(String uploadId, Handler<AsyncResult<Void>> resultHandler) {
+    store.discardUpload(uploadId);
+    resultHandler.handle(Future.succeededFuture());
+    return this;
+  }
+
+  @Override
+  public WikiService searchPages(String query, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    if (query == null || query.trim().isEmpty()) {
+      resultHandler.handle(Future.succeededFuture(new JsonArray()));
+      return this;
+    }
+    resultHandler.handle(Future.succeededFuture(store.search(query, Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT)))));
+    return this;
+  }
+
+  @Override
+  public WikiService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+    write(() -> {
+      store.delete(id);
+      return null;
+    }, res -> {
+      if (res.succeeded()) {
+        publishChange(new JsonObject().put("id", id));
+      }
+      resultHandler.handle(res.mapEmpty());
+    });
+    return this;
+  }
+
+  @Override
+  public WikiService fetchBacklinks(String name, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(store.backlinks(name, Math.max(1, Math.min(limit, MAX_PAGE_LIMIT)))));
+    return this;
+  }
+
+  @Override
+  public WikiService fetchLinkReport(int limit, Handler<AsyncResult<JsonObject>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(store.linkReport(Math.max(1, Math.min(limit, MAX_PAGE_LIMIT)))));
+    return this;
+  }
+
+  /**
+   * Renders the whole batch in one worker task, like {@link WikiServiceImpl} does, then writes it as one record.
+   */
+  private void writePages(JsonArray pages, boolean replace, String countKey,
+                          Handler<AsyncResult<JsonObject>> resultHandler) {
+    Map<String, String> markdownByName = new LinkedHashMap<>();
+    for (int i = 0; i < pages.size(); i++) {
+      JsonObject page = pages.getJsonObject(i);
+      String name = page.getString("name");
+      if (name == null || name.isEmpty()) {
+        resultHandler.handle(Future.failedFuture(new IllegalArgumentException("Page " + i + " has no name")));
+        return;
+      }
+      String markdown = page.getString("markdown");
+      markdownByName.put(name, markdown == null ? "" : markdown);
+    }
+    if (markdownByName.isEmpty()) {
+      resultHandler.handle(Future.succeededFuture(new JsonObject().put(countKey, 0)));
+      return;
+    }
+
+    long weight = 0;
+    for (String markdown : markdownByName.values()) {
+      weight += markdown.length();
+    }
+    renderPool.<Map<String, String>>execute(weight, () -> {
+      Map<String, String> htmlByName = new HashMap<>();
+      markdownByName.forEach((name, markdown) -> htmlByName.put(name, Processor.process(markdown)));
+      return htmlByName;
+    }, render -> {
+      if (render.failed()) {
+        LOGGER.error("Markdown rendering error", render.cause());
+        resultHandler.handle(Future.failedFuture(Rendering.busyOr(render.cause())));
+        return;
+      }
+      write(() -> store.writePages(markdownByName, render.result(), replace), res -> {
+        if (res.succeeded()) {
+          publishChange(new JsonObject().put("names", new JsonArray(new ArrayList<>(markdownByName.keySet()))));
+          resultHandler.handle(Future.succeededFuture(new JsonObject().put(countKey, res.result())));
+        } else {
+          resultHandler.handle(Future.failedFuture(res.cause()));
+        }
+      });
+    });
+  }
+
+  /**
+   * Runs {@code work} on a worker thread when it has to wait for the disk, and right away otherwise.
+   */
+  private <T> void write(Callable<T> work, Handler<AsyncResult<T>> handler) {
+    Handler<AsyncResult<T>> logged = res -> {
+      if (res.failed() && !(res.cause() instanceof ServiceException)) {
+        LOGGER.error("Database query error", res.cause());
+      }
+      handler.handle(res);
+    };
+    if (!store.logged()) {
+      logged.handle(call(work));
+      return;
+    }
+    vertx.executeBlocking(future -> future.handle(call(work)), false, logged);
+  }
+
+  private static <T> Future<T> call(Callable<T> work) {
+    try {
+      return Future.succeededFuture(work.call());
+    } catch (Exception e) {
+      return Future.failedFuture(e);
+    }
+  }
+
+  private void publishChange(JsonObject change) {
+    vertx.eventBus().publish(WIKIDB_PAGES_CHANGED, change);
+  }
+}
@@ -0,0 +1,60 @@
+package id.caltic.labs.wiki.database.impl;
+
+import id.caltic.labs.wiki.database.ServiceStats;
+import id.caltic.labs.wiki.database.WikiService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Wraps a {@link WikiService} so that every call is counted in a {@link ServiceStats} from the moment it is
+ * dispatched until its result handler runs.
+ */
+public class InstrumentedWikiService implements InvocationHandler {
+
+  private final WikiService delegate;
+  private final ServiceStats stats;
+
+  private InstrumentedWikiService(WikiService delegate, ServiceStats stats) {
+    this.delegate = delegate;
+    this.stats = stats;
+  }
+
+  public static WikiService wrap(WikiService delegate, ServiceStats stats) {
+    return (WikiService) Proxy.newProxyInstance(WikiService.class.getClassLoader(),
+        new Class<?>[]{WikiService.class}, new InstrumentedWikiService(delegate, stats));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(this, args);
+    }
+
+    int last = args == null ? -1 : args.length - 1;
+    boolean tracked = last >= 0 && args[last] instanceof Handler;
+    if (tracked) {
+      Handler<AsyncResult<Object>> resultHandler = (Handler<AsyncResult<Object>>) args[last];
+      stats.callStarted();
+      args[last] = (Handler<AsyncResult<Object>>) ar -> {
+        stats.callEnded(ar.succeeded());
+        resultHandler.handle(ar);
+      };
+    }
+
+    try {
+      Object result = method.invoke(delegate, args);
+      return result == delegate ? proxy : result;
+    } catch (InvocationTargetException e) {
+      if (tracked) {
+        stats.callEnded(false);
+      }
+      throw e.getCause();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package id.caltic.labs.wiki.database.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.ext.sql.SQLClient;
+import io.vertx.ext.sql.SQLConnection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens connections of a pool ahead of the first requests, which would otherwise each pay for a connection
+ * handshake and authentication. All connections are checked out at once, so that the pool has to open that many,
+ * and each one runs a trivial query before they are all returned. A pool shared by name is warmed by the first
+ * verticle instance to ask only: instances each holding part of the pool while waiting for the rest would never
+ * get it.
+ */
+public final class PoolWarmer {
+
+  private static final String SQL_WARM_UP = "SELECT 1";
+  private static final String WARMED_POOLS = "wiki.warmed-pools";
+
+  private PoolWarmer() {
+  }
+
+  /**
+   * Completes with the failure of the first connection that couldn't be opened, once every attempt is over, or
+   * right away when the pool has already been warmed in this Vert.x instance.
+   */
+  public static void warm(Vertx vertx, String pool, SQLClient client, int connections,
+                          Handler<AsyncResult<Void>> handler) {
+    LocalMap<String, Boolean> warmed = vertx.sharedData().getLocalMap(WARMED_POOLS);
+    if (warmed.putIfAbsent(pool, true) != null) {
+      handler.handle(Future.succeededFuture());
+      return;
+    }
+    warm(client, connections, handler);
+  }
+
+  static void warm(SQLClient client, int connections, Handler<AsyncResult<Void>> handler) {
+    if (connections <= 0) {
+      handler.handle(Future.succeededFuture());
+      return;
+    }
+    List<SQLConnection> opened = new ArrayList<>();
+    Throwable[] failure = new Throwable[1];
+    int[] pending = {connections};
+    for (int i = 0; i < connections; i++) {
+      client.getConnection(ar -> {
+        if (ar.failed()) {
+          done(ar.cause(), opened, failure, pending, handler);
+          return;
+        }
+        SQLConnection conn = ar.result();
+        opened.add(conn);
+        conn.query(SQL_WARM_UP, query -> done(query.failed() ? query.cause() : null, opened, failure, pending,
+            handler));
+      });
+    }
+  }
+
+  private static void done(Throwable cause, List<SQLConnection> opened, Throwable[] failure, int[] pending,
+                           Handler<AsyncResult<Void>> handler) {
+    if (failure[0] == null) {
+      failure[0] = cause;
+    }
+    if (--pending[0] > 0) {
+      return;
+    }
+    opened.forEach(SQLConnection::close);
+    handler.handle(failure[0] == null ? Future.succeededFuture() : Future.failedFuture(failure[0]));
+  }
+}
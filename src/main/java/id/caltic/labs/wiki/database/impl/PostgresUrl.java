@@ -0,0 +1,93 @@
+package id.caltic.labs.wiki.database.impl;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns a JDBC URL such as {@code jdbc:postgresql://host:5432/db?user=u&password=p&sslmode=require}, the form
+ * Heroku puts in JDBC_DATABASE_URL, into the configuration of the asynchronous Postgres client. As with the JDBC
+ * driver, credentials given in the URL win over the ones given separately.
+ */
+public final class PostgresUrl {
+
+  private PostgresUrl() {
+  }
+
+  public static JsonObject asyncConfig(String jdbcUrl, String user, String password) {
+    if (!jdbcUrl.startsWith("jdbc:postgresql:")) {
+      throw new IllegalArgumentException("Not a Postgres JDBC URL: " + jdbcUrl);
+    }
+    URI uri = URI.create(jdbcUrl.substring("jdbc:".length()));
+    Map<String, String> parameters = parameters(uri.getRawQuery());
+    JsonObject config = new JsonObject()
+        .put("host", uri.getHost() == null ? "localhost" : uri.getHost())
+        .put("port", uri.getPort() == -1 ? 5432 : uri.getPort())
+        .put("database", uri.getPath().substring(1));
+    String username = parameters.getOrDefault("user", user);
+    if (username != null) {
+      config.put("username", username);
+    }
+    String pwd = parameters.getOrDefault("password", password);
+    if (pwd != null) {
+      config.put("password", pwd);
+    }
+    String sslMode = sslMode(parameters);
+    if (sslMode != null) {
+      config.put("sslMode", sslMode);
+    }
+    if (parameters.containsKey("sslrootcert")) {
+      config.put("sslRootCert", parameters.get("sslrootcert"));
+    }
+    return config;
+  }
+
+  /**
+   * The asynchronous client knows no {@code allow} mode, which becomes {@code prefer}; a bare {@code ssl=true}
+   * verifies the server as the JDBC driver does.
+   */
+  private static String sslMode(Map<String, String> parameters) {
+    String mode = parameters.get("sslmode");
+    if (mode == null) {
+      return "true".equals(parameters.get("ssl")) ? "verify-full" : null;
+    }
+    switch (mode) {
+      case "allow":
+        return "prefer";
+      case "disable":
+      case "prefer":
+      case "require":
+      case "verify-ca":
+      case "verify-full":
+        return mode;
+      default:
+        throw new IllegalArgumentException("Unknown sslmode: " + mode);
+    }
+  }
+
+  private static Map<String, String> parameters(String query) {
+    Map<String, String> parameters = new HashMap<>();
+    if (query == null || query.isEmpty()) {
+      return parameters;
+    }
+    for (String pair : query.split("&")) {
+      int separator = pair.indexOf('=');
+      if (separator > 0) {
+        parameters.put(decode(pair.substring(0, separator)), decode(pair.substring(separator + 1)));
+      }
+    }
+    return parameters;
+  }
+
+  private static String decode(String value) {
+    try {
+      return URLDecoder.decode(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
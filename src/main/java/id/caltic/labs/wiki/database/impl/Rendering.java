@@ -0,0 +1,36 @@
+package id.caltic.labs.wiki.database.impl;
+
+import com.github.rjeschke.txtmark.Processor;
+import id.caltic.labs.wiki.database.ErrorCodes;
+import id.caltic.labs.wiki.render.RenderPool;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.serviceproxy.ServiceException;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * How every backend renders page markdown on the shared render pool.
+ */
+final class Rendering {
+
+  private Rendering() {
+  }
+
+  static void markdown(RenderPool renderPool, String markdown, Handler<AsyncResult<String>> handler) {
+    String source = markdown == null ? "" : markdown;
+    renderPool.execute(source.length(), () -> Processor.process(source),
+        render -> handler.handle(render.failed() ? Future.failedFuture(busyOr(render.cause())) : render));
+  }
+
+  /**
+   * A saturated render pool is reported with its own error code so that callers can ask the client to retry.
+   */
+  static Throwable busyOr(Throwable cause) {
+    if (cause instanceof RejectedExecutionException) {
+      return new ServiceException(ErrorCodes.BUSY.ordinal(), cause.getMessage());
+    }
+    return cause;
+  }
+}
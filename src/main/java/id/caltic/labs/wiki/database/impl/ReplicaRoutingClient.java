@@ -0,0 +1,185 @@
+package id.caltic.labs.wiki.database.impl;
+
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.sql.SQLClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads the queries issued on a {@link SQLClient} over read replicas, round robin, while updates and checked-out
+ * connections, hence transactions, stay on the primary. Replicas are checked periodically and left out of the
+ * rotation while unreachable or lagging more than {@code maxLagMillis} behind the primary; a query failing on a
+ * replica takes it out of the rotation until its next successful check and is retried on the primary. Without a
+ * healthy replica, queries go to the primary.
+ * <p>
+ * Callers that must see their own writes have to query the primary themselves, replicas being asynchronous.
+ */
+public class ReplicaRoutingClient implements InvocationHandler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaRoutingClient.class);
+
+  // zero on a server that isn't replicating and on a replica that has replayed everything it received
+  static final String SQL_REPLICA_LAG = "SELECT CASE WHEN NOT pg_is_in_recovery() " +
+      "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+      "ELSE COALESCE((EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000)::bigint, 0) END";
+
+  private static final class Replica {
+    final String pool;
+    final SQLClient client;
+    final AtomicLong reads;
+    final AtomicLong failovers;
+    volatile boolean healthy;
+    volatile long lagMillis;
+
+    Replica(String pool, SQLClient client, MetricsRegistry metrics) {
+      this.pool = pool;
+      this.client = client;
+      this.reads = metrics.level("db_reads_routed", "Queries sent to each pool by replica routing", "target", pool);
+      this.failovers = metrics.level("db_replica_failovers",
+          "Queries retried on the primary after failing on a replica", "pool", pool);
+    }
+  }
+
+  private final SQLClient primary;
+  private final List<Replica> replicas = new ArrayList<>();
+  private final long maxLagMillis;
+  private final AtomicLong primaryReads;
+  private final AtomicInteger next = new AtomicInteger();
+
+  private ReplicaRoutingClient(SQLClient primary, List<SQLClient> replicaClients, List<String> replicaPools,
+                               MetricsRegistry metrics, long maxLagMillis) {
+    this.primary = primary;
+    this.maxLagMillis = maxLagMillis;
+    this.primaryReads = metrics.level("db_reads_routed", "Queries sent to each pool by replica routing",
+        "target", "primary");
+    for (int i = 0; i < replicaClients.size(); i++) {
+      Replica replica = new Replica(replicaPools.get(i), replicaClients.get(i), metrics);
+      replicas.add(replica);
+      metrics.gauge("db_replica_healthy", "Whether a replica is in the read rotation",
+          () -> replica.healthy ? 1 : 0, "pool", replica.pool);
+      metrics.gauge("db_replica_lag_seconds", "Replication lag measured by the last health check",
+          () -> replica.lagMillis / 1000.0, "pool", replica.pool);
+    }
+  }
+
+  /**
+   * {@code replicaPools} names the replica clients in logs and metrics. Replicas only join the rotation once a first
+   * check, run right away and then every {@code checkIntervalMillis}, found them healthy.
+   */
+  public static SQLClient wrap(Vertx vertx, SQLClient primary, List<SQLClient> replicas, List<String> replicaPools,
+                               MetricsRegistry metrics, long checkIntervalMillis, long maxLagMillis) {
+    ReplicaRoutingClient routing = new ReplicaRoutingClient(primary, replicas, replicaPools, metrics, maxLagMillis);
+    routing.checkReplicas();
+    vertx.setPeriodic(checkIntervalMillis, id -> routing.checkReplicas());
+    return (SQLClient) Proxy.newProxyInstance(SQLClient.class.getClassLoader(), new Class<?>[]{SQLClient.class},
+        routing);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(this, args);
+    }
+
+    int last = args == null ? -1 : args.length - 1;
+    if (method.getName().equals("close")) {
+      replicas.forEach(replica -> replica.client.close());
+    }
+    if (!method.getName().startsWith("query") || last < 0 || !(args[last] instanceof Handler)) {
+      return invokeOn(primary, method, args, proxy);
+    }
+
+    Replica replica = pick();
+    if (replica == null) {
+      primaryReads.incrementAndGet();
+      return invokeOn(primary, method, args, proxy);
+    }
+    Handler<AsyncResult<Object>> resultHandler = (Handler<AsyncResult<Object>>) args[last];
+    Object[] retry = args.clone();
+    args[last] = (Handler<AsyncResult<Object>>) ar -> {
+      if (ar.succeeded()) {
+        resultHandler.handle(ar);
+        return;
+      }
+      failover(replica, ar.cause());
+      try {
+        invokeOn(primary, method, retry, proxy);
+      } catch (Throwable t) {
+        resultHandler.handle(Future.failedFuture(t));
+      }
+    };
+    replica.reads.incrementAndGet();
+    try {
+      return invokeOn(replica.client, method, args, proxy);
+    } catch (Throwable t) {
+      failover(replica, t);
+      return invokeOn(primary, method, retry, proxy);
+    }
+  }
+
+  void checkReplicas() {
+    for (Replica replica : replicas) {
+      replica.client.query(SQL_REPLICA_LAG, res -> {
+        boolean healthy = false;
+        if (res.succeeded()) {
+          JsonArray row = res.result().getResults().get(0);
+          replica.lagMillis = row.getLong(0);
+          healthy = replica.lagMillis <= maxLagMillis;
+        }
+        if (healthy && !replica.healthy) {
+          LOGGER.info("Replica {} joins the read rotation", replica.pool);
+        } else if (!healthy && replica.healthy) {
+          if (res.failed()) {
+            LOGGER.warn("Replica " + replica.pool + " leaves the read rotation", res.cause());
+          } else {
+            LOGGER.warn("Replica {} leaves the read rotation, {} ms behind", replica.pool, replica.lagMillis);
+          }
+        }
+        replica.healthy = healthy;
+      });
+    }
+  }
+
+  private Replica pick() {
+    int start = next.getAndIncrement();
+    for (int i = 0; i < replicas.size(); i++) {
+      Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+      if (replica.healthy) {
+        return replica;
+      }
+    }
+    return null;
+  }
+
+  private void failover(Replica replica, Throwable cause) {
+    if (replica.healthy) {
+      LOGGER.warn("Replica " + replica.pool + " leaves the read rotation after a failed query", cause);
+    }
+    replica.healthy = false;
+    replica.failovers.incrementAndGet();
+    primaryReads.incrementAndGet();
+  }
+
+  private static Object invokeOn(SQLClient target, Method method, Object[] args, Object proxy) throws Throwable {
+    try {
+      Object result = method.invoke(target, args);
+      return result == target ? proxy : result;
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
@@ -1,17 +1,31 @@
 package id.caltic.labs.wiki.database.impl;
 
+import com.github.rjeschke.txtmark.Processor;
+import id.caltic.labs.wiki.database.ErrorCodes;
 import id.caltic.labs.wiki.database.WikiService;
+import id.caltic.labs.wiki.render.RenderPool;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLClient;
 import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.UpdateResult;
+import io.vertx.serviceproxy.ServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 public class WikiServiceImpl implements WikiService {
@@ -21,43 +35,246 @@ public class WikiServiceImpl implements WikiService {
       "id serial PRIMARY KEY, " +
       "name VARCHAR(255) UNIQUE NOT NULL, " +
       "content TEXT)";
-  private static final String SQL_GET_PAGE = "SELECT id, content FROM pages WHERE name = ?";
-  private static final String SQL_CREATE_PAGE = "INSERT INTO pages (name, content) VALUES (?, ?)";
-  private static final String SQL_SAVE_PAGE = "UPDATE pages SET content = ? WHERE id = ?";
-  private static final String SQL_ALL_PAGES = "SELECT name FROM pages";
+  private static final String SQL_ADD_HTML_COLUMN = "ALTER TABLE pages ADD COLUMN IF NOT EXISTS html TEXT";
+  private static final String SQL_ADD_VERSION_COLUMN =
+      "ALTER TABLE pages ADD COLUMN IF NOT EXISTS version INTEGER NOT NULL DEFAULT 1";
+  private static final String SQL_ADD_UPDATED_AT_COLUMN =
+      "ALTER TABLE pages ADD COLUMN IF NOT EXISTS updated_at TIMESTAMPTZ NOT NULL DEFAULT now()";
+  private static final String SQL_SEARCH_VECTOR = "setweight(to_tsvector('english', %1$s.name), 'A') || " +
+      "setweight(to_tsvector('english', coalesce(%1$s.content, '')), 'B')";
+  private static final String SQL_ADD_SEARCH_COLUMN = "ALTER TABLE pages ADD COLUMN IF NOT EXISTS search TSVECTOR";
+  private static final String SQL_CREATE_SEARCH_INDEX =
+      "CREATE INDEX IF NOT EXISTS pages_search_idx ON pages USING GIN (search)";
+  private static final String SQL_CREATE_SEARCH_FUNCTION =
+      "CREATE OR REPLACE FUNCTION pages_search_update() RETURNS trigger AS $$ BEGIN " +
+          "NEW.search := " + String.format(SQL_SEARCH_VECTOR, "NEW") + "; RETURN NEW; END $$ LANGUAGE plpgsql";
+  private static final String SQL_DROP_SEARCH_TRIGGER = "DROP TRIGGER IF EXISTS pages_search_trigger ON pages";
+  private static final String SQL_CREATE_SEARCH_TRIGGER = "CREATE TRIGGER pages_search_trigger " +
+      "BEFORE INSERT OR UPDATE OF name, content ON pages FOR EACH ROW EXECUTE PROCEDURE pages_search_update()";
+  private static final String SQL_BACKFILL_SEARCH = "UPDATE pages SET search = " +
+      String.format(SQL_SEARCH_VECTOR, "pages") + " WHERE search IS NULL";
+  private static final String SQL_CREATE_REVISIONS_TABLE = "CREATE TABLE IF NOT EXISTS page_revisions (" +
+      "page_id INTEGER NOT NULL REFERENCES pages (id) ON DELETE CASCADE, " +
+      "revision INTEGER NOT NULL, " +
+      "created_at TIMESTAMPTZ NOT NULL DEFAULT now(), " +
+      "snapshot BOOLEAN NOT NULL, " +
+      "prefix INTEGER NOT NULL, " +
+      "suffix INTEGER NOT NULL, " +
+      "body TEXT NOT NULL, " +
+      "PRIMARY KEY (page_id, revision))";
+  private static final String SQL_ADD_SNAPSHOT_REVISION_COLUMN =
+      "ALTER TABLE pages ADD COLUMN IF NOT EXISTS snapshot_revision INTEGER";
+  private static final String SQL_CREATE_UPLOADS_TABLE = "CREATE TABLE IF NOT EXISTS page_uploads (" +
+      "upload_id VARCHAR(36) NOT NULL, " +
+      "sequence INTEGER NOT NULL, " +
+      "created_at TIMESTAMPTZ NOT NULL DEFAULT now(), " +
+      "chunk TEXT NOT NULL, " +
+      "PRIMARY KEY (upload_id, sequence))";
+  private static final String SQL_CREATE_SCHEMA_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS schema_version (" +
+      "version INTEGER PRIMARY KEY, " +
+      "applied_at TIMESTAMPTZ NOT NULL DEFAULT now())";
+  private static final String SQL_SCHEMA_VERSION = "SELECT coalesce(max(version), 0) FROM schema_version";
+  // held until the migrating transaction ends, across every node sharing the database
+  private static final String SQL_LOCK_SCHEMA = "SELECT true FROM pg_advisory_xact_lock(2037083235)";
+  private static final String SQL_RECORD_SCHEMA_VERSION = "INSERT INTO schema_version (version) VALUES (%d)";
+  private static final String SQL_PING = "SELECT 1";
+  private static final String SQL_UPDATED_AT_MILLIS = "CAST(EXTRACT(EPOCH FROM updated_at) * 1000 AS BIGINT)";
+  private static final String SQL_GET_PAGE = "SELECT id, content, html, version, " + SQL_UPDATED_AT_MILLIS +
+      " FROM pages WHERE name = ?";
+  private static final String SQL_GET_PAGE_VERSION = "SELECT id, version, " + SQL_UPDATED_AT_MILLIS +
+      " FROM pages WHERE name = ?";
+  // a markdown link to /wiki/<name>, possibly with a fragment or query; the name is taken as written
+  // \x3f stands for a question mark, which the asynchronous driver would take for a bind parameter
+  private static final String SQL_LINK_PATTERN = "'\\]\\(/wiki/([^)\\s#\\x3f/]+)[)\\s#\\x3f]'";
+  private static final String SQL_CREATE_LINKS_TABLE = "CREATE TABLE IF NOT EXISTS page_links (" +
+      "from_id INTEGER NOT NULL REFERENCES pages (id) ON DELETE CASCADE, " +
+      "to_name VARCHAR(255) NOT NULL, " +
+      "PRIMARY KEY (from_id, to_name))";
+  private static final String SQL_CREATE_LINKS_TARGET_INDEX =
+      "CREATE INDEX IF NOT EXISTS page_links_to_name_idx ON page_links (to_name, from_id)";
+  // brings the links of the pages in "written" in line with their content, touching only the links that changed
+  private static final String SQL_RELINK_WRITTEN = "links AS (" +
+      "SELECT DISTINCT id AS from_id, link[1] AS to_name FROM written, " +
+      "regexp_matches(coalesce(content, ''), " + SQL_LINK_PATTERN + ", 'g') AS link WHERE length(link[1]) <= 255), " +
+      "unlinked AS (DELETE FROM page_links l USING written WHERE l.from_id = written.id AND NOT EXISTS (" +
+      "SELECT 1 FROM links WHERE links.from_id = l.from_id AND links.to_name = l.to_name))";
+  private static final String SQL_INSERT_LINKS = "INSERT INTO page_links (from_id, to_name) " +
+      "SELECT from_id, to_name FROM links ON CONFLICT DO NOTHING";
+  private static final String SQL_BACKFILL_LINKS = "WITH written AS (SELECT id, content FROM pages), " +
+      SQL_RELINK_WRITTEN + " " + SQL_INSERT_LINKS;
+  private static final String SQL_RELINK_PAGE = "WITH written AS (SELECT id, content FROM pages WHERE id = ?), " +
+      SQL_RELINK_WRITTEN + " " + SQL_INSERT_LINKS;
+  private static final String SQL_INSERT_SNAPSHOTS = " RETURNING id, version, content), " +
+      SQL_RELINK_WRITTEN + ", linked AS (" + SQL_INSERT_LINKS + ") " +
+      "INSERT INTO page_revisions (page_id, revision, snapshot, prefix, suffix, body) " +
+      "SELECT id, version, true, 0, 0, coalesce(content, '') FROM written";
+  private static final String SQL_CREATE_PAGE = "WITH written AS (" +
+      "INSERT INTO pages (name, content, html, snapshot_revision) VALUES (?, ?, ?, 1)" + SQL_INSERT_SNAPSHOTS;
+  private static final String SQL_LOCK_PAGE = "SELECT content, version, snapshot_revision, name FROM pages " +
+      "WHERE id = ? FOR UPDATE";
+  private static final String SQL_INSERT_REVISION = "INSERT INTO page_revisions " +
+      "(page_id, revision, snapshot, prefix, suffix, body) VALUES (?, ?, ?, ?, ?, ?)";
+  private static final String SQL_SAVE_PAGE = "UPDATE pages SET content = ?, html = ?, version = ?, " +
+      "updated_at = now(), snapshot_revision = ? WHERE id = ?";
+  private static final String SQL_CREATED_AT_MILLIS = "CAST(EXTRACT(EPOCH FROM r.created_at) * 1000 AS BIGINT)";
+  // every revision from the closest snapshot up to the one asked for
+  private static final String SQL_GET_REVISION_CHAIN = "SELECT r.revision, r.snapshot, r.prefix, r.suffix, " +
+      "r.body, " + SQL_CREATED_AT_MILLIS + " FROM pages p JOIN page_revisions r ON r.page_id = p.id " +
+      "WHERE p.name = ? AND r.revision <= ? AND r.revision >= (SELECT max(s.revision) FROM page_revisions s " +
+      "WHERE s.page_id = p.id AND s.snapshot AND s.revision <= ?) ORDER BY r.revision";
+  private static final String SQL_LIST_REVISIONS = "SELECT r.revision, " + SQL_CREATED_AT_MILLIS +
+      " FROM pages p JOIN page_revisions r ON r.page_id = p.id WHERE p.name = ? ORDER BY r.revision DESC LIMIT ?";
+  private static final String SQL_LIST_REVISIONS_BEFORE = "SELECT r.revision, " + SQL_CREATED_AT_MILLIS +
+      " FROM pages p JOIN page_revisions r ON r.page_id = p.id WHERE p.name = ? AND r.revision < ? " +
+      "ORDER BY r.revision DESC LIMIT ?";
+  private static final String SQL_INSERT_PAGES = "WITH written AS (" +
+      "INSERT INTO pages (name, content, html, snapshot_revision) VALUES ";
+  private static final String SQL_INSERT_PAGES_ROW = "(?, ?, ?, 1)";
+  private static final String SQL_CREATE_PAGES_CONFLICT = " ON CONFLICT (name) DO NOTHING";
+  private static final String SQL_SAVE_PAGES_CONFLICT = " ON CONFLICT (name) DO UPDATE SET " +
+      "content = EXCLUDED.content, html = EXCLUDED.html, version = pages.version + 1, updated_at = now(), " +
+      "snapshot_revision = pages.version + 1";
+  private static final String SQL_BACKFILL_HTML = "UPDATE pages SET html = ? WHERE id = ? AND html IS NULL";
+  private static final String SQL_ALL_PAGES = "SELECT name FROM pages ORDER BY name";
+  private static final String SQL_PAGE_NAMES = "SELECT name FROM pages ORDER BY name LIMIT ?";
+  private static final String SQL_PAGE_NAMES_AFTER = "SELECT name FROM pages WHERE name > ? ORDER BY name LIMIT ?";
+  private static final String SQL_EXPORT_PAGES = "SELECT name, content, version, " + SQL_UPDATED_AT_MILLIS +
+      " FROM pages ORDER BY name LIMIT ?";
+  private static final String SQL_EXPORT_PAGES_AFTER = "SELECT name, content, version, " + SQL_UPDATED_AT_MILLIS +
+      " FROM pages WHERE name > ? ORDER BY name LIMIT ?";
   private static final String SQL_DELETE_PAGE = "DELETE FROM pages WHERE id = ?";
+  private static final String SQL_APPEND_UPLOAD = "INSERT INTO page_uploads (upload_id, sequence, chunk) " +
+      "VALUES (?, ?, ?)";
+  private static final String SQL_GET_UPLOAD = "SELECT (SELECT id FROM pages WHERE name = ?), " +
+      "(SELECT coalesce(string_agg(chunk, '' ORDER BY sequence), '') FROM page_uploads WHERE upload_id = ?)";
+  // uploads abandoned without a discard, by a crashed HTTP verticle for instance, go with the next one
+  private static final String SQL_DISCARD_UPLOAD = "DELETE FROM page_uploads " +
+      "WHERE upload_id = ? OR created_at < now() - interval '1 day'";
+  private static final String SQL_SEARCH_PAGES = "SELECT name, rank, " +
+      "ts_headline('english', coalesce(content, ''), query, ?) FROM (" +
+      "SELECT name, content, query, ts_rank(search, query) AS rank " +
+      "FROM pages, plainto_tsquery('english', ?) query WHERE search @@ query " +
+      "ORDER BY rank DESC, name LIMIT ?) hits ORDER BY rank DESC, name";
+  private static final String SQL_BACKLINKS = "SELECT p.name FROM page_links l JOIN pages p ON p.id = l.from_id " +
+      "WHERE l.to_name = ? AND p.name <> l.to_name ORDER BY p.name LIMIT ?";
+  private static final String SQL_BROKEN_LINKS = "SELECT p.name, l.to_name FROM page_links l " +
+      "JOIN pages p ON p.id = l.from_id WHERE NOT EXISTS (SELECT 1 FROM pages t WHERE t.name = l.to_name) " +
+      "ORDER BY l.to_name, l.from_id LIMIT ?";
+  // a page linking to itself is still an orphan
+  private static final String SQL_ORPHAN_PAGES = "SELECT p.name FROM pages p WHERE NOT EXISTS (" +
+      "SELECT 1 FROM page_links l WHERE l.to_name = p.name AND l.from_id <> p.id) ORDER BY p.name LIMIT ?";
 
-  private final JDBCClient jdbcClient;
+  // private-use characters survive HTML escaping and are turned into <mark> afterwards
+  private static final String HIGHLIGHT_START = "\uE000";
+  private static final String HIGHLIGHT_STOP = "\uE001";
+  private static final String HEADLINE_OPTIONS = "StartSel=" + HIGHLIGHT_START + ", StopSel=" + HIGHLIGHT_STOP +
+      ", MaxFragments=2, MaxWords=20, MinWords=5";
 
-  public WikiServiceImpl(JDBCClient jdbcClient, Handler<AsyncResult<WikiService>> resultHandler) {
-    this.jdbcClient = jdbcClient;
+  private static final String WIKIDB_PAGES_CHANGED = "wikidb.pages.changed";
 
-    jdbcClient.getConnection(ar -> {
-      if (ar.failed()) {
-        LOGGER.error("Couldn't open database connection", ar.cause());
-        resultHandler.handle(Future.failedFuture(ar.cause()));
-      } else {
-        SQLConnection conn = ar.result();
-        conn.execute(SQL_CREATE_PAGES_TABLE, create -> {
-          conn.close();
-          if (create.failed()) {
-            LOGGER.error("Database initialisation error", create.cause());
-            resultHandler.handle(Future.failedFuture(create.cause()));
-          } else {
-            resultHandler.handle(Future.succeededFuture(this));
+  private static final int MAX_PAGE_LIMIT = 1000;
+  private static final int MAX_SEARCH_LIMIT = 100;
+  // three parameters per row, well under the 32767 bind parameters a Postgres statement may carry
+  private static final int MAX_ROWS_PER_STATEMENT = 1000;
+  // bounds how many deltas rebuilding a revision has to apply
+  static final int SNAPSHOT_INTERVAL = 50;
+
+  // schema version n is reached by applying the n-th entry; append new versions, never change applied ones.
+  // Version 1 is idempotent so that databases created before versioning can take it as it is.
+  private static final List<List<String>> MIGRATIONS = Arrays.asList(
+      Arrays.asList(SQL_CREATE_PAGES_TABLE, SQL_ADD_HTML_COLUMN, SQL_ADD_VERSION_COLUMN, SQL_ADD_UPDATED_AT_COLUMN,
+          SQL_ADD_SEARCH_COLUMN, SQL_CREATE_SEARCH_INDEX, SQL_CREATE_SEARCH_FUNCTION, SQL_DROP_SEARCH_TRIGGER,
+          SQL_CREATE_SEARCH_TRIGGER, SQL_BACKFILL_SEARCH, SQL_CREATE_REVISIONS_TABLE,
+          SQL_ADD_SNAPSHOT_REVISION_COLUMN, SQL_CREATE_UPLOADS_TABLE),
+      Arrays.asList(SQL_CREATE_LINKS_TABLE, SQL_CREATE_LINKS_TARGET_INDEX, SQL_BACKFILL_LINKS));
+
+  private final Vertx vertx;
+  private final SQLClient dbClient;
+  private final SQLClient readClient;
+  private final RenderPool renderPool;
+
+  /**
+   * Queries that don't need the latest committed state go through {@code readClient}, possibly a replica; writes
+   * and whatever they read go through {@code dbClient}.
+   */
+  public WikiServiceImpl(Vertx vertx, SQLClient dbClient, SQLClient readClient,
+                         Handler<AsyncResult<WikiService>> resultHandler) {
+    this.vertx = vertx;
+    this.dbClient = dbClient;
+    this.readClient = readClient;
+    this.renderPool = RenderPool.create(vertx);
+
+    // an up to date schema costs one query; the migrations only run on the first boot after an upgrade
+    dbClient.query(SQL_SCHEMA_VERSION, current -> {
+      if (current.succeeded() && current.result().getResults().get(0).getInteger(0) >= MIGRATIONS.size()) {
+        resultHandler.handle(Future.succeededFuture(this));
+        return;
+      }
+      this.<Integer>inTransaction(this::migrate, migrated -> {
+        if (migrated.failed()) {
+          LOGGER.error("Database initialisation error", migrated.cause());
+          resultHandler.handle(Future.failedFuture(migrated.cause()));
+        } else {
+          if (migrated.result() < MIGRATIONS.size()) {
+            LOGGER.info("Migrated the schema from version {} to {}", migrated.result(), MIGRATIONS.size());
+          }
+          resultHandler.handle(Future.succeededFuture(this));
+        }
+      });
+    });
+  }
+
+  /**
+   * Nodes starting together wait for each other on the lock and then find the schema migrated already.
+   */
+  private void migrate(SQLConnection conn, Handler<AsyncResult<Integer>> done) {
+    conn.query(SQL_LOCK_SCHEMA, lock -> {
+      if (lock.failed()) {
+        done.handle(Future.failedFuture(lock.cause()));
+        return;
+      }
+      conn.execute(SQL_CREATE_SCHEMA_VERSION_TABLE, created -> {
+        if (created.failed()) {
+          done.handle(Future.failedFuture(created.cause()));
+          return;
+        }
+        conn.query(SQL_SCHEMA_VERSION, current -> {
+          if (current.failed()) {
+            done.handle(Future.failedFuture(current.cause()));
+            return;
+          }
+          int from = current.result().getResults().get(0).getInteger(0);
+          List<String> statements = new ArrayList<>();
+          for (int version = from + 1; version <= MIGRATIONS.size(); version++) {
+            statements.addAll(MIGRATIONS.get(version - 1));
+            statements.add(String.format(SQL_RECORD_SCHEMA_VERSION, version));
           }
+          executeAll(conn, statements.iterator(), applied -> done.handle(applied.map(from)));
         });
+      });
+    });
+  }
+
+  @Override
+  public WikiService ping(Handler<AsyncResult<Void>> resultHandler) {
+    dbClient.query(SQL_PING, res -> {
+      if (res.succeeded()) {
+        resultHandler.handle(Future.succeededFuture());
+      } else {
+        LOGGER.error("Database query error", res.cause());
+        resultHandler.handle(Future.failedFuture(res.cause()));
       }
     });
+    return this;
   }
 
   @Override
   public WikiService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
-    jdbcClient.query(SQL_ALL_PAGES, res -> {
+    readClient.query(SQL_ALL_PAGES, res -> {
       if (res.succeeded()) {
         JsonArray pages = new JsonArray(res.result()
-            .getResults().parallelStream()
-            .map(json -> json.getString(0)).sorted()
+            .getResults().stream()
+            .map(json -> json.getString(0))
             .collect(Collectors.toList()));
 
         resultHandler.handle(Future.succeededFuture(pages));
@@ -69,9 +286,92 @@ public class WikiServiceImpl implements WikiService {
     return this;
   }
 
+  @Override
+  public WikiService fetchPageNames(String after, int limit, Handler<AsyncResult<JsonObject>> resultHandler) {
+    int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_LIMIT));
+    // one extra row tells whether another page follows
+    queryAfter(SQL_PAGE_NAMES, SQL_PAGE_NAMES_AFTER, after, pageSize + 1, res -> {
+      if (res.succeeded()) {
+        List<JsonArray> rows = res.result().getResults();
+        JsonArray pages = new JsonArray();
+        rows.stream().limit(pageSize).forEach(row -> pages.add(row.getString(0)));
+
+        JsonObject response = new JsonObject().put("pages", pages);
+        if (rows.size() > pageSize) {
+          response.put("next", pages.getString(pageSize - 1));
+        }
+        resultHandler.handle(Future.succeededFuture(response));
+      } else {
+        LOGGER.error("Database query error", res.cause());
+        resultHandler.handle(Future.failedFuture(res.cause()));
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public WikiService exportPages(String after, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_LIMIT));
+    queryAfter(SQL_EXPORT_PAGES, SQL_EXPORT_PAGES_AFTER, after, pageSize, res -> {
+      if (res.succeeded()) {
+        JsonArray pages = new JsonArray();
+        res.result().getResults().forEach(row -> pages.add(new JsonObject()
+            .put("name", row.getString(0))
+            .put("markdown", row.getString(1))
+            .put("version", row.getInteger(2))
+            .put("updatedAt", row.getLong(3))));
+        resultHandler.handle(Future.succeededFuture(pages));
+      } else {
+        LOGGER.error("Database query error", res.cause());
+        resultHandler.handle(Future.failedFuture(res.cause()));
+      }
+    });
+    return this;
+  }
+
   @Override
   public WikiService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
-    jdbcClient.queryWithParams(SQL_GET_PAGE, new JsonArray().add(name), fetch -> {
+    readClient.queryWithParams(SQL_GET_PAGE, new JsonArray().add(name), fetch -> {
+      if (fetch.succeeded()) {
+        JsonObject response = new JsonObject();
+        ResultSet resultSet = fetch.result();
+        if (resultSet.getNumRows() == 0) {
+          response.put("found", false);
+          resultHandler.handle(Future.succeededFuture(response));
+          return;
+        }
+        JsonArray row = resultSet.getResults().get(0);
+        response.put("found", true);
+        response.put("id", row.getInteger(0));
+        response.put("rawContent", row.getString(1));
+        response.put("version", row.getInteger(3));
+        response.put("updatedAt", row.getLong(4));
+        if (row.getString(2) != null) {
+          response.put("html", row.getString(2));
+          resultHandler.handle(Future.succeededFuture(response));
+          return;
+        }
+        Rendering.markdown(renderPool, row.getString(1), render -> {
+          if (render.succeeded()) {
+            response.put("html", render.result());
+            backfillHtml(row.getInteger(0), render.result());
+            resultHandler.handle(Future.succeededFuture(response));
+          } else {
+            LOGGER.error("Markdown rendering error", render.cause());
+            resultHandler.handle(Future.failedFuture(render.cause()));
+          }
+        });
+      } else {
+        LOGGER.error("Database query error", fetch.cause());
+        resultHandler.handle(Future.failedFuture(fetch.cause()));
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public WikiService fetchPageVersion(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+    readClient.queryWithParams(SQL_GET_PAGE_VERSION, new JsonArray().add(name), fetch -> {
       if (fetch.succeeded()) {
         JsonObject response = new JsonObject();
         ResultSet resultSet = fetch.result();
@@ -81,7 +381,8 @@ public class WikiServiceImpl implements WikiService {
           response.put("found", true);
           JsonArray row = resultSet.getResults().get(0);
           response.put("id", row.getInteger(0));
-          response.put("rawContent", row.getString(1));
+          response.put("version", row.getInteger(1));
+          response.put("updatedAt", row.getLong(2));
         }
         resultHandler.handle(Future.succeededFuture(response));
       } else {
@@ -94,8 +395,166 @@ public class WikiServiceImpl implements WikiService {
 
   @Override
   public WikiService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
-    JsonArray params = new JsonArray().add(title).add(markdown);
-    jdbcClient.updateWithParams(SQL_CREATE_PAGE, params, res -> {
+    Rendering.markdown(renderPool, markdown, render -> {
+      if (render.failed()) {
+        LOGGER.error("Markdown rendering error", render.cause());
+        resultHandler.handle(Future.failedFuture(render.cause()));
+        return;
+      }
+      JsonArray params = new JsonArray().add(title).add(markdown).add(render.result());
+      dbClient.updateWithParams(SQL_CREATE_PAGE, params, res -> {
+        if (res.succeeded()) {
+          publishChange(new JsonObject().put("name", title).put("version", 1));
+          resultHandler.handle(Future.succeededFuture());
+        } else {
+          LOGGER.error("Database query error", res.cause());
+          resultHandler.handle(Future.failedFuture(res.cause()));
+        }
+      });
+    });
+    return this;
+  }
+
+  @Override
+  public WikiService savePage(int id, String markdown, int baseVersion, Handler<AsyncResult<Void>> resultHandler) {
+    String content = markdown == null ? "" : markdown;
+    Rendering.markdown(renderPool, content, render -> {
+      if (render.failed()) {
+        LOGGER.error("Markdown rendering error", render.cause());
+        resultHandler.handle(Future.failedFuture(render.cause()));
+        return;
+      }
+      JsonArray lockParams = new JsonArray().add(id);
+      this.<JsonObject>inTransaction((conn, done) -> conn.queryWithParams(SQL_LOCK_PAGE, lockParams, lock -> {
+        if (lock.failed()) {
+          done.handle(Future.failedFuture(lock.cause()));
+          return;
+        }
+        if (lock.result().getNumRows() == 0) {
+          done.handle(ServiceException.fail(ErrorCodes.PAGE_NOT_FOUND.ordinal(), "Page " + id + " does not exist"));
+          return;
+        }
+        JsonArray row = lock.result().getResults().get(0);
+        String previous = row.getString(0) == null ? "" : row.getString(0);
+        int version = row.getInteger(1);
+        if (baseVersion >= 0 && baseVersion != version) {
+          done.handle(ServiceException.fail(ErrorCodes.STALE_VERSION.ordinal(),
+              "Page " + id + " was saved as version " + version + " since version " + baseVersion));
+          return;
+        }
+
+        List<Statement> statements = new ArrayList<>();
+        int snapshotRevision;
+        if (row.getInteger(2) == null) {
+          // the page predates revisions: its current content becomes the first one
+          statements.add(revision(id, version, new Delta(0, 0, previous), true));
+          snapshotRevision = version;
+        } else {
+          snapshotRevision = row.getInteger(2);
+        }
+        int next = version + 1;
+        if (next - snapshotRevision >= SNAPSHOT_INTERVAL) {
+          statements.add(revision(id, next, new Delta(0, 0, content), true));
+          snapshotRevision = next;
+        } else {
+          statements.add(revision(id, next, Delta.between(previous, content), false));
+        }
+        statements.add(new Statement(SQL_SAVE_PAGE,
+            new JsonArray().add(content).add(render.result()).add(next).add(snapshotRevision).add(id)));
+        statements.add(new Statement(SQL_RELINK_PAGE, lockParams));
+        JsonObject change = new JsonObject().put("id", id).put("name", row.getString(3)).put("version", next);
+        updateAll(conn, statements.iterator(), 0, written -> done.handle(written.map(change)));
+      }), res -> {
+        if (res.succeeded()) {
+          publishChange(res.result());
+          resultHandler.handle(Future.succeededFuture());
+        } else {
+          if (!(res.cause() instanceof ServiceException)) {
+            LOGGER.error("Database query error", res.cause());
+          }
+          resultHandler.handle(Future.failedFuture(res.cause()));
+        }
+      });
+    });
+    return this;
+  }
+
+  @Override
+  public WikiService fetchRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    JsonArray params = new JsonArray().add(name).add(revision).add(revision);
+    readClient.queryWithParams(SQL_GET_REVISION_CHAIN, params, fetch -> {
+      if (fetch.succeeded()) {
+        List<JsonArray> chain = fetch.result().getResults();
+        JsonObject response = new JsonObject();
+        if (chain.isEmpty() || chain.get(chain.size() - 1).getInteger(0) != revision) {
+          resultHandler.handle(Future.succeededFuture(response.put("found", false)));
+          return;
+        }
+        String markdown = chain.get(0).getString(4);
+        for (JsonArray delta : chain.subList(1, chain.size())) {
+          markdown = new Delta(delta.getInteger(2), delta.getInteger(3), delta.getString(4)).applyTo(markdown);
+        }
+        JsonArray last = chain.get(chain.size() - 1);
+        response.put("found", true)
+            .put("revision", revision)
+            .put("markdown", markdown)
+            .put("createdAt", last.getLong(5));
+        resultHandler.handle(Future.succeededFuture(response));
+      } else {
+        LOGGER.error("Database query error", fetch.cause());
+        resultHandler.handle(Future.failedFuture(fetch.cause()));
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public WikiService listRevisions(String name, int before, int limit,
+                                   Handler<AsyncResult<JsonObject>> resultHandler) {
+    int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_LIMIT));
+    Handler<AsyncResult<ResultSet>> handler = res -> {
+      if (res.succeeded()) {
+        List<JsonArray> rows = res.result().getResults();
+        JsonArray revisions = new JsonArray();
+        rows.stream().limit(pageSize).forEach(row -> revisions.add(new JsonObject()
+            .put("revision", row.getInteger(0))
+            .put("createdAt", row.getLong(1))));
+        JsonObject response = new JsonObject().put("revisions", revisions);
+        if (rows.size() > pageSize) {
+          response.put("next", revisions.getJsonObject(pageSize - 1).getInteger("revision"));
+        }
+        resultHandler.handle(Future.succeededFuture(response));
+      } else {
+        LOGGER.error("Database query error", res.cause());
+        resultHandler.handle(Future.failedFuture(res.cause()));
+      }
+    };
+    if (before > 0) {
+      readClient.queryWithParams(SQL_LIST_REVISIONS_BEFORE, new JsonArray().add(name).add(before).add(pageSize + 1),
+          handler);
+    } else {
+      readClient.queryWithParams(SQL_LIST_REVISIONS, new JsonArray().add(name).add(pageSize + 1), handler);
+    }
+    return this;
+  }
+
+  @Override
+  public WikiService createPages(JsonArray pages, Handler<AsyncResult<JsonObject>> resultHandler) {
+    writePages(pages, SQL_CREATE_PAGES_CONFLICT, "created", resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiService savePages(JsonArray pages, Handler<AsyncResult<JsonObject>> resultHandler) {
+    writePages(pages, SQL_SAVE_PAGES_CONFLICT, "saved", resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiService appendUpload(String uploadId, int sequence, String chunk,
+                                  Handler<AsyncResult<Void>> resultHandler) {
+    JsonArray params = new JsonArray().add(uploadId).add(sequence).add(chunk == null ? "" : chunk);
+    dbClient.updateWithParams(SQL_APPEND_UPLOAD, params, res -> {
       if (res.succeeded()) {
         resultHandler.handle(Future.succeededFuture());
       } else {
@@ -106,10 +565,32 @@ public class WikiServiceImpl implements WikiService {
     return this;
   }
 
+  /**
+   * The pieces are put back together by Postgres; the whole page only comes through here once, to be rendered.
+   */
+  @Override
+  public WikiService commitUpload(String uploadId, String name, int baseVersion,
+                                  Handler<AsyncResult<Void>> resultHandler) {
+    dbClient.queryWithParams(SQL_GET_UPLOAD, new JsonArray().add(name).add(uploadId), fetch -> {
+      if (fetch.failed()) {
+        LOGGER.error("Database query error", fetch.cause());
+        discardUpload(uploadId, discarded -> resultHandler.handle(Future.failedFuture(fetch.cause())));
+        return;
+      }
+      JsonArray row = fetch.result().getResults().get(0);
+      Handler<AsyncResult<Void>> saved = save -> discardUpload(uploadId, discarded -> resultHandler.handle(save));
+      if (row.getInteger(0) == null) {
+        createPage(name, row.getString(1), saved);
+      } else {
+        savePage(row.getInteger(0), row.getString(1), baseVersion, saved);
+      }
+    });
+    return this;
+  }
+
   @Override
-  public WikiService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
-    JsonArray params = new JsonArray().add(markdown).add(id);
-    jdbcClient.updateWithParams(SQL_SAVE_PAGE, params, res -> {
+  public WikiService discardUpload(String uploadId, Handler<AsyncResult<Void>> resultHandler) {
+    dbClient.updateWithParams(SQL_DISCARD_UPLOAD, new JsonArray().add(uploadId), res -> {
       if (res.succeeded()) {
         resultHandler.handle(Future.succeededFuture());
       } else {
@@ -120,11 +601,38 @@ public class WikiServiceImpl implements WikiService {
     return this;
   }
 
+  @Override
+  public WikiService searchPages(String query, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    if (query == null || query.trim().isEmpty()) {
+      resultHandler.handle(Future.succeededFuture(new JsonArray()));
+      return this;
+    }
+    JsonArray params = new JsonArray()
+        .add(HEADLINE_OPTIONS)
+        .add(query)
+        .add(Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT)));
+    readClient.queryWithParams(SQL_SEARCH_PAGES, params, res -> {
+      if (res.succeeded()) {
+        JsonArray results = new JsonArray();
+        res.result().getResults().forEach(row -> results.add(new JsonObject()
+            .put("name", row.getString(0))
+            .put("rank", row.getDouble(1))
+            .put("snippet", highlight(row.getString(2)))));
+        resultHandler.handle(Future.succeededFuture(results));
+      } else {
+        LOGGER.error("Database query error", res.cause());
+        resultHandler.handle(Future.failedFuture(res.cause()));
+      }
+    });
+    return this;
+  }
+
   @Override
   public WikiService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
     JsonArray params = new JsonArray().add(id);
-    jdbcClient.updateWithParams(SQL_DELETE_PAGE, params, res -> {
+    dbClient.updateWithParams(SQL_DELETE_PAGE, params, res -> {
       if (res.succeeded()) {
+        publishChange(new JsonObject().put("id", id));
         resultHandler.handle(Future.succeededFuture());
       } else {
         LOGGER.error("Database query error", res.cause());
@@ -133,4 +641,233 @@ public class WikiServiceImpl implements WikiService {
     });
     return this;
   }
+
+  @Override
+  public WikiService fetchBacklinks(String name, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    JsonArray params = new JsonArray().add(name).add(Math.max(1, Math.min(limit, MAX_PAGE_LIMIT)));
+    readClient.queryWithParams(SQL_BACKLINKS, params, res -> {
+      if (res.succeeded()) {
+        JsonArray pages = new JsonArray(res.result()
+            .getResults().stream()
+            .map(json -> json.getString(0))
+            .collect(Collectors.toList()));
+        resultHandler.handle(Future.succeededFuture(pages));
+      } else {
+        LOGGER.error("Database query error", res.cause());
+        resultHandler.handle(Future.failedFuture(res.cause()));
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public WikiService fetchLinkReport(int limit, Handler<AsyncResult<JsonObject>> resultHandler) {
+    JsonArray params = new JsonArray().add(Math.max(1, Math.min(limit, MAX_PAGE_LIMIT)));
+    readClient.queryWithParams(SQL_BROKEN_LINKS, params, broken -> {
+      if (broken.failed()) {
+        LOGGER.error("Database query error", broken.cause());
+        resultHandler.handle(Future.failedFuture(broken.cause()));
+        return;
+      }
+      readClient.queryWithParams(SQL_ORPHAN_PAGES, params, orphans -> {
+        if (orphans.succeeded()) {
+          JsonArray links = new JsonArray();
+          broken.result().getResults().forEach(row -> links.add(new JsonObject()
+              .put("from", row.getString(0))
+              .put("to", row.getString(1))));
+          JsonArray names = new JsonArray();
+          orphans.result().getResults().forEach(row -> names.add(row.getString(0)));
+          resultHandler.handle(Future.succeededFuture(new JsonObject().put("broken", links).put("orphans", names)));
+        } else {
+          LOGGER.error("Database query error", orphans.cause());
+          resultHandler.handle(Future.failedFuture(orphans.cause()));
+        }
+      });
+    });
+    return this;
+  }
+
+  /**
+   * Renders the whole batch in one worker task, then writes it with multi-row INSERT statements: a single
+   * statement for batches that fit in one, otherwise one per chunk inside a transaction.
+   */
+  private void writePages(JsonArray pages, String onConflict, String countKey,
+                          Handler<AsyncResult<JsonObject>> resultHandler) {
+    // ON CONFLICT may not touch the same row twice within one statement
+    Map<String, String> markdownByName = new LinkedHashMap<>();
+    for (int i = 0; i < pages.size(); i++) {
+      JsonObject page = pages.getJsonObject(i);
+      String name = page.getString("name");
+      if (name == null || name.isEmpty()) {
+        resultHandler.handle(Future.failedFuture(new IllegalArgumentException("Page " + i + " has no name")));
+        return;
+      }
+      markdownByName.put(name, page.getString("markdown"));
+    }
+    if (markdownByName.isEmpty()) {
+      resultHandler.handle(Future.succeededFuture(new JsonObject().put(countKey, 0)));
+      return;
+    }
+
+    long weight = 0;
+    for (String markdown : markdownByName.values()) {
+      weight += markdown == null ? 0 : markdown.length();
+    }
+    renderPool.<List<JsonArray>>execute(weight, () -> {
+      List<JsonArray> chunks = new ArrayList<>();
+      JsonArray params = new JsonArray();
+      for (Map.Entry<String, String> page : markdownByName.entrySet()) {
+        String markdown = page.getValue() == null ? "" : page.getValue();
+        params.add(page.getKey()).add(markdown).add(Processor.process(markdown));
+        if (params.size() == MAX_ROWS_PER_STATEMENT * 3) {
+          chunks.add(params);
+          params = new JsonArray();
+        }
+      }
+      if (!params.isEmpty()) {
+        chunks.add(params);
+      }
+      return chunks;
+    }, render -> {
+      if (render.failed()) {
+        LOGGER.error("Markdown rendering error", render.cause());
+        resultHandler.handle(Future.failedFuture(Rendering.busyOr(render.cause())));
+        return;
+      }
+      Handler<AsyncResult<Integer>> written = res -> {
+        if (res.succeeded()) {
+          publishChange(new JsonObject().put("names", new JsonArray(new ArrayList<>(markdownByName.keySet()))));
+          resultHandler.handle(Future.succeededFuture(new JsonObject().put(countKey, res.result())));
+        } else {
+          LOGGER.error("Database query error", res.cause());
+          resultHandler.handle(Future.failedFuture(res.cause()));
+        }
+      };
+      List<Statement> statements = render.result().stream()
+          .map(params -> new Statement(insertPages(params, onConflict), params))
+          .collect(Collectors.toList());
+      if (statements.size() == 1) {
+        dbClient.updateWithParams(statements.get(0).sql, statements.get(0).params,
+            res -> written.handle(res.map(UpdateResult::getUpdated)));
+      } else {
+        inTransaction((conn, done) -> updateAll(conn, statements.iterator(), 0, done), written);
+      }
+    });
+  }
+
+  private static String insertPages(JsonArray params, String onConflict) {
+    return SQL_INSERT_PAGES + String.join(", ", Collections.nCopies(params.size() / 3, SQL_INSERT_PAGES_ROW)) +
+        onConflict + SQL_INSERT_SNAPSHOTS;
+  }
+
+  private static Statement revision(int pageId, int revision, Delta delta, boolean snapshot) {
+    return new Statement(SQL_INSERT_REVISION, new JsonArray()
+        .add(pageId).add(revision).add(snapshot).add(delta.prefix).add(delta.suffix).add(delta.text));
+  }
+
+  private void updateAll(SQLConnection conn, Iterator<Statement> statements, int updated,
+                         Handler<AsyncResult<Integer>> handler) {
+    if (!statements.hasNext()) {
+      handler.handle(Future.succeededFuture(updated));
+      return;
+    }
+    Statement statement = statements.next();
+    conn.updateWithParams(statement.sql, statement.params, res -> {
+      if (res.succeeded()) {
+        updateAll(conn, statements, updated + res.result().getUpdated(), handler);
+      } else {
+        handler.handle(Future.failedFuture(res.cause()));
+      }
+    });
+  }
+
+  /**
+   * Runs {@code work} on one connection with auto-commit off, committing if it succeeds and rolling back
+   * otherwise, and always returning the connection to the pool.
+   */
+  private <T> void inTransaction(BiConsumer<SQLConnection, Handler<AsyncResult<T>>> work,
+                                 Handler<AsyncResult<T>> handler) {
+    dbClient.getConnection(ar -> {
+      if (ar.failed()) {
+        handler.handle(Future.failedFuture(ar.cause()));
+        return;
+      }
+      SQLConnection conn = ar.result();
+      conn.setAutoCommit(false, begin -> {
+        if (begin.failed()) {
+          conn.close();
+          handler.handle(Future.failedFuture(begin.cause()));
+          return;
+        }
+        work.accept(conn, result -> {
+          if (result.succeeded()) {
+            conn.commit(commit -> {
+              conn.close();
+              handler.handle(commit.succeeded() ? result : Future.failedFuture(commit.cause()));
+            });
+          } else {
+            conn.rollback(rollback -> {
+              conn.close();
+              handler.handle(result);
+            });
+          }
+        });
+      });
+    });
+  }
+
+  private void queryAfter(String firstPageSql, String nextPageSql, String after, int limit,
+                          Handler<AsyncResult<ResultSet>> handler) {
+    if (after == null || after.isEmpty()) {
+      readClient.queryWithParams(firstPageSql, new JsonArray().add(limit), handler);
+    } else {
+      readClient.queryWithParams(nextPageSql, new JsonArray().add(after).add(limit), handler);
+    }
+  }
+
+  private static String highlight(String headline) {
+    return headline
+        .replace("&", "&amp;")
+        .replace("<", "&lt;")
+        .replace(">", "&gt;")
+        .replace("\"", "&quot;")
+        .replace(HIGHLIGHT_START, "<mark>")
+        .replace(HIGHLIGHT_STOP, "</mark>");
+  }
+
+  private void backfillHtml(int id, String html) {
+    dbClient.updateWithParams(SQL_BACKFILL_HTML, new JsonArray().add(html).add(id), res -> {
+      if (res.failed()) {
+        LOGGER.warn("Could not backfill rendered page " + id, res.cause());
+      }
+    });
+  }
+
+  private void executeAll(SQLConnection conn, Iterator<String> statements, Handler<AsyncResult<Void>> handler) {
+    if (!statements.hasNext()) {
+      handler.handle(Future.succeededFuture());
+      return;
+    }
+    conn.execute(statements.next(), res -> {
+      if (res.succeeded()) {
+        executeAll(conn, statements, handler);
+      } else {
+        handler.handle(res);
+      }
+    });
+  }
+
+  private void publishChange(JsonObject change) {
+    vertx.eventBus().publish(WIKIDB_PAGES_CHANGED, change);
+  }
+
+  private static final class Statement {
+    final String sql;
+    final JsonArray params;
+
+    Statement(String sql, JsonArray params) {
+      this.sql = sql;
+      this.params = params;
+    }
+  }
 }
@@ -0,0 +1,69 @@
+package id.caltic.labs.wiki.http;
+
+import io.vertx.core.http.HttpServerRequest;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+final class ConditionalRequests {
+
+  private ConditionalRequests() {
+  }
+
+  /**
+   * The rendered page also depends on whether the viewer may delete it, so that flag is part of the tag. The tag is
+   * weak: the server compresses responses, and the gzip and identity bodies of a version are not byte for byte equal.
+   */
+  static String etag(int id, long version, boolean canDelete) {
+    return "W/\"" + id + "-" + version + (canDelete ? "-d" : "") + "\"";
+  }
+
+  static String httpDate(long epochMillis) {
+    return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+        ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC));
+  }
+
+  static boolean isConditional(HttpServerRequest request) {
+    return request.getHeader("If-None-Match") != null || request.getHeader("If-Modified-Since") != null;
+  }
+
+  static boolean isNotModified(HttpServerRequest request, String etag, long lastModified) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      return matches(ifNoneMatch, etag);
+    }
+
+    String ifModifiedSince = request.getHeader("If-Modified-Since");
+    if (ifModifiedSince != null) {
+      try {
+        long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+            .toInstant().toEpochMilli();
+        return lastModified / 1000 <= since / 1000;
+      } catch (DateTimeParseException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The weak comparison RFC 7232 asks of If-None-Match, so that a tag a proxy weakened when compressing still matches.
+   */
+  static boolean matches(String ifNoneMatch, String etag) {
+    String opaque = opaque(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      if (tag.equals("*") || opaque(tag).equals(opaque)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String opaque(String tag) {
+    return tag.startsWith("W/") ? tag.substring(2) : tag;
+  }
+}
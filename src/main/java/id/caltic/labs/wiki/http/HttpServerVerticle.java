@@ -1,39 +1,82 @@
 package id.caltic.labs.wiki.http;
 
 import com.github.rjeschke.txtmark.Processor;
+import id.caltic.labs.wiki.auth.CachingAuthProvider;
+import id.caltic.labs.wiki.database.ErrorCodes;
+import id.caltic.labs.wiki.database.ServiceStats;
 import id.caltic.labs.wiki.database.WikiService;
+import id.caltic.labs.wiki.database.impl.CoalescingWikiService;
+import id.caltic.labs.wiki.database.impl.PoolWarmer;
+import id.caltic.labs.wiki.metrics.EventLoopProbe;
+import id.caltic.labs.wiki.metrics.MeteredSQLClient;
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import id.caltic.labs.wiki.metrics.TimedProxy;
+import id.caltic.labs.wiki.render.RenderPool;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.auth.User;
-import io.vertx.ext.auth.jdbc.JDBCAuth;
 import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.Session;
 import io.vertx.ext.web.handler.*;
-import io.vertx.ext.web.sstore.LocalSessionStore;
-import io.vertx.ext.web.templ.FreeMarkerTemplateEngine;
+import io.vertx.serviceproxy.ServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class HttpServerVerticle extends AbstractVerticle {
   private static final Logger LOGGER = LoggerFactory.getLogger(HttpServerVerticle.class);
 
   private static final String WIKIDB_QUEUE = "wikidb.queue";
+  private static final String WIKIDB_PRIMARY_QUEUE = "wikidb.queue.primary";
+  private static final String WIKIDB_PAGES_CHANGED = "wikidb.pages.changed";
   private static final String EMPTY_PAGE_MARKDOWN = "# A new page\n\nFeel-free to write in Markdown!\n";
-
-  private static final String AUTHENTICATE_QUERY = "SELECT password, password_salt FROM \"user\" WHERE username = ?";
-
-  private final FreeMarkerTemplateEngine templateEngine = FreeMarkerTemplateEngine.create();
-  private JDBCAuth auth;
+  private static final PageCache.Entry NEW_PAGE = new PageCache.Entry(-1, 0, 0,
+      EMPTY_PAGE_MARKDOWN, Processor.process(EMPTY_PAGE_MARKDOWN));
+
+  private static final int EXPORT_BATCH_SIZE = 500;
+  private static final int IMPORT_BATCH_SIZE = 500;
+  private static final int SEARCH_LIMIT = 20;
+  private static final int REVISION_PAGE_SIZE = 100;
+  private static final int BACKLINKS_LIMIT = 1000;
+  private static final int LINK_REPORT_LIMIT = 1000;
+  private static final String RETRY_AFTER_SECONDS = "1";
+  private static final long LOGIN_BODY_LIMIT = 16384;
+  private static final long FORM_OVERHEAD_BYTES = 65536;
+  private static final int UPLOAD_CHUNK_BYTES = 262144;
+  private static final String WROTE_AT = "wroteAt";
+  private static final String AUTH_POOL = "auth";
+  private static final long READY_POLL_MILLIS = 250;
+
+  private MetricsRegistry metrics;
+  private RenderPool renderPool;
+  private Templates templates;
+  private CachingAuthProvider auth;
   private WikiService wikiService;
+  private WikiService primaryWikiService;
+  private PageCache pageCache;
+  private int indexPageSize;
+  private long maxPageBytes;
+  private long readYourWritesWindow;
+  private boolean ready;
 
   @Override
   public void start(Future<Void> startFuture) throws Exception {
@@ -45,38 +88,146 @@ public class HttpServerVerticle extends AbstractVerticle {
         .orElse("jdbc:postgresql://localhost:5432/caltic_wiki");
     Integer dbPoolAuth = Integer.valueOf(Optional.ofNullable(System.getenv("DATABASE_POOL_AUTH"))
         .orElse("3"));
+    long authCacheTtl = Long.valueOf(Optional.ofNullable(System.getenv("AUTH_CACHE_TTL"))
+        .orElse("300000"));
+    String sessionStore = Optional.ofNullable(System.getenv("SESSION_STORE"))
+        .orElse("local");
+    long sessionTimeout = Long.valueOf(Optional.ofNullable(System.getenv("SESSION_TIMEOUT"))
+        .orElse(String.valueOf(SessionHandler.DEFAULT_SESSION_TIMEOUT)));
     int port = Integer.valueOf(Optional.ofNullable(System.getenv("PORT"))
         .orElse("9000"));
+    long pageCacheMaxBytes = Long.valueOf(Optional.ofNullable(System.getenv("PAGE_CACHE_MAX_BYTES"))
+        .orElse("16777216"));
+    indexPageSize = Integer.valueOf(Optional.ofNullable(System.getenv("INDEX_PAGE_SIZE"))
+        .orElse("100"));
+    String coalesceReads = Optional.ofNullable(System.getenv("COALESCE_READS"))
+        .orElse("http");
+    maxPageBytes = Long.valueOf(Optional.ofNullable(System.getenv("MAX_PAGE_BYTES"))
+        .orElse("16777216"));
+    readYourWritesWindow = Long.valueOf(Optional.ofNullable(System.getenv("READ_YOUR_WRITES_WINDOW"))
+        .orElse("10000"));
+    String loginLimit = Optional.ofNullable(System.getenv("RATE_LIMIT_LOGIN"))
+        .orElse("10/60");
+    String readLimit = Optional.ofNullable(System.getenv("RATE_LIMIT_READ"))
+        .orElse("600/60");
+    String writeLimit = Optional.ofNullable(System.getenv("RATE_LIMIT_WRITE"))
+        .orElse("60/60");
+    int dbPool = Integer.valueOf(Optional.ofNullable(System.getenv("DATABASE_POOL"))
+        .orElse("10"));
+    int maxInFlight = Integer.valueOf(Optional.ofNullable(System.getenv("MAX_IN_FLIGHT"))
+        .orElse(String.valueOf(8 * dbPool)));
+    String backend = Optional.ofNullable(System.getenv("WIKIDB_BACKEND"))
+        .orElse("async");
+    String embeddedAccounts = Optional.ofNullable(System.getenv("WIKIDB_EMBEDDED_ACCOUNTS"))
+        .orElse("accounts/embedded.json");
+    // empty to answer scrapes from this host only
+    String metricsToken = Optional.ofNullable(System.getenv("METRICS_TOKEN"))
+        .orElse("");
+
+    metrics = MetricsRegistry.get(vertx);
+    EventLoopProbe.start(vertx, metrics);
+    renderPool = RenderPool.create(vertx);
+    templates = Templates.load();
+    List<WikiService> coalescing = new ArrayList<>();
+    wikiService = wikiService(WIKIDB_QUEUE, "http", !"none".equals(coalesceReads), coalescing);
+    primaryWikiService = wikiService(WIKIDB_PRIMARY_QUEUE, "http-primary", !"none".equals(coalesceReads), coalescing);
+    pageCache = new PageCache(pageCacheMaxBytes);
+    vertx.eventBus().<JsonObject>consumer(WIKIDB_PAGES_CHANGED, message -> {
+      coalescing.forEach(CoalescingWikiService::detach);
+      pageCache.invalidate(message.body());
+    });
+    HttpServer server = vertx.createHttpServer(new HttpServerOptions()
+        .setCompressionSupported(true));
 
-    wikiService = WikiService.createProxy(vertx, WIKIDB_QUEUE);
-    HttpServer server = vertx.createHttpServer();
-
-    JDBCClient client = JDBCClient.createShared(vertx, new JsonObject()
-        .put("url", connUri)
-        .put("driver_class", "org.postgresql.Driver")
-        .put("user", dbUser)
-        .put("password", dbPwd)
-        .put("max_pool_size", dbPoolAuth));
-
-    auth = JDBCAuth.create(vertx, client)
-        .setAuthenticationQuery(AUTHENTICATE_QUERY);
+    if ("embedded".equals(backend)) {
+      // no Postgres at all: accounts come from a file
+      awaitReadiness(null, 0);
+      auth = CachingAuthProvider.getEmbedded(vertx, embeddedAccounts, authCacheTtl);
+    } else {
+      // a data source of its own, one shared with the database verticle would take whichever pool size came first
+      JDBCClient client = MeteredSQLClient.wrap(JDBCClient.class, JDBCClient.createShared(vertx, new JsonObject()
+          .put("url", connUri)
+          .put("driver_class", "org.postgresql.Driver")
+          .put("user", dbUser)
+          .put("password", dbPwd)
+          .put("max_pool_size", dbPoolAuth), AUTH_POOL), metrics, AUTH_POOL, dbPoolAuth);
+      awaitReadiness(client, dbPoolAuth);
+      auth = CachingAuthProvider.get(vertx, client, authCacheTtl);
+    }
     Router router = Router.router(vertx);
 
+    router.route().handler(new RouteMetricsHandler(metrics));
+    // scrapes are answered before the session handlers so that they don't create a session each time
+    router.get("/metrics").handler(new MetricsAccess(metricsToken));
+    router.get("/metrics").handler(this::metricsHandler);
+    router.get("/health/live").handler(context -> context.response().end());
+    router.get("/health/ready").handler(context -> context.response().setStatusCode(ready ? 200 : 503).end());
+    // requests arriving before the database is reachable are turned away rather than left to fail
+    router.route().handler(context -> {
+      if (ready) {
+        context.next();
+      } else {
+        respondBusy(context);
+      }
+    });
     router.route().handler(CookieHandler.create());
-    router.route().handler(BodyHandler.create());
-    router.route().handler(SessionHandler.create(LocalSessionStore.create(vertx)));
+    // checking a password is costly and open to anyone: limit attempts per address before reading the form
+    InFlightLimit inFlightLimit = new InFlightLimit(metrics, maxInFlight, this::respondBusy);
+    router.post("/login").handler(RateLimiter.get(vertx, "login", loginLimit, metrics));
+    router.post("/login").handler(inFlightLimit);
+    router.post("/login").handler(BodyHandler.create().setBodyLimit(LOGIN_BODY_LIMIT));
+    // percent-encoding can triple the size of the markdown posted by the edit form
+    router.post("/action/*").handler(BodyHandler.create().setBodyLimit(3 * maxPageBytes + FORM_OVERHEAD_BYTES));
+    // imports and uploads are streamed rather than buffered; hold the body back until their handler reads it
+    Handler<RoutingContext> holdBody = context -> {
+      context.request().pause();
+      context.addBodyEndHandler(v -> context.request().resume());
+      context.next();
+    };
+    router.post("/import/*").handler(holdBody);
+    router.put("/wiki/:page/source").handler(holdBody);
+    router.route().handler(SessionHandler.create(SessionStores.create(vertx, sessionStore))
+        .setSessionTimeout(sessionTimeout));
     router.route().handler(UserSessionHandler.create(auth));
 
     AuthHandler authHandler = RedirectAuthHandler.create(auth, "/login");
     router.route("/").handler(authHandler);
     router.route("/wiki/*").handler(authHandler);
     router.route("/action/*").handler(authHandler);
+    router.route("/search").handler(authHandler);
+    router.route("/stats/*").handler(authHandler);
+    router.route("/export/*").handler(authHandler);
+    router.route("/import/*").handler(authHandler);
+
+    // limits apply per user once logged in; the in-flight cap then guards the database
+    RateLimiter reads = RateLimiter.get(vertx, "read", readLimit, metrics);
+    RateLimiter writes = RateLimiter.get(vertx, "write", writeLimit, metrics);
+    for (String path : Arrays.asList("/", "/wiki/*", "/search", "/stats/*", "/export/*")) {
+      router.get(path).handler(reads);
+      router.get(path).handler(inFlightLimit);
+    }
+    for (String path : Arrays.asList("/action/*", "/import/*")) {
+      router.post(path).handler(writes);
+      router.post(path).handler(inFlightLimit);
+    }
+    router.put("/wiki/:page/source").handler(writes);
+    router.put("/wiki/:page/source").handler(inFlightLimit);
 
     router.get("/").handler(this::indexHandler);
     router.get("/wiki/:page").handler(this::pageRenderingHandler);
+    router.get("/wiki/:page/revisions").handler(this::revisionListHandler);
+    router.get("/wiki/:page/backlinks").handler(this::backlinksHandler);
+    router.get("/wiki/:page/revisions/:revision").handler(this::revisionHandler);
+    router.put("/wiki/:page/source").handler(this::pageUploadHandler);
     router.post("/action/save").handler(this::pageUpdateHandler);
     router.post("/action/create").handler(this::pageCreateHandler);
     router.post("/action/delete").handler(this::pageDeletionHandler);
+    router.get("/search").handler(this::searchHandler);
+    router.get("/export/pages").handler(this::pageExportHandler);
+    router.post("/import/pages").handler(this::pageImportHandler);
+    router.get("/stats/cache").handler(this::cacheStatsHandler);
+    router.get("/stats/db").handler(this::databaseStatsHandler);
+    router.get("/stats/links").handler(this::linkReportHandler);
 
     router.get("/login").handler(this::loginHandler);
     router.post("/login").handler(this::postLoginHander);
@@ -101,7 +252,7 @@ public class HttpServerVerticle extends AbstractVerticle {
   }
 
   private void postLoginHander(RoutingContext context) {
-    LOGGER.info("postLoginHander");
+    LOGGER.debug("postLoginHander");
     String username = context.request().formAttributes().get("username");
     String password = context.request().formAttributes().get("password");
     String returnUrl = context.request().formAttributes().get("return_url");
@@ -121,14 +272,14 @@ public class HttpServerVerticle extends AbstractVerticle {
           context.response().end();
         }
       } else {
-        LOGGER.info("Unauthorized: " + res.cause());
+        LOGGER.debug("Unauthorized: {}", res.cause().getMessage());
         context.fail(403);
       }
     });
   }
 
   private void loginHandler(RoutingContext context) {
-    LOGGER.info("loginHandler");
+    LOGGER.debug("loginHandler");
     boolean notLogged = context.user() == null;
     context.put("title", notLogged ? "Login" : "Logged");
     context.put("notLogged", notLogged);
@@ -136,128 +287,606 @@ public class HttpServerVerticle extends AbstractVerticle {
       context.put("notif", "Hello you're already logged!");
       context.put("username", context.user().principal().getString("username"));
     }
-    templateEngine.render(context, "templates", "/login.ftl", ar -> {
+    if (beginPage(context)) {
+      endPage(context, "login.ftl", 0);
+    }
+  }
+
+  /**
+   * The server listens right away; it reports ready once the database answered through the event bus and the
+   * authentication pool has opened its connections. {@code authClient} is null when accounts don't come from the
+   * database.
+   */
+  private void awaitReadiness(JDBCClient authClient, int authConnections) {
+    long start = System.nanoTime();
+    Future<Void> authWarmed = Future.future();
+    if (authClient == null) {
+      authWarmed.complete();
+    } else {
+      PoolWarmer.warm(vertx, AUTH_POOL, authClient, authConnections, ar -> {
+        if (ar.failed()) {
+          LOGGER.warn("Could not warm up pool " + AUTH_POOL, ar.cause());
+        }
+        authWarmed.complete();
+      });
+    }
+    Future<Void> databaseReached = Future.future();
+    awaitDatabase(databaseReached);
+    CompositeFuture.all(authWarmed, databaseReached).setHandler(ar -> {
+      ready = true;
+      LOGGER.info("Ready after {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    });
+  }
+
+  private void awaitDatabase(Future<Void> reached) {
+    wikiService.ping(ar -> {
       if (ar.succeeded()) {
-        context.response().putHeader("Content-Type", "text/html");
-        context.response().end(ar.result());
+        reached.complete();
       } else {
-        context.fail(ar.cause());
+        LOGGER.debug("Database not reachable yet: {}", ar.cause().getMessage());
+        vertx.setTimer(READY_POLL_MILLIS, id -> awaitDatabase(reached));
       }
     });
   }
 
+  private WikiService wikiService(String address, String side, boolean coalesceReads, List<WikiService> coalescing) {
+    WikiService service = WikiService.createProxy(vertx, address);
+    if (coalesceReads) {
+      service = CoalescingWikiService.wrap(service, metrics, side);
+      coalescing.add(service);
+    }
+    return TimedProxy.wrap(WikiService.class, service, metrics,
+        "wikiservice_client_seconds", "WikiService calls as seen by the caller, including event-bus transit");
+  }
+
+  /**
+   * Reads may be served by a replica, except for a while after the session saved something: it then reads from the
+   * primary, so that it sees its own changes even though replicas haven't caught up yet.
+   */
+  private WikiService reads(RoutingContext context) {
+    Session session = context.session();
+    Long wroteAt = session == null ? null : session.get(WROTE_AT);
+    if (wroteAt != null && System.currentTimeMillis() - wroteAt < readYourWritesWindow) {
+      return primaryWikiService;
+    }
+    return wikiService;
+  }
+
+  private static void wrote(RoutingContext context) {
+    if (context.session() != null) {
+      context.session().put(WROTE_AT, System.currentTimeMillis());
+    }
+  }
+
   private void indexHandler(RoutingContext context) {
-    LOGGER.info("indexHandler");
+    LOGGER.debug("indexHandler");
+    String after = context.request().getParam("after");
     context.user().isAuthorized("create", res -> {
       boolean canCreatePage = res.succeeded() && res.result();
 
-      wikiService.fetchAllPages(reply -> {
+      context.put("title", "Wiki Home");
+      if (!beginPage(context)) {
+        return;
+      }
+      reads(context).fetchPageNames(after, indexPageSize, reply -> {
         if (reply.succeeded()) {
-          context.put("title", "Wiki Home");
-          context.put("pages", reply.result().getList());
+          JsonArray pages = reply.result().getJsonArray("pages");
+          context.put("pages", pages.getList());
+          context.put("paged", after != null && !after.isEmpty());
+          if (reply.result().getString("next") != null) {
+            context.put("next", reply.result().getString("next"));
+          }
           context.put("canCreatePage", canCreatePage);
           context.put("username", context.user().principal().getString("username"));
-          templateEngine.render(context, "templates", "/index.ftl", ar -> {
-            if (ar.succeeded()) {
-              context.response().putHeader("Content-Type", "text/html");
-              context.response().end(ar.result());
-            } else {
-              context.fail(ar.cause());
-            }
-          });
+          endPage(context, "index.ftl", pages.size() * 64L);
         } else {
-          context.fail(reply.cause());
+          failPage(context, reply.cause());
         }
       });
     });
   }
 
+  private void searchHandler(RoutingContext context) {
+    LOGGER.debug("searchHandler");
+    String query = Optional.ofNullable(context.request().getParam("q")).orElse("");
+    LOGGER.debug("query: {}", query);
+
+    context.put("title", "Search");
+    if (!beginPage(context)) {
+      return;
+    }
+    reads(context).searchPages(query, SEARCH_LIMIT, reply -> {
+      if (reply.succeeded()) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        long weight = 0;
+        for (Object result : reply.result()) {
+          Map<String, Object> row = ((JsonObject) result).getMap();
+          weight += String.valueOf(row.get("snippet")).length() + 64;
+          results.add(row);
+        }
+        context.put("query", query);
+        context.put("results", results);
+        context.put("username", context.user().principal().getString("username"));
+        endPage(context, "search.ftl", weight);
+      } else {
+        failPage(context, reply.cause());
+      }
+    });
+  }
+
+  private void pageExportHandler(RoutingContext context) {
+    LOGGER.debug("pageExportHandler");
+    HttpServerResponse response = context.response();
+    response.setChunked(true);
+    response.putHeader("Content-Type", "application/json");
+    response.write("[");
+    exportBatch(response, null, true);
+  }
+
+  private void pageImportHandler(RoutingContext context) {
+    LOGGER.debug("pageImportHandler");
+    context.user().isAuthorized("create", res -> {
+      if (res.succeeded() && res.result()) {
+        wrote(context);
+        new PageImport(context.request(), wikiService, IMPORT_BATCH_SIZE, maxPageBytes).start();
+      } else {
+        context.response().setStatusCode(403).end();
+      }
+    });
+  }
+
+  private void exportBatch(HttpServerResponse response, String after, boolean first) {
+    wikiService.exportPages(after, EXPORT_BATCH_SIZE, reply -> {
+      if (response.closed()) {
+        return;
+      }
+      if (reply.failed()) {
+        LOGGER.error("Page export failed", reply.cause());
+        response.close();
+        return;
+      }
+      JsonArray pages = reply.result();
+      long weight = 0;
+      for (int i = 0; i < pages.size(); i++) {
+        String markdown = pages.getJsonObject(i).getString("markdown");
+        weight += markdown == null ? 0 : markdown.length();
+      }
+      renderPool.execute(weight, () -> encodeBatch(pages, first), encode -> {
+        if (response.closed()) {
+          return;
+        }
+        if (encode.failed()) {
+          LOGGER.error("Page export failed", encode.cause());
+          response.close();
+          return;
+        }
+        response.write(encode.result());
+        if (pages.size() < EXPORT_BATCH_SIZE) {
+          response.end("\n]\n");
+          return;
+        }
+        String next = pages.getJsonObject(pages.size() - 1).getString("name");
+        boolean nextFirst = first && pages.isEmpty();
+        if (response.writeQueueFull()) {
+          response.drainHandler(v -> exportBatch(response, next, nextFirst));
+        } else {
+          exportBatch(response, next, nextFirst);
+        }
+      });
+    });
+  }
+
+  private static Buffer encodeBatch(JsonArray pages, boolean first) {
+    Buffer batch = Buffer.buffer();
+    for (int i = 0; i < pages.size(); i++) {
+      batch.appendString(first && i == 0 ? "\n" : ",\n");
+      batch.appendString(pages.getJsonObject(i).encode());
+    }
+    return batch;
+  }
+
   private void pageRenderingHandler(RoutingContext context) {
-    LOGGER.info("pageRenderingHandler");
+    LOGGER.debug("pageRenderingHandler");
     String page = context.request().getParam("page");
-    LOGGER.info(String.format("page: %s", page));
+    LOGGER.debug("page: {}", page);
 
     context.user().isAuthorized("delete", res -> {
       if (res.succeeded()) {
-        wikiService.fetchPage(page, reply -> {
-          if (reply.succeeded()) {
-            JsonObject body = reply.result();
-            boolean found = body.getBoolean("found");
-            String rawContent = body.getString("rawContent", EMPTY_PAGE_MARKDOWN);
-
-            context.put("title", page);
-            context.put("id", body.getInteger("id", -1));
-            context.put("newPage", found ? "no" : "yes");
-            LOGGER.info(String.format("newPage: %s", !found));
-            context.put("canDelete", res.result());
-            LOGGER.info(String.format("canDelete: %s", res.result()));
-            context.put("rawContent", rawContent);
-            context.put("content", Processor.process(rawContent));
-            context.put("timestamp", new Date().toString());
-            templateEngine.render(context, "templates", "/page.ftl", ar -> {
-              if (ar.succeeded()) {
-                context.response().putHeader("Content-Type", "text/html");
-                context.response().end(ar.result());
-              } else {
-                context.fail(ar.cause());
-              }
-            });
-          } else {
-            context.fail(reply.cause());
+        boolean canDelete = res.result();
+        context.put("canDelete", canDelete);
+        LOGGER.debug("canDelete: {}", canDelete);
+
+        PageCache.Entry cached = pageCache.get(page);
+        if (cached != null) {
+          if (!respondIfNotModified(context, cached.id, cached.version, cached.updatedAt, canDelete)) {
+            renderPage(context, page, cached);
           }
-        });
+        } else if (ConditionalRequests.isConditional(context.request())) {
+          reads(context).fetchPageVersion(page, reply -> {
+            if (reply.succeeded()) {
+              JsonObject body = reply.result();
+              if (!body.getBoolean("found") || !respondIfNotModified(context, body.getInteger("id"),
+                  body.getLong("version"), body.getLong("updatedAt"), canDelete)) {
+                fetchAndRenderPage(context, page);
+              }
+            } else {
+              context.fail(reply.cause());
+            }
+          });
+        } else {
+          fetchAndRenderPage(context, page);
+        }
       } else {
         context.response().setStatusCode(403).end();
       }
     });
   }
 
+  private void fetchAndRenderPage(RoutingContext context, String page) {
+    long generation = pageCache.generation();
+    reads(context).fetchPage(page, reply -> {
+      if (reply.succeeded()) {
+        JsonObject body = reply.result();
+        if (body.getBoolean("found")) {
+          PageCache.Entry entry = new PageCache.Entry(body.getInteger("id"), body.getLong("version"),
+              body.getLong("updatedAt"), body.getString("rawContent", ""), body.getString("html", ""));
+          pageCache.put(page, generation, entry);
+          renderPage(context, page, entry);
+        } else {
+          renderPage(context, page, NEW_PAGE);
+        }
+      } else {
+        failPage(context, reply.cause());
+      }
+    });
+  }
+
+  private boolean respondIfNotModified(RoutingContext context, int id, long version, long updatedAt,
+                                       boolean canDelete) {
+    String etag = ConditionalRequests.etag(id, version, canDelete);
+    if (!ConditionalRequests.isNotModified(context.request(), etag, updatedAt)) {
+      return false;
+    }
+    putValidators(context, etag, updatedAt);
+    context.response().setStatusCode(304).end();
+    return true;
+  }
+
+  private void putValidators(RoutingContext context, String etag, long updatedAt) {
+    context.response()
+        .putHeader("ETag", etag)
+        .putHeader("Last-Modified", ConditionalRequests.httpDate(updatedAt))
+        .putHeader("Cache-Control", "private, no-cache");
+  }
+
+  private void renderPage(RoutingContext context, String page, PageCache.Entry entry) {
+    boolean newPage = entry == NEW_PAGE;
+    context.put("title", page);
+    context.put("id", entry.id);
+    context.put("version", entry.version);
+    context.put("newPage", newPage ? "yes" : "no");
+    LOGGER.debug("newPage: {}", newPage);
+    context.put("rawContent", entry.rawContent);
+    context.put("content", entry.content);
+    context.put("timestamp", newPage ? "never" : new Date(entry.updatedAt).toString());
+    if (!newPage) {
+      putValidators(context, ConditionalRequests.etag(entry.id, entry.version, context.get("canDelete")),
+          entry.updatedAt);
+    }
+    if (beginPage(context)) {
+      endPage(context, "page.ftl", entry.rawContent.length() + entry.content.length());
+    }
+  }
+
+  /**
+   * Sends the response head and the layout up to the page body, so that the browser can start fetching
+   * stylesheets while the body is still being fetched and rendered. While the render pool is saturated the
+   * request is turned away with a 503 instead, and {@code false} is returned.
+   */
+  private boolean beginPage(RoutingContext context) {
+    if (renderPool.saturated()) {
+      respondBusy(context);
+      return false;
+    }
+    context.response()
+        .setChunked(true)
+        .putHeader("Content-Type", "text/html")
+        .write(templates.head(context.get("title")));
+    return true;
+  }
+
+  /**
+   * Renders the page body on the render pool, {@code weight} being about the number of characters it holds.
+   */
+  private void endPage(RoutingContext context, String template, long weight) {
+    renderPool.execute(weight, () -> {
+      long start = System.nanoTime();
+      Buffer body = templates.render(template, context.data());
+      metrics.timer("template_render_seconds", "Template rendering latency", "template", template)
+          .recordSince(start);
+      return body;
+    }, render -> {
+      if (context.response().closed()) {
+        return;
+      }
+      if (render.failed()) {
+        failPage(context, render.cause());
+      } else {
+        context.response().write(render.result()).end(templates.footer);
+      }
+    });
+  }
+
+  /**
+   * Once the head of a page has been sent its status can no longer change, so the connection is closed instead.
+   */
+  private void failPage(RoutingContext context, Throwable cause) {
+    if (context.response().headWritten()) {
+      LOGGER.error("Could not complete page " + context.request().path(), cause);
+      context.response().close();
+    } else if (isBusy(cause)) {
+      respondBusy(context);
+    } else {
+      context.fail(cause);
+    }
+  }
+
+  private static boolean isBusy(Throwable cause) {
+    return cause instanceof RejectedExecutionException || isError(cause, ErrorCodes.BUSY);
+  }
+
+  private void respondBusy(RoutingContext context) {
+    context.response()
+        .setStatusCode(503)
+        .putHeader("Retry-After", RETRY_AFTER_SECONDS)
+        .end();
+  }
+
+  private void metricsHandler(RoutingContext context) {
+    context.response().putHeader("Content-Type", "text/plain; version=0.0.4");
+    context.response().end(metrics.scrape());
+  }
+
+  private void cacheStatsHandler(RoutingContext context) {
+    LOGGER.debug("cacheStatsHandler");
+    context.response().putHeader("Content-Type", "application/json");
+    context.response().end(pageCache.stats().encodePrettily());
+  }
+
+  private void databaseStatsHandler(RoutingContext context) {
+    LOGGER.debug("databaseStatsHandler");
+    JsonArray instances = new JsonArray();
+    vertx.sharedData().<String, ServiceStats>getLocalMap(ServiceStats.LOCAL_MAP).values()
+        .forEach(stats -> instances.add(stats.toJson()));
+    context.response().putHeader("Content-Type", "application/json");
+    context.response().end(new JsonObject().put("instances", instances).encodePrettily());
+  }
+
+  private void linkReportHandler(RoutingContext context) {
+    LOGGER.debug("linkReportHandler");
+    wikiService.fetchLinkReport(LINK_REPORT_LIMIT, reply -> {
+      if (reply.succeeded()) {
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(reply.result().encodePrettily());
+      } else {
+        context.fail(reply.cause());
+      }
+    });
+  }
+
   private void pageUpdateHandler(RoutingContext context) {
-    LOGGER.info("pageUpdateHandler");
+    LOGGER.debug("pageUpdateHandler");
     String title = context.request().getParam("title");
-    LOGGER.info(String.format("newPage: %s", context.request().getParam("newPage")));
+    LOGGER.debug("newPage: {}", context.request().getParam("newPage"));
 
     Handler<AsyncResult<Void>> handler = reply -> {
       if (reply.succeeded()) {
+        wrote(context);
         context.response().setStatusCode(303);
         context.response().putHeader("Location", "/wiki/" + title);
         context.response().end();
       } else {
-        context.fail(reply.cause());
+        saveFailed(context, title, reply.cause());
       }
     };
 
     String markdown = context.request().getParam("markdown");
+    if (markdown != null && Utf8.length(markdown) > maxPageBytes) {
+      saveFailed(context, title, new ServiceException(ErrorCodes.PAGE_TOO_LARGE.ordinal(), "Page too large"));
+      return;
+    }
     if ("yes".equals(context.request().getParam("newPage"))) {
       wikiService.createPage(title, markdown, handler);
     } else {
-      wikiService.savePage(Integer.valueOf(context.request().getParam("id")), markdown, handler);
+      Integer id = intParam(context, "id", null);
+      Integer baseVersion = intParam(context, "version", -1);
+      if (id == null || baseVersion == null) {
+        badRequest(context, "id and version must be numbers");
+        return;
+      }
+      wikiService.savePage(id, markdown, baseVersion, handler);
+    }
+  }
+
+  /**
+   * The value of an integer parameter, {@code absent} when the request doesn't give it, or null when it isn't a
+   * number: malformed input is the caller's mistake, not a server error.
+   */
+  private static Integer intParam(RoutingContext context, String name, Integer absent) {
+    String value = context.request().getParam(name);
+    if (value == null) {
+      return absent;
+    }
+    try {
+      return Integer.valueOf(value.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static void badRequest(RoutingContext context, String message) {
+    context.response().setStatusCode(400)
+        .putHeader("Content-Type", "text/plain")
+        .end(message + "\n");
+  }
+
+  /**
+   * Streams the request body, raw markdown, into the page, creating it if needed. Meant for pages too large to
+   * go through the edit form; a {@code version} parameter makes the save conditional as in the form. Like an import,
+   * creating a page needs the {@code create} permission; replacing one needs {@code update}.
+   */
+  private void pageUploadHandler(RoutingContext context) {
+    LOGGER.debug("pageUploadHandler");
+    String page = context.request().getParam("page");
+    Integer baseVersion = intParam(context, "version", -1);
+    if (baseVersion == null) {
+      badRequest(context, "version must be a number");
+      return;
+    }
+    primaryWikiService.fetchPageVersion(page, version -> {
+      if (version.failed()) {
+        saveFailed(context, page, version.cause());
+        return;
+      }
+      String permission = version.result().getBoolean("found") ? "update" : "create";
+      context.user().isAuthorized(permission, res -> {
+        if (res.succeeded() && res.result()) {
+          upload(context, page, baseVersion);
+        } else {
+          context.response().setStatusCode(403).end();
+        }
+      });
+    });
+  }
+
+  private void upload(RoutingContext context, String page, int baseVersion) {
+    new PageUpload(context.request(), wikiService, page, baseVersion, maxPageBytes, UPLOAD_CHUNK_BYTES)
+        .start(reply -> {
+          if (context.response().closed()) {
+            return;
+          }
+          if (reply.succeeded()) {
+            LOGGER.debug("Uploaded {} bytes to {}", reply.result(), page);
+            wrote(context);
+            context.response().setStatusCode(204).end();
+          } else {
+            saveFailed(context, page, reply.cause());
+            if (isError(reply.cause(), ErrorCodes.PAGE_TOO_LARGE)) {
+              // the rest of the body is still on its way and won't be read
+              context.response().close();
+            }
+          }
+        });
+  }
+
+  private void saveFailed(RoutingContext context, String title, Throwable cause) {
+    if (isError(cause, ErrorCodes.STALE_VERSION)) {
+      context.response().setStatusCode(409)
+          .putHeader("Content-Type", "text/plain")
+          .end("Someone else saved " + title + " while you were editing it. " +
+              "Reload the page, reapply your changes and save again.\n");
+    } else if (isError(cause, ErrorCodes.PAGE_TOO_LARGE)) {
+      context.response().setStatusCode(413)
+          .putHeader("Content-Type", "text/plain")
+          .end("Pages are limited to " + maxPageBytes + " bytes.\n");
+    } else if (isError(cause, ErrorCodes.PAGE_NOT_FOUND)) {
+      context.response().setStatusCode(404).end();
+    } else if (isBusy(cause)) {
+      respondBusy(context);
+    } else {
+      context.fail(cause);
     }
   }
 
+  private static boolean isError(Throwable cause, ErrorCodes code) {
+    return cause instanceof ServiceException && ((ServiceException) cause).failureCode() == code.ordinal();
+  }
+
+  private void revisionListHandler(RoutingContext context) {
+    LOGGER.debug("revisionListHandler");
+    String page = context.request().getParam("page");
+    Integer before = intParam(context, "before", 0);
+    if (before == null || before < 0) {
+      badRequest(context, "before must be a revision number");
+      return;
+    }
+    reads(context).listRevisions(page, before, REVISION_PAGE_SIZE, reply -> {
+      if (reply.succeeded()) {
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(reply.result().encode());
+      } else {
+        context.fail(reply.cause());
+      }
+    });
+  }
+
+  private void backlinksHandler(RoutingContext context) {
+    LOGGER.debug("backlinksHandler");
+    String page = context.request().getParam("page");
+    reads(context).fetchBacklinks(page, BACKLINKS_LIMIT, reply -> {
+      if (reply.succeeded()) {
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(new JsonObject().put("page", page).put("backlinks", reply.result()).encode());
+      } else {
+        context.fail(reply.cause());
+      }
+    });
+  }
+
+  private void revisionHandler(RoutingContext context) {
+    LOGGER.debug("revisionHandler");
+    String page = context.request().getParam("page");
+    Integer revision = intParam(context, "revision", null);
+    if (revision == null) {
+      badRequest(context, "revision must be a number");
+      return;
+    }
+    if (revision <= 0) {
+      context.response().setStatusCode(404).end();
+      return;
+    }
+    reads(context).fetchRevision(page, revision, reply -> {
+      if (reply.failed()) {
+        context.fail(reply.cause());
+      } else if (!reply.result().getBoolean("found")) {
+        context.response().setStatusCode(404).end();
+      } else {
+        context.response()
+            .putHeader("Content-Type", "text/markdown; charset=utf-8")
+            .putHeader("Last-Modified", ConditionalRequests.httpDate(reply.result().getLong("createdAt")))
+            .end(reply.result().getString("markdown"));
+      }
+    });
+  }
+
   private void pageCreateHandler(RoutingContext context) {
-    LOGGER.info("pageCreateHandler");
+    LOGGER.debug("pageCreateHandler");
     String pageName = context.request().getParam("name");
     String location = "/wiki/" + pageName;
     if (pageName == null || pageName.isEmpty()) {
       location = "/";
     }
-    LOGGER.info(String.format("page: %s", pageName));
-    LOGGER.info(String.format("location: %s", location));
+    LOGGER.debug("page: {}", pageName);
+    LOGGER.debug("location: {}", location);
     context.response().setStatusCode(303);
     context.response().putHeader("Location", location);
     context.response().end();
   }
 
   private void pageDeletionHandler(RoutingContext context) {
-    LOGGER.info("pageDeletionHandler");
+    LOGGER.debug("pageDeletionHandler");
     context.user().isAuthorized("delete", res -> {
       if (res.succeeded() && res.result()) {
-        String id = context.request().getParam("id");
-        LOGGER.info(String.format("id: %s", id));
+        Integer id = intParam(context, "id", null);
+        LOGGER.debug("id: {}", id);
+        if (id == null) {
+          badRequest(context, "id must be a number");
+          return;
+        }
 
-        wikiService.deletePage(Integer.valueOf(id), reply -> {
+        wikiService.deletePage(id, reply -> {
           if (reply.succeeded()) {
+            wrote(context);
             context.response().setStatusCode(303);
             context.response().putHeader("Location", "/");
             context.response().end();
@@ -0,0 +1,47 @@
+package id.caltic.labs.wiki.http;
+
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import io.vertx.core.Handler;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number of requests that may be using the database at once, across every HTTP verticle of the Vert.x
+ * instance since they count on one shared metrics level. Requests over the cap are answered with {@code overloaded}
+ * right away rather than queueing for a connection behind requests that are already late. A request holds its slot
+ * until its response ends or its connection closes.
+ */
+class InFlightLimit implements Handler<RoutingContext> {
+
+  private final int maxInFlight;
+  private final AtomicLong inFlight;
+  private final AtomicLong shed;
+  private final Handler<RoutingContext> overloaded;
+
+  InFlightLimit(MetricsRegistry metrics, int maxInFlight, Handler<RoutingContext> overloaded) {
+    this.maxInFlight = maxInFlight;
+    this.inFlight = metrics.level("http_requests_in_flight", "Requests holding a database-backed request slot");
+    this.shed = metrics.level("http_requests_shed", "Requests turned away because every slot was taken");
+    this.overloaded = overloaded;
+  }
+
+  @Override
+  public void handle(RoutingContext context) {
+    if (inFlight.incrementAndGet() > maxInFlight) {
+      inFlight.decrementAndGet();
+      shed.incrementAndGet();
+      overloaded.handle(context);
+      return;
+    }
+    // runs when the response is written or dropped with its connection, at worst both on the same event loop
+    boolean[] released = {false};
+    context.response().endHandler(v -> {
+      if (!released[0]) {
+        released[0] = true;
+        inFlight.decrementAndGet();
+      }
+    });
+    context.next();
+  }
+}
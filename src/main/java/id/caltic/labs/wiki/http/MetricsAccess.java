@@ -0,0 +1,61 @@
+package id.caltic.labs.wiki.http;
+
+import io.vertx.core.Handler;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.ext.web.RoutingContext;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Guards the metrics scrape, which tells about traffic, routes and pools to whoever reads it. With a token
+ * configured, a scrape must carry it as {@code Authorization: Bearer <token>}; without one, only scrapes from this
+ * host are answered.
+ */
+class MetricsAccess implements Handler<RoutingContext> {
+
+  private static final String BEARER = "Bearer ";
+
+  private final byte[] token;
+
+  MetricsAccess(String token) {
+    this.token = token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void handle(RoutingContext context) {
+    if (token == null) {
+      if (isLoopback(context.request().remoteAddress())) {
+        context.next();
+      } else {
+        context.response().setStatusCode(403).end();
+      }
+    } else if (hasToken(context.request().getHeader("Authorization"))) {
+      context.next();
+    } else {
+      context.response().setStatusCode(401).putHeader("WWW-Authenticate", "Bearer").end();
+    }
+  }
+
+  boolean hasToken(String authorization) {
+    if (authorization == null || !authorization.startsWith(BEARER)) {
+      return false;
+    }
+    byte[] presented = authorization.substring(BEARER.length()).trim().getBytes(StandardCharsets.UTF_8);
+    return MessageDigest.isEqual(token, presented);
+  }
+
+  static boolean isLoopback(SocketAddress address) {
+    if (address == null || address.host() == null) {
+      return false;
+    }
+    try {
+      // the host is an IP literal, which is parsed rather than looked up
+      return InetAddress.getByName(address.host()).isLoopbackAddress();
+    } catch (UnknownHostException e) {
+      return false;
+    }
+  }
+}
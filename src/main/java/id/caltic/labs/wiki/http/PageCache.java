@@ -0,0 +1,158 @@
+package id.caltic.labs.wiki.http;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rendered page cache keyed by page name, each entry carrying the page version it was rendered from. The cache
+ * is bounded by an approximate byte budget and evicts the least recently used pages first. Invalidations remember
+ * the version a page has reached, when known, so that a read served by a lagging replica is not cached over it.
+ * Instances are confined to the event loop of the verticle owning them and are not thread-safe.
+ */
+class PageCache {
+
+  private static final int ENTRY_OVERHEAD_BYTES = 64;
+  private static final int MAX_FLOORS = 10000;
+
+  static final class Entry {
+    final int id;
+    final long version;
+    final long updatedAt;
+    final String rawContent;
+    final String content;
+    final long weight;
+
+    Entry(int id, long version, long updatedAt, String rawContent, String content) {
+      this.id = id;
+      this.version = version;
+      this.updatedAt = updatedAt;
+      this.rawContent = rawContent;
+      this.content = content;
+      this.weight = ENTRY_OVERHEAD_BYTES + 2L * (rawContent.length() + content.length());
+    }
+  }
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private final Map<Integer, String> namesById = new HashMap<>();
+  // lowest version each recently changed page may be cached at
+  private final Map<String, Long> floors = new LinkedHashMap<String, Long>(64, 0.75f, false) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+      return size() > MAX_FLOORS;
+    }
+  };
+
+  private long bytes;
+  private long generation;
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long invalidations;
+
+  PageCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  Entry get(String name) {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return entry;
+  }
+
+  /**
+   * Captured before fetching a page and handed back to {@link #put}, so that a fetch racing with an
+   * invalidation never repopulates the cache with stale content.
+   */
+  long generation() {
+    return generation;
+  }
+
+  void put(String name, long fetchedAtGeneration, Entry entry) {
+    if (fetchedAtGeneration != generation || entry.weight > maxBytes) {
+      return;
+    }
+    Long floor = floors.get(name);
+    if (floor != null) {
+      if (entry.version < floor) {
+        return;
+      }
+      floors.remove(name);
+    }
+    remove(name);
+    entries.put(name, entry);
+    namesById.put(entry.id, name);
+    bytes += entry.weight;
+
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (bytes > maxBytes && eldest.hasNext()) {
+      Map.Entry<String, Entry> evicted = eldest.next();
+      eldest.remove();
+      namesById.remove(evicted.getValue().id);
+      bytes -= evicted.getValue().weight;
+      evictions++;
+    }
+  }
+
+  void invalidate(JsonObject change) {
+    generation++;
+    invalidations++;
+    if (change.containsKey("names")) {
+      change.getJsonArray("names").forEach(name -> remove((String) name, null));
+      return;
+    }
+    String name = change.getString("name");
+    if (name == null && change.containsKey("id")) {
+      name = namesById.get(change.getInteger("id"));
+    }
+    if (name != null) {
+      remove(name, change.getLong("version"));
+    }
+  }
+
+  JsonObject stats() {
+    return new JsonObject()
+        .put("entries", entries.size())
+        .put("bytes", bytes)
+        .put("maxBytes", maxBytes)
+        .put("hits", hits)
+        .put("misses", misses)
+        .put("evictions", evictions)
+        .put("invalidations", invalidations);
+  }
+
+  private void remove(String name) {
+    Entry previous = entries.remove(name);
+    if (previous != null) {
+      namesById.remove(previous.id);
+      bytes -= previous.weight;
+    }
+  }
+
+  /**
+   * Without the version the change produced, the page is at least one version past what was cached. A version
+   * given by the change replaces the floor even when lower: the page was deleted and created again.
+   */
+  private void remove(String name, Long changedToVersion) {
+    Entry previous = entries.get(name);
+    remove(name);
+    long floor;
+    if (changedToVersion != null) {
+      floor = changedToVersion;
+    } else if (previous != null) {
+      floor = Math.max(previous.version + 1, floors.getOrDefault(name, 0L));
+    } else {
+      return;
+    }
+    floors.remove(name);
+    floors.put(name, floor);
+  }
+}
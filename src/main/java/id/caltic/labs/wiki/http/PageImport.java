@@ -0,0 +1,187 @@
+package id.caltic.labs.wiki.http;
+
+import id.caltic.labs.wiki.database.WikiService;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.RecordParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams one import request into {@link WikiService#savePages} batches. The body holds one
+ * {@code {"name", "markdown"}} object per line, which also accepts the output of the page export as it is.
+ * While a batch is being written the next one is parsed; once that one is full too, the request is paused
+ * until the database catches up. Every batch is reported back as one JSON line, followed by a summary.
+ * A line that grows past what a page of {@code maxPageBytes} can take stops the import instead of being buffered.
+ */
+class PageImport {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PageImport.class);
+
+  private static final long LINE_OVERHEAD_BYTES = 65536;
+
+  private final HttpServerRequest request;
+  private final WikiService wikiService;
+  private final int batchSize;
+  private final long maxPageBytes;
+  private final long maxLineBytes;
+  private final HttpServerResponse response;
+  private final RecordParser lines;
+  private final long startedAt = System.nanoTime();
+
+  private JsonArray batch = new JsonArray();
+  private boolean writing;
+  private boolean ended;
+  private String error;
+  private long lineNumber;
+  private long unparsedBytes;
+  private long batches;
+  private long pages;
+
+  PageImport(HttpServerRequest request, WikiService wikiService, int batchSize, long maxPageBytes) {
+    this.request = request;
+    this.wikiService = wikiService;
+    this.batchSize = batchSize;
+    this.maxPageBytes = maxPageBytes;
+    // escaping newlines and quotes at most doubles the size of the markdown
+    this.maxLineBytes = 2 * maxPageBytes + LINE_OVERHEAD_BYTES;
+    this.response = request.response();
+    this.lines = RecordParser.newDelimited("\n", this::line);
+  }
+
+  void start() {
+    response.setChunked(true).putHeader("Content-Type", "application/x-ndjson");
+    request.exceptionHandler(this::fail);
+    request.endHandler(v -> {
+      // a last line without a trailing newline
+      lines.handle(Buffer.buffer("\n"));
+      ended = true;
+      flush();
+    });
+    request.handler(this::data);
+    request.resume();
+  }
+
+  private void data(Buffer buffer) {
+    if (error != null) {
+      return;
+    }
+    unparsedBytes += buffer.length();
+    lines.handle(buffer);
+    if (unparsedBytes > maxLineBytes) {
+      error = "line " + (lineNumber + 1) + ": longer than " + maxLineBytes + " bytes";
+    }
+  }
+
+  private void line(Buffer buffer) {
+    lineNumber++;
+    unparsedBytes -= buffer.length() + 1;
+    if (error != null) {
+      return;
+    }
+    String line = buffer.toString("UTF-8").trim();
+    // tolerate the array brackets and separators of an export
+    if (line.startsWith("[")) {
+      line = line.substring(1).trim();
+    }
+    if (line.endsWith("]")) {
+      line = line.substring(0, line.length() - 1).trim();
+    }
+    if (line.endsWith(",")) {
+      line = line.substring(0, line.length() - 1).trim();
+    }
+    if (line.isEmpty()) {
+      return;
+    }
+    try {
+      JsonObject page = new JsonObject(line);
+      String markdown = page.getString("markdown");
+      if (markdown != null && Utf8.length(markdown) > maxPageBytes) {
+        error = "line " + lineNumber + ": pages are limited to " + maxPageBytes + " bytes";
+        return;
+      }
+      batch.add(new JsonObject().put("name", page.getString("name")).put("markdown", markdown));
+    } catch (DecodeException | ClassCastException e) {
+      error = "line " + lineNumber + ": " + e.getMessage();
+      return;
+    }
+    if (batch.size() >= batchSize) {
+      if (writing) {
+        request.pause();
+      } else {
+        flush();
+      }
+    }
+  }
+
+  private void flush() {
+    if (writing) {
+      return;
+    }
+    if (error != null || batch.isEmpty()) {
+      if (ended) {
+        finish();
+      }
+      return;
+    }
+    JsonArray pending = batch;
+    batch = new JsonArray();
+    writing = true;
+    long batchStartedAt = System.nanoTime();
+    wikiService.savePages(pending, reply -> {
+      writing = false;
+      if (reply.failed()) {
+        LOGGER.error("Page import failed", reply.cause());
+        error = reply.cause().getMessage();
+      } else {
+        batches++;
+        pages += pending.size();
+        long nanos = System.nanoTime() - batchStartedAt;
+        response.write(new JsonObject()
+            .put("batch", batches)
+            .put("pages", pending.size())
+            .put("millis", TimeUnit.NANOSECONDS.toMillis(nanos))
+            .put("pagesPerSecond", perSecond(pending.size(), nanos))
+            .put("totalPages", pages)
+            .encode() + "\n");
+      }
+      if (ended || batch.size() >= batchSize || error != null) {
+        flush();
+      }
+      if (!ended) {
+        request.resume();
+      }
+    });
+  }
+
+  private void fail(Throwable cause) {
+    LOGGER.error("Page import stream failed", cause);
+    error = cause.getMessage();
+  }
+
+  private void finish() {
+    if (response.ended() || response.closed()) {
+      return;
+    }
+    long nanos = System.nanoTime() - startedAt;
+    JsonObject summary = new JsonObject()
+        .put("batches", batches)
+        .put("pages", pages)
+        .put("millis", TimeUnit.NANOSECONDS.toMillis(nanos))
+        .put("pagesPerSecond", perSecond(pages, nanos));
+    if (error != null) {
+      summary.put("error", error);
+    }
+    LOGGER.info("Imported {} pages in {} batches, {} pages/s", pages, batches, summary.getLong("pagesPerSecond"));
+    response.end(summary.encode() + "\n");
+  }
+
+  private static long perSecond(long count, long nanos) {
+    return nanos == 0 ? count : count * TimeUnit.SECONDS.toNanos(1) / nanos;
+  }
+}
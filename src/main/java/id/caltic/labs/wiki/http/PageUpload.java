@@ -0,0 +1,136 @@
+package id.caltic.labs.wiki.http;
+
+import id.caltic.labs.wiki.database.ErrorCodes;
+import id.caltic.labs.wiki.database.WikiService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.serviceproxy.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+
+/**
+ * Streams the raw markdown body of one request into the database's upload staging area, in pieces of about
+ * {@code chunkBytes}, and has it saved as the content of a page once the body has ended. The request is paused
+ * while a piece is being written, so that no more than about one piece of a large page is held here at a time.
+ * Pieces are cut between characters since each one is stored as text.
+ */
+class PageUpload {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PageUpload.class);
+
+  private final HttpServerRequest request;
+  private final WikiService wikiService;
+  private final String name;
+  private final int baseVersion;
+  private final long maxBytes;
+  private final int chunkBytes;
+  private final String uploadId = UUID.randomUUID().toString();
+
+  private Handler<AsyncResult<Long>> done;
+  private Buffer pending = Buffer.buffer();
+  private long received;
+  private int sequence;
+  private boolean writing;
+  private boolean ended;
+  private boolean committed;
+  private boolean failed;
+
+  PageUpload(HttpServerRequest request, WikiService wikiService, String name, int baseVersion, long maxBytes,
+             int chunkBytes) {
+    this.request = request;
+    this.wikiService = wikiService;
+    this.name = name;
+    this.baseVersion = baseVersion;
+    this.maxBytes = maxBytes;
+    this.chunkBytes = chunkBytes;
+  }
+
+  /**
+   * {@code done} gets the size of the page in bytes once it is saved.
+   */
+  void start(Handler<AsyncResult<Long>> done) {
+    this.done = done;
+    request.exceptionHandler(this::fail);
+    request.endHandler(v -> {
+      ended = true;
+      flush();
+    });
+    request.handler(this::data);
+    request.resume();
+  }
+
+  private void data(Buffer buffer) {
+    if (failed) {
+      return;
+    }
+    received += buffer.length();
+    if (received > maxBytes) {
+      fail(new ServiceException(ErrorCodes.PAGE_TOO_LARGE.ordinal(), "Pages are limited to " + maxBytes + " bytes"));
+      return;
+    }
+    pending.appendBuffer(buffer);
+    if (pending.length() >= chunkBytes) {
+      request.pause();
+      flush();
+    }
+  }
+
+  private void flush() {
+    if (writing || failed) {
+      return;
+    }
+    if (pending.length() >= chunkBytes || (ended && pending.length() > 0)) {
+      int end = ended ? pending.length() : Utf8.boundary(pending);
+      String chunk = pending.getString(0, end, "UTF-8");
+      pending = pending.getBuffer(end, pending.length());
+      writing = true;
+      wikiService.appendUpload(uploadId, sequence++, chunk, reply -> {
+        writing = false;
+        if (failed) {
+          return;
+        }
+        if (reply.failed()) {
+          fail(reply.cause());
+          return;
+        }
+        flush();
+        if (!ended && !writing) {
+          request.resume();
+        }
+      });
+    } else if (ended) {
+      commit();
+    }
+  }
+
+  private void commit() {
+    writing = true;
+    committed = true;
+    wikiService.commitUpload(uploadId, name, baseVersion, reply -> {
+      writing = false;
+      done.handle(reply.map(received));
+    });
+  }
+
+  private void fail(Throwable cause) {
+    if (failed || committed) {
+      return;
+    }
+    failed = true;
+    pending = Buffer.buffer();
+    request.pause();
+    LOGGER.debug("Upload of {} failed: {}", name, cause.getMessage());
+    if (sequence > 0) {
+      wikiService.discardUpload(uploadId, discarded -> {
+        if (discarded.failed()) {
+          LOGGER.warn("Could not discard upload " + uploadId, discarded.cause());
+        }
+      });
+    }
+    done.handle(Future.failedFuture(cause));
+  }
+}
@@ -0,0 +1,112 @@
+package id.caltic.labs.wiki.http;
+
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often each caller may reach a group of routes, the caller being the logged in user or, before login,
+ * the remote address. Each caller gets a {@link TokenBucket}; one over its limit is answered with a 429 and a
+ * {@code Retry-After} header. Limits are given as {@code <requests>/<seconds>}, the requests being allowed in a
+ * burst, or {@code none}. Limiters are shared by the HTTP verticles of a Vert.x instance through the
+ * {@link #LOCAL_MAP} local map, so that a caller can't multiply its limit by spreading over connections.
+ */
+class RateLimiter implements Handler<RoutingContext>, Shareable {
+
+  static final String LOCAL_MAP = "wiki.ratelimits";
+
+  // full buckets are swept once this many callers have one, or twice as many as were left by the last sweep; a
+  // bucket swept while in use loses at most the token just taken from it
+  private static final int SWEEP_AT = 10000;
+
+  private final int capacity;
+  private final long nanosPerToken;
+  // two maps rather than a prefix, which would cost a string per request
+  private final ConcurrentMap<String, TokenBucket> users = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, TokenBucket> addresses = new ConcurrentHashMap<>();
+  private final AtomicLong limited;
+  private volatile int sweepAt = SWEEP_AT;
+
+  RateLimiter(String limit, AtomicLong limited) {
+    if ("none".equals(limit)) {
+      this.capacity = 0;
+      this.nanosPerToken = 0;
+    } else {
+      String[] parts = limit.split("/");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Rate limit " + limit + " is neither <requests>/<seconds> nor none");
+      }
+      this.capacity = Integer.valueOf(parts[0].trim());
+      if (capacity <= 0) {
+        throw new IllegalArgumentException("Rate limit " + limit + " allows no request, use none to disable it");
+      }
+      this.nanosPerToken = TimeUnit.SECONDS.toNanos(Long.valueOf(parts[1].trim())) / capacity;
+    }
+    this.limited = limited;
+  }
+
+  /**
+   * The limiter named {@code name}, created with {@code limit} by the first verticle asking for it.
+   */
+  static RateLimiter get(Vertx vertx, String name, String limit, MetricsRegistry metrics) {
+    LocalMap<String, RateLimiter> map = vertx.sharedData().getLocalMap(LOCAL_MAP);
+    RateLimiter limiter = map.get(name);
+    if (limiter == null) {
+      RateLimiter created = new RateLimiter(limit, metrics.level("http_rate_limited",
+          "Requests answered with a 429 by each rate limit", "limit", name));
+      limiter = map.putIfAbsent(name, created);
+      if (limiter == null) {
+        limiter = created;
+        metrics.gauge("http_rate_limit_callers", "Callers tracked by each rate limit",
+            () -> created.users.size() + created.addresses.size(), "limit", name);
+      }
+    }
+    return limiter;
+  }
+
+  @Override
+  public void handle(RoutingContext context) {
+    if (capacity == 0) {
+      context.next();
+      return;
+    }
+    long now = System.nanoTime();
+    User user = context.user();
+    String username = user == null ? null : user.principal().getString("username");
+    TokenBucket bucket = username == null
+        ? bucket(addresses, context.request().remoteAddress().host(), now)
+        : bucket(users, username, now);
+    long waitNanos = bucket.tryTake(now);
+    if (waitNanos == 0) {
+      context.next();
+      return;
+    }
+    limited.incrementAndGet();
+    long retryAfter = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    context.response()
+        .setStatusCode(429)
+        .putHeader("Retry-After", String.valueOf(retryAfter))
+        .end();
+  }
+
+  private TokenBucket bucket(ConcurrentMap<String, TokenBucket> buckets, String caller, long now) {
+    TokenBucket bucket = buckets.get(caller);
+    if (bucket != null) {
+      return bucket;
+    }
+    if (buckets.size() >= sweepAt) {
+      buckets.values().removeIf(idle -> idle.full(now));
+      sweepAt = Math.max(SWEEP_AT, 2 * buckets.size());
+    }
+    return buckets.computeIfAbsent(caller, key -> new TokenBucket(capacity, nanosPerToken, now));
+  }
+}
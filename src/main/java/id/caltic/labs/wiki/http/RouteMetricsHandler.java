@@ -0,0 +1,34 @@
+package id.caltic.labs.wiki.http;
+
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import io.vertx.core.Handler;
+import io.vertx.ext.web.Route;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Installed first on the router: times each request until its response body ends, labelled with the path of the
+ * route that answered it (so {@code /wiki/:page} rather than every page name), the method and the status.
+ */
+class RouteMetricsHandler implements Handler<RoutingContext> {
+
+  private final MetricsRegistry registry;
+
+  RouteMetricsHandler(MetricsRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public void handle(RoutingContext context) {
+    long start = System.nanoTime();
+    context.addBodyEndHandler(v -> {
+      Route route = context.currentRoute();
+      String path = route == null || route.getPath() == null ? "other" : route.getPath();
+      registry.timer("http_server_requests_seconds", "HTTP request latency by route",
+          "method", context.request().rawMethod(),
+          "route", path,
+          "status", String.valueOf(context.response().getStatusCode()))
+          .recordSince(start);
+    });
+    context.next();
+  }
+}
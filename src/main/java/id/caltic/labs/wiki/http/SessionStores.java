@@ -0,0 +1,33 @@
+package id.caltic.labs.wiki.http;
+
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.sstore.ClusteredSessionStore;
+import io.vertx.ext.web.sstore.LocalSessionStore;
+import io.vertx.ext.web.sstore.SessionStore;
+
+final class SessionStores {
+
+  private static final String SESSION_MAP = "wiki.sessions";
+
+  private SessionStores() {
+  }
+
+  /**
+   * {@code local} keeps sessions on the heap of this JVM; {@code clustered} keeps them in the cluster-wide map of
+   * the cluster manager, so that any node can serve any session without sticky load balancing. That needs Vert.x
+   * started clustered, with {@code -cluster}.
+   */
+  static SessionStore create(Vertx vertx, String type) {
+    switch (type) {
+      case "local":
+        return LocalSessionStore.create(vertx, SESSION_MAP);
+      case "clustered":
+        if (!vertx.isClustered()) {
+          throw new IllegalStateException("SESSION_STORE=clustered needs Vert.x started with -cluster");
+        }
+        return ClusteredSessionStore.create(vertx, SESSION_MAP);
+      default:
+        throw new IllegalArgumentException("Unknown SESSION_STORE: " + type);
+    }
+  }
+}
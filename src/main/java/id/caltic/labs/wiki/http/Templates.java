@@ -0,0 +1,124 @@
+package id.caltic.labs.wiki.http;
+
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateExceptionHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Page templates compiled once per JVM and shared by every HttpServerVerticle instance. Templates only hold the
+ * page body; the layout around them comes from header.ftl and footer.ftl, which are pre-encoded once so that the
+ * head of a page can be written before its body is known. The only dynamic part of the layout is the title.
+ * Templates see the routing context data as {@code context}, as they did with the FreeMarker template engine.
+ */
+final class Templates {
+
+  private static final String DIRECTORY = "/templates/";
+  private static final String TITLE_PLACEHOLDER = "${context.title}";
+  private static final String[] BODIES = {"index.ftl", "login.ftl", "page.ftl", "search.ftl"};
+
+  private static Templates loaded;
+
+  private final Map<String, Template> templates;
+  private final Map<String, AtomicInteger> sizeHints;
+  private final Buffer headStart;
+  private final Buffer headEnd;
+  final Buffer footer;
+
+  private Templates() {
+    Configuration configuration = new Configuration(Configuration.VERSION_2_3_23);
+    configuration.setTemplateLoader(new ClassTemplateLoader(Templates.class, DIRECTORY));
+    configuration.setDefaultEncoding("UTF-8");
+    configuration.setLocalizedLookup(false);
+    // page ids end up in form fields, so no digit grouping
+    configuration.setNumberFormat("0.######");
+    configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+    configuration.setLogTemplateExceptions(false);
+
+    Map<String, Template> templates = new HashMap<>();
+    Map<String, AtomicInteger> sizeHints = new HashMap<>();
+    try {
+      for (String name : BODIES) {
+        templates.put(name, configuration.getTemplate(name));
+        sizeHints.put(name, new AtomicInteger(4096));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.templates = Collections.unmodifiableMap(templates);
+    this.sizeHints = Collections.unmodifiableMap(sizeHints);
+
+    String header = resource("header.ftl");
+    int title = header.indexOf(TITLE_PLACEHOLDER);
+    headStart = preEncoded(header.substring(0, title));
+    headEnd = preEncoded(header.substring(title + TITLE_PLACEHOLDER.length()));
+    footer = preEncoded(resource("footer.ftl"));
+  }
+
+  /**
+   * Loads and compiles every template on the first call and returns them; the verticles call it at startup so that
+   * the first request doesn't.
+   */
+  static synchronized Templates load() {
+    if (loaded == null) {
+      loaded = new Templates();
+    }
+    return loaded;
+  }
+
+  Buffer head(String title) {
+    String text = title == null ? "" : title;
+    return Buffer.buffer(headStart.length() + text.length() * 3 + headEnd.length())
+        .appendBuffer(headStart)
+        .appendString(text)
+        .appendBuffer(headEnd);
+  }
+
+  /**
+   * Renders a body template straight into a buffer sized from the largest output of that template seen so far.
+   */
+  Buffer render(String name, Map<String, Object> data) throws IOException, TemplateException {
+    Template template = templates.get(name);
+    if (template == null) {
+      throw new IllegalArgumentException("Unknown template " + name);
+    }
+    AtomicInteger hint = sizeHints.get(name);
+    ByteBuf bytes = Unpooled.buffer(hint.get());
+    try (Writer out = new OutputStreamWriter(new ByteBufOutputStream(bytes), StandardCharsets.UTF_8)) {
+      template.process(Collections.singletonMap("context", data), out);
+    }
+    hint.accumulateAndGet(bytes.readableBytes(), Math::max);
+    return Buffer.buffer(bytes);
+  }
+
+  private static Buffer preEncoded(String fragment) {
+    byte[] bytes = fragment.getBytes(StandardCharsets.UTF_8);
+    return Buffer.buffer(Unpooled.directBuffer(bytes.length).writeBytes(bytes));
+  }
+
+  private static String resource(String name) {
+    try (InputStream in = Templates.class.getResourceAsStream(DIRECTORY + name);
+         Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A")) {
+      return scanner.next();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
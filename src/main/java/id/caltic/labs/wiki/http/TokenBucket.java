@@ -0,0 +1,46 @@
+package id.caltic.labs.wiki.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket holding up to {@code capacity} tokens and gaining one every {@code nanosPerToken}, shared between
+ * threads without locks. Instead of a token count it keeps the single instant at which the bucket will be full
+ * again: taking a token pushes that instant one refill period further, which is allowed as long as it stays within
+ * {@code capacity} periods from now. Taking a token is a read and a compare-and-set, and allocates nothing.
+ */
+final class TokenBucket {
+
+  private final long nanosPerToken;
+  private final long capacityNanos;
+  private final AtomicLong fullAt;
+
+  TokenBucket(int capacity, long nanosPerToken, long nowNanos) {
+    this.nanosPerToken = nanosPerToken;
+    this.capacityNanos = capacity * nanosPerToken;
+    this.fullAt = new AtomicLong(nowNanos);
+  }
+
+  /**
+   * Takes a token if one is left, returning 0; otherwise returns how many nanoseconds until the next one.
+   */
+  long tryTake(long nowNanos) {
+    while (true) {
+      long current = fullAt.get();
+      long next = Math.max(current, nowNanos) + nanosPerToken;
+      long overdraft = next - nowNanos - capacityNanos;
+      if (overdraft > 0) {
+        return overdraft;
+      }
+      if (fullAt.compareAndSet(current, next)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Whether the bucket is full, and so can be dropped and recreated later without anyone noticing.
+   */
+  boolean full(long nowNanos) {
+    return fullAt.get() - nowNanos <= 0;
+  }
+}
@@ -0,0 +1,46 @@
+package id.caltic.labs.wiki.http;
+
+import io.vertx.core.buffer.Buffer;
+
+final class Utf8 {
+
+  private Utf8() {
+  }
+
+  /**
+   * The number of bytes {@code text} takes once encoded, without encoding it.
+   */
+  static long length(CharSequence text) {
+    long bytes = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        bytes++;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        bytes += 4;
+        i++;
+      } else {
+        bytes += 3;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * The end of the last complete character in {@code bytes}, so that a stream cut there never splits one.
+   */
+  static int boundary(Buffer bytes) {
+    int end = bytes.length();
+    for (int i = end - 1; i >= Math.max(0, end - 4); i--) {
+      int b = bytes.getByte(i) & 0xFF;
+      if ((b & 0xC0) != 0x80) {
+        int length = b < 0x80 ? 1 : b < 0xE0 ? 2 : b < 0xF0 ? 3 : 4;
+        return i + length <= end ? end : i;
+      }
+    }
+    return end;
+  }
+}
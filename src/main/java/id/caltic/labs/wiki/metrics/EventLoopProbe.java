@@ -0,0 +1,41 @@
+package id.caltic.labs.wiki.metrics;
+
+import io.vertx.core.Vertx;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the event loop of the calling verticle is kept from running its tasks: a periodic timer is
+ * scheduled on the loop, and whatever time it fires past its due time is time the loop spent blocked on other work.
+ * The delay is recorded per event-loop thread in {@code eventloop_lag_seconds}, the worst delay since the previous
+ * scrape in {@code eventloop_lag_max_seconds}.
+ */
+public final class EventLoopProbe {
+
+  static final long INTERVAL_MILLIS = 100;
+
+  private EventLoopProbe() {
+  }
+
+  /**
+   * Must be called from the verticle's context; the probe stops along with the verticle.
+   */
+  public static long start(Vertx vertx, MetricsRegistry registry) {
+    String loop = Thread.currentThread().getName();
+    Timer lag = registry.timer("eventloop_lag_seconds", "Delay of event-loop tasks past their due time",
+        "loop", loop);
+    // verticles deployed on the same loop share its metrics
+    Maximum maxLag = registry.maximum("eventloop_lag_max_seconds", "Largest event-loop delay since the previous scrape",
+        "loop", loop);
+
+    long interval = TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS);
+    long[] due = {System.nanoTime() + interval};
+    return vertx.setPeriodic(INTERVAL_MILLIS, id -> {
+      long now = System.nanoTime();
+      long delay = Math.max(0, now - due[0]);
+      due[0] = now + interval;
+      lag.record(delay);
+      maxLag.record(delay);
+    });
+  }
+}
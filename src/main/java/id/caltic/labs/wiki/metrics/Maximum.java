@@ -0,0 +1,25 @@
+package id.caltic.labs.wiki.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The largest duration recorded since the previous scrape, exported in seconds as a gauge. Like a timer it can be
+ * shared by every thread recording into it.
+ */
+public class Maximum implements Supplier<Double> {
+
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  Maximum() {
+  }
+
+  public void record(long nanos) {
+    maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  @Override
+  public Double get() {
+    return maxNanos.getAndSet(0) / 1e9;
+  }
+}
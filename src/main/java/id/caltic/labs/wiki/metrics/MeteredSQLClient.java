@@ -0,0 +1,122 @@
+package id.caltic.labs.wiki.metrics;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.ext.sql.SQLClient;
+import io.vertx.ext.sql.SQLConnection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Meters a connection pool: operations in flight against the pool (each holds or waits for a connection),
+ * connections checked out with {@code getConnection}, how long checking one out took, and the latency of every
+ * query and update, whether issued on the client or on a checked-out connection.
+ */
+public class MeteredSQLClient implements InvocationHandler {
+
+  private final SQLClient delegate;
+  private final Timer acquire;
+  private final AtomicLong inFlight;
+  private final AtomicLong checkedOut;
+  private final SQLClient clientOperations;
+  private final MetricsRegistry registry;
+  private final String pool;
+
+  private MeteredSQLClient(SQLClient delegate, MetricsRegistry registry, String pool) {
+    this.delegate = delegate;
+    this.registry = registry;
+    this.pool = pool;
+    this.acquire = registry.timer("db_pool_acquire_seconds", "Time waited for a pooled connection", "pool", pool);
+    this.inFlight = registry.level("db_pool_operations_active", "Operations holding or waiting for a connection",
+        "pool", pool);
+    this.checkedOut = registry.level("db_pool_connections_checked_out", "Connections checked out of the pool",
+        "pool", pool);
+    this.clientOperations = TimedProxy.wrap(SQLClient.class, delegate, registry, "db_query_seconds",
+        "Latency of database operations", "pool", pool);
+  }
+
+  public static <T extends SQLClient> T wrap(Class<T> type, T delegate, MetricsRegistry registry, String pool,
+                                             int maxPoolSize) {
+    registry.gauge("db_pool_connections_max", "Configured pool size", () -> maxPoolSize, "pool", pool);
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+        new MeteredSQLClient(delegate, registry, pool)));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(this, args);
+    }
+
+    if (method.getName().equals("getConnection")) {
+      Handler<AsyncResult<SQLConnection>> handler = (Handler<AsyncResult<SQLConnection>>) args[0];
+      long start = System.nanoTime();
+      delegate.getConnection(ar -> {
+        acquire.recordSince(start);
+        if (ar.succeeded()) {
+          handler.handle(Future.succeededFuture(meter(ar.result())));
+        } else {
+          handler.handle(ar);
+        }
+      });
+      return proxy;
+    }
+
+    int last = args == null ? -1 : args.length - 1;
+    if (last < 0 || !(args[last] instanceof Handler) || method.getName().equals("close")) {
+      return invokeOn(delegate, method, args, proxy);
+    }
+    Handler<AsyncResult<Object>> resultHandler = (Handler<AsyncResult<Object>>) args[last];
+    inFlight.incrementAndGet();
+    args[last] = (Handler<AsyncResult<Object>>) ar -> {
+      inFlight.decrementAndGet();
+      resultHandler.handle(ar);
+    };
+    try {
+      return invokeOn(clientOperations, method, args, proxy);
+    } catch (Throwable t) {
+      inFlight.decrementAndGet();
+      throw t;
+    }
+  }
+
+  private Object invokeOn(Object target, Method method, Object[] args, Object proxy) throws Throwable {
+    try {
+      Object result = method.invoke(target, args);
+      return result == target || result == delegate ? proxy : result;
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private SQLConnection meter(SQLConnection connection) {
+    inFlight.incrementAndGet();
+    checkedOut.incrementAndGet();
+    AtomicBoolean open = new AtomicBoolean(true);
+    SQLConnection timed = TimedProxy.wrap(SQLConnection.class, connection, registry, "db_query_seconds",
+        "Latency of database operations", "pool", pool);
+    return (SQLConnection) Proxy.newProxyInstance(SQLConnection.class.getClassLoader(),
+        new Class<?>[]{SQLConnection.class}, (proxy, method, args) -> {
+          if (method.getName().equals("close") && open.compareAndSet(true, false)) {
+            inFlight.decrementAndGet();
+            checkedOut.decrementAndGet();
+          }
+          if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(connection, args);
+          }
+          try {
+            Object result = method.invoke(timed, args);
+            return result == timed ? proxy : result;
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+}
@@ -0,0 +1,142 @@
+package id.caltic.labs.wiki.metrics;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Timers and gauges of one Vert.x instance, shared by all of its verticles through the {@link #LOCAL_MAP} local
+ * map and rendered in the Prometheus text format by {@link #scrape()}. Labels are given as alternating name and
+ * value arguments.
+ */
+public class MetricsRegistry implements Shareable {
+
+  public static final String LOCAL_MAP = "wiki.metrics";
+
+  private static final String KEY = "registry";
+
+  private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+  public static MetricsRegistry get(Vertx vertx) {
+    LocalMap<String, MetricsRegistry> map = vertx.sharedData().getLocalMap(LOCAL_MAP);
+    MetricsRegistry registry = map.get(KEY);
+    if (registry == null) {
+      MetricsRegistry created = new MetricsRegistry();
+      registry = map.putIfAbsent(KEY, created);
+      if (registry == null) {
+        registry = created;
+      }
+    }
+    return registry;
+  }
+
+  public Timer timer(String name, String help, String... labels) {
+    return (Timer) family(name, help, "histogram").metrics.computeIfAbsent(labels(labels), key -> new Timer());
+  }
+
+  /**
+   * A gauge whose value is maintained by the caller; every caller asking for the same name and labels shares it.
+   */
+  public AtomicLong level(String name, String help, String... labels) {
+    return (AtomicLong) family(name, help, "gauge").metrics.computeIfAbsent(labels(labels), key -> new AtomicLong());
+  }
+
+  /**
+   * A gauge of the largest duration since the previous scrape; every caller asking for the same name and labels
+   * shares it.
+   */
+  public Maximum maximum(String name, String help, String... labels) {
+    return (Maximum) family(name, help, "gauge").metrics.computeIfAbsent(labels(labels), key -> new Maximum());
+  }
+
+  /**
+   * A gauge read from {@code value} at scrape time, replacing any gauge previously registered with the same labels.
+   */
+  public void gauge(String name, String help, Supplier<? extends Number> value, String... labels) {
+    family(name, help, "gauge").metrics.put(labels(labels), value);
+  }
+
+  public void remove(String name, String... labels) {
+    Family family = families.get(name);
+    if (family != null) {
+      family.metrics.remove(labels(labels));
+    }
+  }
+
+  public String scrape() {
+    StringBuilder out = new StringBuilder(8192);
+    for (Family family : new TreeMap<>(families).values()) {
+      out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+      out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+      for (Map.Entry<String, Object> metric : new TreeMap<>(family.metrics).entrySet()) {
+        String labels = metric.getKey();
+        Object value = metric.getValue();
+        if (value instanceof Timer) {
+          ((Timer) value).writeTo(out, family.name, labels);
+        } else {
+          Number number = value instanceof Supplier ? (Number) ((Supplier<?>) value).get() : (Number) value;
+          out.append(family.name);
+          if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+          }
+          out.append(' ').append(number).append('\n');
+        }
+      }
+    }
+    return out.toString();
+  }
+
+  private Family family(String name, String help, String type) {
+    Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+    }
+    return family;
+  }
+
+  private static String labels(String[] labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be given as name and value pairs");
+    }
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        out.append(',');
+      }
+      out.append(labels[i]).append("=\"");
+      String value = String.valueOf(labels[i + 1]);
+      for (int c = 0; c < value.length(); c++) {
+        char ch = value.charAt(c);
+        if (ch == '"' || ch == '\\') {
+          out.append('\\').append(ch);
+        } else if (ch == '\n') {
+          out.append("\\n");
+        } else {
+          out.append(ch);
+        }
+      }
+      out.append('"');
+    }
+    return out.toString();
+  }
+
+  private static final class Family {
+    final String name;
+    final String help;
+    final String type;
+    final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+    Family(String name, String help, String type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package id.caltic.labs.wiki.metrics;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Wraps an asynchronous interface so that every method taking a result handler as its last argument is timed
+ * from the call until the handler runs, labelled with the method name and whether it succeeded.
+ */
+public class TimedProxy implements InvocationHandler {
+
+  private final Object delegate;
+  private final MetricsRegistry registry;
+  private final String name;
+  private final String help;
+  private final String[] labels;
+  private final ConcurrentMap<Method, Timer[]> timers = new ConcurrentHashMap<>();
+
+  private TimedProxy(Object delegate, MetricsRegistry registry, String name, String help, String[] labels) {
+    this.delegate = delegate;
+    this.registry = registry;
+    this.name = name;
+    this.help = help;
+    this.labels = labels;
+  }
+
+  public static <T> T wrap(Class<T> type, T delegate, MetricsRegistry registry, String name, String help,
+                           String... labels) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+        new TimedProxy(delegate, registry, name, help, labels)));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(this, args);
+    }
+
+    int last = args == null ? -1 : args.length - 1;
+    Timer[] outcomes = null;
+    long start = System.nanoTime();
+    if (last >= 0 && args[last] instanceof Handler) {
+      outcomes = timers.computeIfAbsent(method, this::timersFor);
+      Handler<AsyncResult<Object>> resultHandler = (Handler<AsyncResult<Object>>) args[last];
+      Timer[] timed = outcomes;
+      args[last] = (Handler<AsyncResult<Object>>) ar -> {
+        timed[ar.succeeded() ? 0 : 1].recordSince(start);
+        resultHandler.handle(ar);
+      };
+    }
+
+    try {
+      Object result = method.invoke(delegate, args);
+      return result == delegate ? proxy : result;
+    } catch (InvocationTargetException e) {
+      if (outcomes != null) {
+        outcomes[1].recordSince(start);
+      }
+      throw e.getCause();
+    }
+  }
+
+  private Timer[] timersFor(Method method) {
+    return new Timer[]{
+        registry.timer(name, help, withMethod(method, "success")),
+        registry.timer(name, help, withMethod(method, "failure"))};
+  }
+
+  private String[] withMethod(Method method, String outcome) {
+    String[] all = Arrays.copyOf(labels, labels.length + 4);
+    all[labels.length] = "method";
+    all[labels.length + 1] = method.getName();
+    all[labels.length + 2] = "outcome";
+    all[labels.length + 3] = outcome;
+    return all;
+  }
+}
@@ -0,0 +1,66 @@
+package id.caltic.labs.wiki.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets, exported in the Prometheus histogram format. Recording is lock-free so
+ * a timer can be shared by every event loop and worker of the JVM.
+ */
+public class Timer {
+
+  static final double[] BUCKETS_SECONDS = {
+      0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  private static final long[] BUCKETS_NANOS = new long[BUCKETS_SECONDS.length];
+
+  static {
+    for (int i = 0; i < BUCKETS_SECONDS.length; i++) {
+      BUCKETS_NANOS[i] = (long) (BUCKETS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+    }
+  }
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS_SECONDS.length];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumNanos = new LongAdder();
+
+  Timer() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    count.increment();
+    sumNanos.add(nanos);
+    for (int i = 0; i < BUCKETS_NANOS.length; i++) {
+      if (nanos <= BUCKETS_NANOS[i]) {
+        buckets[i].increment();
+        return;
+      }
+    }
+  }
+
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  public long count() {
+    return count.sum();
+  }
+
+  void writeTo(StringBuilder out, String name, String labels) {
+    String separator = labels.isEmpty() ? "" : labels + ",";
+    long cumulative = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      cumulative += buckets[i].sum();
+      out.append(name).append("_bucket{").append(separator)
+          .append("le=\"").append(BUCKETS_SECONDS[i]).append("\"} ").append(cumulative).append('\n');
+    }
+    long total = count.sum();
+    out.append(name).append("_bucket{").append(separator).append("le=\"+Inf\"} ").append(total).append('\n');
+    String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+    out.append(name).append("_sum").append(braces).append(' ').append(sumNanos.sum() / 1e9).append('\n');
+    out.append(name).append("_count").append(braces).append(' ').append(total).append('\n');
+  }
+}
@@ -0,0 +1,124 @@
+package id.caltic.labs.wiki.render;
+
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import id.caltic.labs.wiki.metrics.Timer;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs CPU-heavy rendering (markdown, templates, large JSON documents) off the event loop. Every verticle gets its
+ * own handle, but all of them share one bounded worker pool and one limit on the number of tasks waiting or running
+ * in it. Tasks lighter than the inline threshold run directly on the caller's thread since handing them over would
+ * cost more than running them; once the limit is reached, heavier tasks fail at once with a
+ * {@link RejectedExecutionException} instead of queueing behind work that is already late.
+ */
+public class RenderPool {
+
+  private static final String POOL_NAME = "wiki-render";
+
+  private final WorkerExecutor executor;
+  private final int maxPending;
+  private final long inlineMaxWeight;
+  private final AtomicLong pending;
+  private final AtomicLong rejected;
+  private final Timer queued;
+  private final Timer inline;
+  private final Timer worker;
+
+  /**
+   * Configured from {@code RENDER_POOL_SIZE}, {@code RENDER_QUEUE_MAX} and {@code RENDER_INLINE_MAX_CHARS}.
+   */
+  public static RenderPool create(Vertx vertx) {
+    int poolSize = Integer.valueOf(Optional.ofNullable(System.getenv("RENDER_POOL_SIZE"))
+        .orElse(String.valueOf(Runtime.getRuntime().availableProcessors())));
+    int maxPending = Integer.valueOf(Optional.ofNullable(System.getenv("RENDER_QUEUE_MAX"))
+        .orElse(String.valueOf(4 * poolSize)));
+    long inlineMaxWeight = Long.valueOf(Optional.ofNullable(System.getenv("RENDER_INLINE_MAX_CHARS"))
+        .orElse("16384"));
+    return new RenderPool(vertx, MetricsRegistry.get(vertx), poolSize, maxPending, inlineMaxWeight);
+  }
+
+  public RenderPool(Vertx vertx, MetricsRegistry metrics, int poolSize, int maxPending, long inlineMaxWeight) {
+    this.executor = vertx.createSharedWorkerExecutor(POOL_NAME, poolSize);
+    this.maxPending = maxPending;
+    this.inlineMaxWeight = inlineMaxWeight;
+    this.pending = metrics.level("render_tasks_pending", "Render tasks waiting for or running on the render pool");
+    this.rejected = metrics.level("render_tasks_rejected", "Render tasks turned away because the pool was saturated");
+    this.queued = metrics.timer("render_queue_seconds", "Time render tasks wait for a render pool thread");
+    this.inline = metrics.timer("render_seconds", "Render task latency", "mode", "inline");
+    this.worker = metrics.timer("render_seconds", "Render task latency", "mode", "worker");
+    metrics.gauge("render_pool_size", "Threads of the render pool", () -> poolSize);
+  }
+
+  /**
+   * Whether tasks that don't qualify for inline execution would be rejected right now. Requests that must render
+   * something check it before sending anything, so that they can still answer with a 503.
+   */
+  public boolean saturated() {
+    return pending.get() >= maxPending;
+  }
+
+  /**
+   * Runs {@code task} and hands its result to {@code handler} on the caller's context. {@code weight} estimates the
+   * cost of the task, typically the number of characters it processes.
+   */
+  public <T> void execute(long weight, Callable<T> task, Handler<AsyncResult<T>> handler) {
+    if (weight < inlineMaxWeight) {
+      long start = System.nanoTime();
+      AsyncResult<T> result = call(task);
+      inline.recordSince(start);
+      handler.handle(result);
+      return;
+    }
+    if (pending.incrementAndGet() > maxPending) {
+      pending.decrementAndGet();
+      rejected.incrementAndGet();
+      handler.handle(Future.failedFuture(new RejectedExecutionException("The render pool is saturated")));
+      return;
+    }
+    long submitted = System.nanoTime();
+    try {
+      submit(submitted, task, handler);
+    } catch (IllegalStateException e) {
+      // the executor was closed along with the verticle owning this handle
+      pending.decrementAndGet();
+      handler.handle(Future.failedFuture(e));
+    }
+  }
+
+  private <T> void submit(long submitted, Callable<T> task, Handler<AsyncResult<T>> handler) {
+    executor.<T>executeBlocking(future -> {
+      long start = System.nanoTime();
+      queued.record(start - submitted);
+      AsyncResult<T> result;
+      try {
+        result = call(task);
+      } finally {
+        // released before the result is handed back, so that the caller never sees its own task as pending
+        worker.recordSince(start);
+        pending.decrementAndGet();
+      }
+      future.handle(result);
+    }, false, handler);
+  }
+
+  private static <T> AsyncResult<T> call(Callable<T> task) {
+    try {
+      return Future.succeededFuture(task.call());
+    } catch (Exception e) {
+      return Future.failedFuture(e);
+    }
+  }
+
+  public void close() {
+    executor.close();
+  }
+}
@@ -1,5 +1,3 @@
-<#include "header.ftl">
-
 <div class="row">
   <div class="col-md-12 mt-1">
 
@@ -15,6 +13,12 @@
     </#if>
 
     <h1 class="display-4">${context.title}</h1>
+    <form class="form-inline" action="/search" method="get">
+      <div class="form-group">
+        <input type="text" class="form-control" name="q" placeholder="Search pages">
+      </div>
+      <button type="submit" class="btn btn-outline-primary">Search</button>
+    </form>
     <div class="float-xs-right">
       <a class="btn btn-outline-danger" href="/logout" role="button"
          aria-pressed="true">Logout (${context.username})</a>
@@ -32,7 +36,15 @@
     <#else>
       <p>The wiki is currently empty!</p>
     </#list>
+    <#if context.paged || context.next??>
+      <nav>
+        <#if context.paged>
+          <a class="btn btn-outline-primary" href="/" role="button">First</a>
+        </#if>
+        <#if context.next??>
+          <a class="btn btn-outline-primary" href="/?after=${context.next?url('UTF-8')}" role="button">Next</a>
+        </#if>
+      </nav>
+    </#if>
   </div>
 </div>
-
-<#include "footer.ftl">
\ No newline at end of file
@@ -1,5 +1,3 @@
-<#include "header.ftl">
-
 <div class="row">
   <div class="col-md-12 mt-1">
     <#if context.notLogged>
@@ -21,5 +19,3 @@
     </#if>
   </div>
 </div>
-
-<#include "footer.ftl">
\ No newline at end of file
@@ -1,5 +1,3 @@
-<#include "header.ftl">
-
 <div class="row">
   <div class="col-md-12 mt-1">
     <span class="float-xs-right">
@@ -22,6 +20,7 @@
     <form action="/action/save" method="post">
       <div class="form-group">
         <input type="hidden" name="id" value="${context.id}">
+        <input type="hidden" name="version" value="${context.version}">
         <input type="hidden" name="title" value="${context.title}">
         <input type="hidden" name="newPage" value="${context.newPage}">
         <textarea class="form-control" id="markdown" name="markdown" rows="15">${context.rawContent}</textarea>
@@ -37,8 +36,9 @@
 
   <div class="col-md-12 mt-1">
     <hr class="mt-1">
-    <p class="small">Rendered: ${context.timestamp}</p>
+    <p class="small">Last modified: ${context.timestamp}
+      <#if context.id != -1>| <a href="/wiki/${context.title}/revisions">History</a></#if>
+      | <a href="/wiki/${context.title}/backlinks">What links here</a>
+    </p>
   </div>
 </div>
-
-<#include "footer.ftl">
\ No newline at end of file
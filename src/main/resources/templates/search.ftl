@@ -0,0 +1,37 @@
+<div class="row">
+  <div class="col-md-12 mt-1">
+    <span class="float-xs-right">
+      <a class="btn btn-outline-primary" href="/" role="button" aria-pressed="true">Home</a>
+      <a class="btn btn-outline-danger" href="/logout" role="button"
+         aria-pressed="true">Logout (${context.username})</a>
+    </span>
+    <h1 class="display-4">${context.title}</h1>
+  </div>
+
+  <div class="col-md-12 mt-1">
+    <form class="form-inline" action="/search" method="get">
+      <div class="form-group">
+        <input type="text" class="form-control" name="q" value="${context.query?html}" placeholder="Search pages">
+      </div>
+      <button type="submit" class="btn btn-primary">Search</button>
+    </form>
+  </div>
+
+  <div class="col-md-12 mt-1">
+    <#list context.results>
+      <ul class="list-unstyled">
+        <#items as result>
+          <li class="mt-1">
+            <a href="/wiki/${result.name}">${result.name}</a>
+            <p class="small">${result.snippet}</p>
+          </li>
+        </#items>
+      </ul>
+    <#else>
+      <#if context.query?has_content>
+        <p>No page matches your search.</p>
+      </#if>
+    </#list>
+  </div>
+</div>
+
@@ -1,6 +1,7 @@
 package id.caltic.labs.wiki;
 
 import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
@@ -9,6 +10,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.stream.Collectors;
+
 @RunWith(VertxUnitRunner.class)
 public class MainVerticleTest {
 
@@ -17,7 +20,21 @@ public class MainVerticleTest {
   @Before
   public void setUp(TestContext tc) {
     vertx = Vertx.vertx();
-    vertx.deployVerticle(MainVerticle.class.getName(), tc.asyncAssertSuccess());
+    Async ready = tc.async();
+    vertx.deployVerticle(MainVerticle.class.getName(), tc.asyncAssertSuccess(id -> awaitReady(ready)));
+  }
+
+  /**
+   * The server listens before it can reach the database.
+   */
+  private void awaitReady(Async ready) {
+    vertx.createHttpClient().getNow(9000, "localhost", "/health/ready", response -> {
+      if (response.statusCode() == 200) {
+        ready.complete();
+      } else {
+        vertx.setTimer(100, timer -> awaitReady(ready));
+      }
+    });
   }
 
   @After
@@ -25,16 +42,27 @@ public class MainVerticleTest {
     vertx.close(tc.asyncAssertSuccess());
   }
 
+  /**
+   * The build runs this on the embedded backend and its bundled accounts, so no database needs to be up.
+   */
   @Test
-  public void testThatTheServerIsStarted(TestContext tc) {
+  public void testThatALoggedInUserIsServedTheIndex(TestContext tc) {
     Async async = tc.async();
-    vertx.createHttpClient().getNow(9000, "localhost", "/", response -> {
-      tc.assertEquals(response.statusCode(), 200);
-      response.bodyHandler(body -> {
-        tc.assertTrue(body.length() > 0);
-        async.complete();
-      });
-    });
+    HttpClient client = vertx.createHttpClient();
+    client.post(9000, "localhost", "/login", login -> {
+      tc.assertEquals(303, login.statusCode());
+      String cookie = login.cookies().stream()
+          .map(value -> value.split(";", 2)[0])
+          .collect(Collectors.joining("; "));
+      client.get(9000, "localhost", "/", response -> {
+        tc.assertEquals(200, response.statusCode());
+        response.bodyHandler(body -> {
+          tc.assertTrue(body.length() > 0);
+          async.complete();
+        });
+      }).putHeader("Cookie", cookie).end();
+    }).putHeader("Content-Type", "application/x-www-form-urlencoded")
+        .end("username=admin&password=admin&return_url=%2F");
   }
 
-}
\ No newline at end of file
+}
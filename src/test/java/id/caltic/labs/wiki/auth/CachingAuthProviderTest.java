@@ -0,0 +1,137 @@
+package id.caltic.labs.wiki.auth;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.ResultSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CachingAuthProviderTest {
+
+  private Vertx vertx;
+  // rows of the authorities query: role, permission
+  private final List<JsonArray> rows = new ArrayList<>();
+  private int queries;
+
+  @SuppressWarnings("unchecked")
+  private final JDBCClient client = (JDBCClient) Proxy.newProxyInstance(JDBCClient.class.getClassLoader(),
+      new Class<?>[]{JDBCClient.class}, (proxy, method, args) -> {
+        queries++;
+        ((Handler<AsyncResult<ResultSet>>) args[args.length - 1]).handle(Future.succeededFuture(
+            new ResultSet(Arrays.asList("role", "perm"), new ArrayList<>(rows), null)));
+        return proxy;
+      });
+
+  @Before
+  public void prepare() {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void finish() throws Exception {
+    CountDownLatch closed = new CountDownLatch(1);
+    vertx.close(ar -> closed.countDown());
+    closed.await(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testThatVerticlesShareOneProvider() {
+    CachingAuthProvider first = CachingAuthProvider.get(vertx, client, 60000);
+
+    assertSame(first, CachingAuthProvider.get(vertx, client, 60000));
+  }
+
+  @Test
+  public void testThatAuthorizationFollowsTheCacheWithoutRewritingThePrincipal() {
+    CachingAuthProvider provider = CachingAuthProvider.get(vertx, client, 60000);
+    WikiUser user = new WikiUser("writer", new Authorities(new HashSet<>(Collections.singletonList("writer")),
+        new HashSet<>(Collections.singletonList("update"))), provider);
+    JsonObject principal = user.principal().copy();
+    rows.add(new JsonArray().add("editor").add("delete"));
+
+    List<Boolean> granted = new ArrayList<>();
+    user.isAuthorized("delete", ar -> granted.add(ar.result()));
+    user.isAuthorized("role:editor", ar -> granted.add(ar.result()));
+    user.isAuthorized("update", ar -> granted.add(ar.result()));
+
+    assertEquals(Arrays.asList(true, true, false), granted);
+    assertEquals(1, queries);
+    assertEquals(principal, user.principal());
+
+    provider.invalidate("writer");
+    rows.clear();
+    user.isAuthorized("delete", ar -> granted.add(ar.result()));
+    assertFalse(granted.get(3));
+    assertEquals(2, queries);
+    assertTrue(Authorities.readFrom(user.principal()).hasPermission("update"));
+  }
+
+  @Test
+  public void testThatEmbeddedAccountsFollowTheUserMatrix() throws Exception {
+    JsonObject document;
+    try (InputStream in = CachingAuthProviderTest.class.getResourceAsStream("/accounts/embedded.json");
+         Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A")) {
+      document = new JsonObject(scanner.next());
+    }
+    EmbeddedAccounts accounts = new EmbeddedAccounts(document);
+
+    List<Authorities> authorities = new ArrayList<>();
+    accounts.authorities("writer", ar -> authorities.add(ar.result()));
+    accounts.authorities("nobody", ar -> authorities.add(ar.result()));
+    assertTrue(authorities.get(0).hasRole("writer"));
+    assertTrue(authorities.get(0).hasPermission("update"));
+    assertFalse(authorities.get(0).hasPermission("delete"));
+    assertTrue(authorities.get(1).roles().isEmpty());
+
+    List<JsonArray> credentials = new ArrayList<>();
+    accounts.credentials("admin", ar -> credentials.add(ar.result()));
+    accounts.credentials("nobody", ar -> credentials.add(ar.result()));
+    assertEquals(2, credentials.get(0).size());
+    assertNull(credentials.get(1));
+  }
+
+  @Test
+  public void testThatEmbeddedAccountsAuthenticateWithTheirPasswords() throws Exception {
+    CachingAuthProvider provider = CachingAuthProvider.getEmbedded(vertx, "accounts/embedded.json", 60000);
+
+    CompletableFuture<User> editor = new CompletableFuture<>();
+    provider.authenticate(new JsonObject().put("username", "editor").put("password", "editor"), ar -> {
+      if (ar.succeeded()) {
+        editor.complete(ar.result());
+      } else {
+        editor.completeExceptionally(ar.cause());
+      }
+    });
+    assertEquals("editor", ((WikiUser) editor.get(10, TimeUnit.SECONDS)).username());
+
+    CompletableFuture<Boolean> refused = new CompletableFuture<>();
+    provider.authenticate(new JsonObject().put("username", "editor").put("password", "admin"),
+        ar -> refused.complete(ar.failed()));
+    assertTrue(refused.get(10, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,59 @@
+package id.caltic.labs.wiki.auth;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.ext.web.Session;
+import io.vertx.ext.web.sstore.ClusteredSessionStore;
+import io.vertx.ext.web.sstore.SessionStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+@RunWith(VertxUnitRunner.class)
+public class ClusteredSessionTest {
+
+  private Vertx node1;
+  private Vertx node2;
+
+  @Before
+  public void setUp(TestContext tc) {
+    Async async = tc.async(2);
+    Vertx.clusteredVertx(new VertxOptions(), tc.asyncAssertSuccess(vertx -> {
+      node1 = vertx;
+      async.countDown();
+    }));
+    Vertx.clusteredVertx(new VertxOptions(), tc.asyncAssertSuccess(vertx -> {
+      node2 = vertx;
+      async.countDown();
+    }));
+  }
+
+  @After
+  public void tearDown(TestContext tc) {
+    node1.close(tc.asyncAssertSuccess());
+    node2.close(tc.asyncAssertSuccess());
+  }
+
+  @Test
+  public void testThatSessionUserWrittenOnOneNodeIsReadOnAnother(TestContext tc) {
+    SessionStore store1 = ClusteredSessionStore.create(node1, "wiki.sessions");
+    SessionStore store2 = ClusteredSessionStore.create(node2, "wiki.sessions");
+
+    Session session = store1.createSession(60000);
+    session.put("user", new WikiUser("editor", new Authorities(new HashSet<>(Arrays.asList("editor")),
+        new HashSet<>(Arrays.asList("create", "delete"))), null));
+
+    store1.put(session, tc.asyncAssertSuccess(stored -> store2.get(session.id(), tc.asyncAssertSuccess(found -> {
+      WikiUser user = found.get("user");
+      tc.assertEquals("editor", user.username());
+      user.isAuthorized("delete", tc.asyncAssertSuccess(tc::assertTrue));
+    }))));
+  }
+}
@@ -0,0 +1,42 @@
+package id.caltic.labs.wiki.auth;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WikiUserTest {
+
+  @Test
+  public void testThatSerializedUserKeepsItsAuthorities() {
+    WikiUser user = new WikiUser("editor", new Authorities(new HashSet<>(Arrays.asList("editor")),
+        new HashSet<>(Arrays.asList("create", "update", "delete"))), null);
+
+    Buffer buffer = Buffer.buffer();
+    user.writeToBuffer(buffer);
+    WikiUser copy = new WikiUser();
+    int end = copy.readFromBuffer(0, buffer);
+
+    assertEquals(buffer.length(), end);
+    assertEquals("editor", copy.username());
+    Authorities authorities = Authorities.readFrom(copy.principal());
+    assertTrue(authorities.hasRole("editor"));
+    assertTrue(authorities.hasPermission("delete"));
+    assertEquals(3, authorities.permissions().size());
+  }
+
+  @Test
+  public void testThatSerializedUserIsCompact() {
+    WikiUser user = new WikiUser("writer", new Authorities(new HashSet<>(Arrays.asList("writer")),
+        new HashSet<>(Arrays.asList("update"))), null);
+
+    Buffer buffer = Buffer.buffer();
+    user.writeToBuffer(buffer);
+
+    assertTrue(buffer.length() < user.principal().encode().length());
+  }
+}
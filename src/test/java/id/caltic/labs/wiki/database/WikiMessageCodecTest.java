@@ -0,0 +1,141 @@
+package id.caltic.labs.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WikiMessageCodecTest {
+
+  private static final String ADDRESS = "test.wikidb.queue";
+
+  private Vertx vertx;
+  private MessageCodec<Object, Object> codec;
+
+  @Before
+  public void prepare() {
+    vertx = Vertx.vertx();
+    WikiMessageCodec.register(vertx.eventBus());
+    // a second registration, by another verticle instance, is harmless
+    WikiMessageCodec.register(vertx.eventBus());
+    codec = WikiMessageCodec.INSTANCE;
+  }
+
+  @After
+  public void finish() throws Exception {
+    CountDownLatch closed = new CountDownLatch(1);
+    vertx.close(ar -> closed.countDown());
+    closed.await(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testThatAPageSurvivesTheWireAndTakesLessThanItsJson() {
+    JsonObject page = new JsonObject()
+        .put("found", true)
+        .put("id", 42)
+        .put("rawContent", "# Caf\u00e9\n\nSee [Home](/wiki/Home) \"quoted\"\n")
+        .put("html", "<h1>Caf\u00e9</h1>")
+        .put("version", 7)
+        .put("updatedAt", 1539734400000L);
+
+    Buffer wire = encode(page);
+
+    assertEquals(page, decode(wire));
+    assertTrue(wire.length() + " bytes", wire.length() < page.encode().length());
+  }
+
+  @Test
+  public void testThatNestedValuesUnknownKeysAndNullsSurviveTheWire() {
+    JsonObject listing = new JsonObject()
+        .put("revisions", new JsonArray()
+            .add(new JsonObject().put("revision", 3).put("createdAt", 3L))
+            .add(new JsonObject().put("revision", 2).put("createdAt", 2L)))
+        .put("next", 2)
+        .put("unlisted field", "\u00fcber")
+        .put("rank", 0.25)
+        .putNull("snippet")
+        .put("pages", new JsonArray().add("A").add(1).addNull())
+        .put("names", new JsonArray());
+
+    assertEquals(listing, decode(encode(listing)));
+  }
+
+  @Test
+  public void testThatNameListsSurviveTheWireWithoutATagPerName() {
+    JsonArray names = new JsonArray();
+    for (int i = 0; i < 1000; i++) {
+      names.add("Page-" + i);
+    }
+
+    Buffer wire = encode(names);
+
+    assertEquals(names, decode(wire));
+    // a length byte per name instead of quotes and a separator
+    assertTrue(wire.length() + " bytes", wire.length() < names.encode().length() - 1000);
+  }
+
+  @Test
+  public void testThatLocalRepliesAreTheServiceResultsThemselves() throws Exception {
+    JsonArray names = new JsonArray().add("Home");
+    WikiMessageCodec.bind(vertx, ADDRESS, service(names));
+    WikiService proxy = WikiService.createProxy(vertx, ADDRESS);
+
+    CompletableFuture<AsyncResult<JsonArray>> listed = new CompletableFuture<>();
+    proxy.fetchAllPages(listed::complete);
+    CompletableFuture<AsyncResult<JsonObject>> fetched = new CompletableFuture<>();
+    proxy.fetchPage("Missing", fetched::complete);
+
+    assertSame(names, listed.get(10, TimeUnit.SECONDS).result());
+    Throwable failure = fetched.get(10, TimeUnit.SECONDS).cause();
+    assertTrue(failure instanceof ServiceException);
+    assertEquals(ErrorCodes.PAGE_NOT_FOUND.ordinal(), ((ServiceException) failure).failureCode());
+  }
+
+  @Test
+  public void testThatAnEmptyReplyStaysEmpty() {
+    assertNull(decode(encode(null)));
+  }
+
+  private Buffer encode(Object body) {
+    // a clustered message carries the body after its headers
+    Buffer wire = Buffer.buffer("header");
+    codec.encodeToWire(wire, body);
+    return wire;
+  }
+
+  private Object decode(Buffer wire) {
+    return codec.decodeFromWire("header".length(), wire);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static WikiService service(JsonArray names) {
+    return (WikiService) Proxy.newProxyInstance(WikiService.class.getClassLoader(),
+        new Class<?>[]{WikiService.class}, (service, method, args) -> {
+          Handler<AsyncResult<Object>> handler = (Handler<AsyncResult<Object>>) args[args.length - 1];
+          if (method.getName().equals("fetchAllPages")) {
+            handler.handle(Future.succeededFuture(names));
+          } else {
+            handler.handle(ServiceException.fail(ErrorCodes.PAGE_NOT_FOUND.ordinal(), "No such page"));
+          }
+          return service;
+        });
+  }
+}
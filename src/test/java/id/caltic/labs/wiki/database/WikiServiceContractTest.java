@@ -0,0 +1,319 @@
+package id.caltic.labs.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * What every {@link WikiService} backend must do, run against each of them by a subclass. Page names share their
+ * case so that they sort the same by code point and by database collation.
+ */
+public abstract class WikiServiceContractTest {
+
+  private static final String WIKIDB_PAGES_CHANGED = "wikidb.pages.changed";
+
+  protected Vertx vertx;
+  protected WikiService service;
+
+  /**
+   * Completes with a service over an empty wiki.
+   */
+  protected abstract void createService(Vertx vertx, Handler<AsyncResult<WikiService>> handler);
+
+  @Before
+  public void prepare() throws Exception {
+    vertx = Vertx.vertx();
+    service = await(handler -> createService(vertx, handler));
+  }
+
+  @After
+  public void finish() throws Exception {
+    CountDownLatch closed = new CountDownLatch(1);
+    vertx.close(ar -> closed.countDown());
+    closed.await(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testThatACreatedPageIsFetchedRendered() throws Exception {
+    run(handler -> service.createPage("Home", "# Welcome\n\nHello", handler));
+
+    JsonObject page = await(handler -> service.fetchPage("Home", handler));
+    assertTrue(page.getBoolean("found"));
+    assertEquals("# Welcome\n\nHello", page.getString("rawContent"));
+    assertTrue(page.getString("html").contains("<h1>Welcome</h1>"));
+    assertEquals(1, (int) page.getInteger("version"));
+    assertTrue(page.getLong("updatedAt") > 0);
+
+    JsonObject version = await(handler -> service.fetchPageVersion("Home", handler));
+    assertEquals(page.getInteger("id"), version.getInteger("id"));
+    assertEquals(1, (int) version.getInteger("version"));
+
+    JsonObject missing = await(handler -> service.fetchPage("Missing", handler));
+    assertFalse(missing.getBoolean("found"));
+    assertFalse(this.<JsonObject>await(handler -> service.fetchPageVersion("Missing", handler)).getBoolean("found"));
+  }
+
+  @Test
+  public void testThatSavesAreCheckedAgainstTheVersionEditedFrom() throws Exception {
+    run(handler -> service.createPage("Draft", "one", handler));
+    int id = this.<JsonObject>await(handler -> service.fetchPage("Draft", handler)).getInteger("id");
+
+    run(handler -> service.savePage(id, "two", 1, handler));
+    assertEquals(ErrorCodes.STALE_VERSION.ordinal(), failureCode(handler -> service.savePage(id, "lost", 1, handler)));
+    run(handler -> service.savePage(id, "three", -1, handler));
+    assertEquals(ErrorCodes.PAGE_NOT_FOUND.ordinal(),
+        failureCode(handler -> service.savePage(id + 1000, "nowhere", -1, handler)));
+
+    JsonObject page = await(handler -> service.fetchPage("Draft", handler));
+    assertEquals("three", page.getString("rawContent"));
+    assertEquals("<p>three</p>", page.getString("html").trim());
+    assertEquals(3, (int) page.getInteger("version"));
+  }
+
+  @Test
+  public void testThatEveryRevisionCanBeRebuilt() throws Exception {
+    List<String> contents = new ArrayList<>();
+    StringBuilder markdown = new StringBuilder("# Log");
+    contents.add(markdown.toString());
+    run(handler -> service.createPage("Journal", contents.get(0), handler));
+    int id = this.<JsonObject>await(handler -> service.fetchPage("Journal", handler)).getInteger("id");
+    // enough saves to go past a snapshot, editing both ends and the middle
+    for (int i = 1; i < 60; i++) {
+      markdown.append("\nline ").append(i);
+      if (i % 7 == 0) {
+        markdown.insert(5, " " + i);
+      }
+      String content = markdown.toString();
+      contents.add(content);
+      run(handler -> service.savePage(id, content, -1, handler));
+    }
+
+    for (int revision = 1; revision <= contents.size(); revision++) {
+      int wanted = revision;
+      JsonObject found = await(handler -> service.fetchRevision("Journal", wanted, handler));
+      assertTrue(found.getBoolean("found"));
+      assertEquals(contents.get(revision - 1), found.getString("markdown"));
+      assertTrue(found.getLong("createdAt") > 0);
+    }
+    assertFalse(this.<JsonObject>await(handler -> service.fetchRevision("Journal", 61, handler)).getBoolean("found"));
+    assertFalse(this.<JsonObject>await(handler -> service.fetchRevision("Nothing", 1, handler)).getBoolean("found"));
+
+    JsonObject newest = await(handler -> service.listRevisions("Journal", 0, 25, handler));
+    assertEquals(25, newest.getJsonArray("revisions").size());
+    assertEquals(60, (int) newest.getJsonArray("revisions").getJsonObject(0).getInteger("revision"));
+    assertEquals(36, (int) newest.getInteger("next"));
+    JsonObject older = await(handler -> service.listRevisions("Journal", 36, 25, handler));
+    assertEquals(35, (int) older.getJsonArray("revisions").getJsonObject(0).getInteger("revision"));
+    assertEquals(11, (int) older.getInteger("next"));
+    JsonObject oldest = await(handler -> service.listRevisions("Journal", 11, 25, handler));
+    assertEquals(10, oldest.getJsonArray("revisions").size());
+    assertEquals(1, (int) oldest.getJsonArray("revisions").getJsonObject(9).getInteger("revision"));
+    assertFalse(oldest.containsKey("next"));
+  }
+
+  @Test
+  public void testThatPageNamesArePagedInOrder() throws Exception {
+    JsonArray pages = new JsonArray();
+    for (int i = 24; i >= 0; i--) {
+      pages.add(new JsonObject().put("name", String.format("Page-%02d", i)).put("markdown", "Page " + i));
+    }
+    assertEquals(25, (int) this.<JsonObject>await(handler -> service.savePages(pages, handler)).getInteger("saved"));
+
+    JsonObject first = await(handler -> service.fetchPageNames(null, 10, handler));
+    assertEquals(10, first.getJsonArray("pages").size());
+    assertEquals("Page-00", first.getJsonArray("pages").getString(0));
+    assertEquals("Page-09", first.getString("next"));
+    JsonObject second = await(handler -> service.fetchPageNames("Page-09", 10, handler));
+    assertEquals("Page-10", second.getJsonArray("pages").getString(0));
+    assertEquals("Page-19", second.getString("next"));
+    JsonObject last = await(handler -> service.fetchPageNames("Page-19", 10, handler));
+    assertEquals(5, last.getJsonArray("pages").size());
+    assertFalse(last.containsKey("next"));
+
+    JsonArray all = await(service::fetchAllPages);
+    assertEquals(25, all.size());
+    assertEquals("Page-24", all.getString(24));
+
+    JsonArray exported = await(handler -> service.exportPages("Page-22", 10, handler));
+    assertEquals(2, exported.size());
+    assertEquals("Page-23", exported.getJsonObject(0).getString("name"));
+    assertEquals("Page 23", exported.getJsonObject(0).getString("markdown"));
+    assertEquals(1, (int) exported.getJsonObject(0).getInteger("version"));
+  }
+
+  @Test
+  public void testThatBatchesSkipOrReplaceExistingPages() throws Exception {
+    run(handler -> service.createPage("Apple", "one", handler));
+
+    JsonArray created = new JsonArray()
+        .add(new JsonObject().put("name", "Apple").put("markdown", "two"))
+        .add(new JsonObject().put("name", "Banana").put("markdown", "three"));
+    assertEquals(1, (int) this.<JsonObject>await(handler -> service.createPages(created, handler))
+        .getInteger("created"));
+    assertEquals("one", this.<JsonObject>await(handler -> service.fetchPage("Apple", handler))
+        .getString("rawContent"));
+
+    JsonArray saved = new JsonArray()
+        .add(new JsonObject().put("name", "Apple").put("markdown", "four"))
+        .add(new JsonObject().put("name", "Cherry").put("markdown", "first"))
+        .add(new JsonObject().put("name", "Cherry").put("markdown", "five"));
+    assertEquals(2, (int) this.<JsonObject>await(handler -> service.savePages(saved, handler)).getInteger("saved"));
+    JsonObject apple = await(handler -> service.fetchPage("Apple", handler));
+    assertEquals("four", apple.getString("rawContent"));
+    assertEquals(2, (int) apple.getInteger("version"));
+    assertEquals("one", this.<JsonObject>await(handler -> service.fetchRevision("Apple", 1, handler))
+        .getString("markdown"));
+    assertEquals("five", this.<JsonObject>await(handler -> service.fetchPage("Cherry", handler))
+        .getString("rawContent"));
+
+    JsonArray unnamed = new JsonArray().add(new JsonObject().put("markdown", "lost"));
+    assertTrue(this.<JsonObject>complete(handler -> service.createPages(unnamed, handler)).failed());
+  }
+
+  @Test
+  public void testThatUploadedPiecesAreSavedInSequence() throws Exception {
+    run(handler -> service.appendUpload("first", 1, "world", handler));
+    run(handler -> service.appendUpload("first", 0, "hello ", handler));
+    run(handler -> service.commitUpload("first", "Upload", -1, handler));
+    JsonObject page = await(handler -> service.fetchPage("Upload", handler));
+    assertEquals("hello world", page.getString("rawContent"));
+    assertEquals(1, (int) page.getInteger("version"));
+
+    run(handler -> service.appendUpload("second", 0, "stale", handler));
+    assertEquals(ErrorCodes.STALE_VERSION.ordinal(),
+        failureCode(handler -> service.commitUpload("second", "Upload", 5, handler)));
+
+    run(handler -> service.appendUpload("third", 0, "hello again", handler));
+    run(handler -> service.commitUpload("third", "Upload", 1, handler));
+    page = await(handler -> service.fetchPage("Upload", handler));
+    assertEquals("hello again", page.getString("rawContent"));
+    assertEquals(2, (int) page.getInteger("version"));
+
+    run(handler -> service.appendUpload("fourth", 0, "dropped", handler));
+    run(handler -> service.discardUpload("fourth", handler));
+    run(handler -> service.commitUpload("fourth", "Empty", -1, handler));
+    assertEquals("", this.<JsonObject>await(handler -> service.fetchPage("Empty", handler)).getString("rawContent"));
+  }
+
+  @Test
+  public void testThatSearchFindsWordsAndRanksNamesFirst() throws Exception {
+    run(handler -> service.createPage("Giraffe", "Tall animals.", handler));
+    run(handler -> service.createPage("Savanna", "A giraffe walks past the trees.", handler));
+    run(handler -> service.createPage("Ocean", "Whales.", handler));
+
+    JsonArray hits = await(handler -> service.searchPages("giraffe", 10, handler));
+    assertEquals(2, hits.size());
+    assertEquals("Giraffe", hits.getJsonObject(0).getString("name"));
+    assertEquals("Savanna", hits.getJsonObject(1).getString("name"));
+    assertTrue(hits.getJsonObject(0).getDouble("rank") > hits.getJsonObject(1).getDouble("rank"));
+    assertTrue(hits.getJsonObject(1).getString("snippet").contains("<mark>giraffe</mark>"));
+
+    assertEquals(1, this.<JsonArray>await(handler -> service.searchPages("giraffe trees", 10, handler)).size());
+    assertEquals(0, this.<JsonArray>await(handler -> service.searchPages("unicorn", 10, handler)).size());
+    assertEquals(0, this.<JsonArray>await(handler -> service.searchPages("  ", 10, handler)).size());
+  }
+
+  @Test
+  public void testThatLinksFollowThePagesAsTheyChange() throws Exception {
+    run(handler -> service.createPage("Alpha",
+        "See [Beta](/wiki/Beta), [Gamma](/wiki/Gamma#top), [me](/wiki/Alpha) and [history](/wiki/Beta/revisions).",
+        handler));
+    run(handler -> service.createPage("Beta", "Nothing.", handler));
+
+    assertEquals(new JsonArray().add("Alpha"),
+        this.<JsonArray>await(handler -> service.fetchBacklinks("Beta", 10, handler)));
+    assertEquals(new JsonArray(), this.<JsonArray>await(handler -> service.fetchBacklinks("Alpha", 10, handler)));
+    assertEquals(new JsonArray().add("Alpha"),
+        this.<JsonArray>await(handler -> service.fetchBacklinks("Gamma", 10, handler)));
+    JsonObject report = await(handler -> service.fetchLinkReport(10, handler));
+    assertEquals(new JsonArray().add(new JsonObject().put("from", "Alpha").put("to", "Gamma")),
+        report.getJsonArray("broken"));
+    assertEquals(new JsonArray().add("Alpha"), report.getJsonArray("orphans"));
+
+    int alpha = this.<JsonObject>await(handler -> service.fetchPage("Alpha", handler)).getInteger("id");
+    run(handler -> service.savePage(alpha, "See [Beta](/wiki/Beta).", -1, handler));
+    assertEquals(new JsonArray(), this.<JsonObject>await(handler -> service.fetchLinkReport(10, handler))
+        .getJsonArray("broken"));
+
+    run(handler -> service.deletePage(alpha, handler));
+    assertEquals(new JsonArray(), this.<JsonArray>await(handler -> service.fetchBacklinks("Beta", 10, handler)));
+    assertEquals(new JsonArray().add("Beta"), this.<JsonObject>await(handler -> service.fetchLinkReport(10, handler))
+        .getJsonArray("orphans"));
+  }
+
+  @Test
+  public void testThatChangesArePublished() throws Exception {
+    BlockingQueue<JsonObject> changes = new LinkedBlockingQueue<>();
+    this.<Void>await(handler -> {
+      MessageConsumer<JsonObject> consumer = vertx.eventBus().consumer(WIKIDB_PAGES_CHANGED,
+          message -> changes.add(message.body()));
+      consumer.completionHandler(handler);
+    });
+
+    run(handler -> service.createPage("News", "first", handler));
+    JsonObject created = changes.poll(10, TimeUnit.SECONDS);
+    assertEquals("News", created.getString("name"));
+    assertEquals(1, (int) created.getInteger("version"));
+
+    int id = this.<JsonObject>await(handler -> service.fetchPage("News", handler)).getInteger("id");
+    run(handler -> service.savePage(id, "second", 1, handler));
+    JsonObject saved = changes.poll(10, TimeUnit.SECONDS);
+    assertEquals(id, (int) saved.getInteger("id"));
+    assertEquals("News", saved.getString("name"));
+    assertEquals(2, (int) saved.getInteger("version"));
+
+    run(handler -> service.deletePage(id, handler));
+    assertEquals(id, (int) changes.poll(10, TimeUnit.SECONDS).getInteger("id"));
+    assertFalse(this.<JsonObject>await(handler -> service.fetchPage("News", handler)).getBoolean("found"));
+  }
+
+  @Test
+  public void testThatPingSucceeds() throws Exception {
+    run(service::ping);
+  }
+
+  protected void run(Consumer<Handler<AsyncResult<Void>>> call) throws Exception {
+    await(call);
+  }
+
+  protected <T> T await(Consumer<Handler<AsyncResult<T>>> call) throws Exception {
+    AsyncResult<T> result = complete(call);
+    if (result.failed()) {
+      throw new AssertionError("Call failed", result.cause());
+    }
+    return result.result();
+  }
+
+  protected <T> AsyncResult<T> complete(Consumer<Handler<AsyncResult<T>>> call) throws Exception {
+    CompletableFuture<AsyncResult<T>> done = new CompletableFuture<>();
+    vertx.runOnContext(v -> call.accept(done::complete));
+    return done.get(30, TimeUnit.SECONDS);
+  }
+
+  private int failureCode(Consumer<Handler<AsyncResult<Void>>> call) throws Exception {
+    AsyncResult<Void> result = complete(call);
+    assertTrue(result.failed());
+    assertTrue(result.cause() instanceof ServiceException);
+    return ((ServiceException) result.cause()).failureCode();
+  }
+}
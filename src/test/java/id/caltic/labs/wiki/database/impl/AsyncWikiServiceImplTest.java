@@ -0,0 +1,77 @@
+package id.caltic.labs.wiki.database.impl;
+
+import id.caltic.labs.wiki.database.WikiService;
+import id.caltic.labs.wiki.database.WikiServiceContractTest;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.asyncsql.AsyncSQLClient;
+import io.vertx.ext.asyncsql.PostgreSQLClient;
+import io.vertx.ext.jdbc.JDBCClient;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the contract over the asynchronous driver, which rewrites the statements it is given. Needs the Postgres
+ * server of {@code JDBC_DATABASE_URL}, and is skipped when it is not set, and the right to create databases: the
+ * driver can't pick a schema, so each test gets a database of its own and drops it.
+ */
+public class AsyncWikiServiceImplTest extends WikiServiceContractTest {
+
+  private final String database = "contract_" + UUID.randomUUID().toString().replace("-", "");
+  private JDBCClient admin;
+  private AsyncSQLClient client;
+
+  @BeforeClass
+  public static void requireDatabase() {
+    Assume.assumeTrue("JDBC_DATABASE_URL is not set", System.getenv("JDBC_DATABASE_URL") != null);
+  }
+
+  @Override
+  protected void createService(Vertx vertx, Handler<AsyncResult<WikiService>> handler) {
+    String url = System.getenv("JDBC_DATABASE_URL");
+    String user = System.getenv("DATABASE_USER");
+    String password = System.getenv("DATABASE_PASSWORD");
+    admin = JDBCClient.createNonShared(vertx, new JsonObject()
+        .put("url", url)
+        .put("driver_class", "org.postgresql.Driver")
+        .put("user", user)
+        .put("password", password)
+        .put("max_pool_size", 1));
+    admin.update("CREATE DATABASE " + database, created -> {
+      if (created.failed()) {
+        handler.handle(Future.failedFuture(created.cause()));
+        return;
+      }
+      client = PostgreSQLClient.createNonShared(vertx, PostgresUrl.asyncConfig(url, user, password)
+          .put("database", database)
+          .put("maxPoolSize", 4));
+      WikiService.create(vertx, client, client, handler);
+    });
+  }
+
+  @After
+  public void dropDatabase() throws Exception {
+    if (admin == null) {
+      return;
+    }
+    // a database can't be dropped while connections to it are open
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    if (client == null) {
+      closed.complete(null);
+    } else {
+      client.close(ar -> closed.complete(null));
+    }
+    closed.get(30, TimeUnit.SECONDS);
+    CompletableFuture<Void> dropped = new CompletableFuture<>();
+    admin.update("DROP DATABASE IF EXISTS " + database, ar -> dropped.complete(null));
+    dropped.get(30, TimeUnit.SECONDS);
+  }
+}
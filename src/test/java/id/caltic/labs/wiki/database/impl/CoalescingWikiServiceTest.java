@@ -0,0 +1,129 @@
+package id.caltic.labs.wiki.database.impl;
+
+import id.caltic.labs.wiki.database.WikiService;
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescingWikiServiceTest {
+
+  private MetricsRegistry metrics;
+  // fetchPage calls that reached the backend and are waiting for a result
+  private List<Handler<AsyncResult<JsonObject>>> queries;
+  private WikiService coalescing;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void prepare() {
+    metrics = new MetricsRegistry();
+    queries = new ArrayList<>();
+    WikiService backend = (WikiService) Proxy.newProxyInstance(WikiService.class.getClassLoader(),
+        new Class<?>[]{WikiService.class}, (proxy, method, args) -> {
+          if (method.getName().equals("fetchPage")) {
+            queries.add((Handler<AsyncResult<JsonObject>>) args[args.length - 1]);
+          } else {
+            ((Handler<AsyncResult<Void>>) args[args.length - 1]).handle(Future.succeededFuture());
+          }
+          return proxy;
+        });
+    coalescing = CoalescingWikiService.wrap(backend, metrics, "test");
+  }
+
+  @Test
+  public void testThatAThunderingHerdCostsOneQueryPerWave() {
+    int requests = 1000;
+    int requestsPerQuery = 100;
+    List<JsonObject> results = new ArrayList<>();
+    for (int i = 0; i < requests; i++) {
+      coalescing.fetchPage("Hot", ar -> results.add(ar.result()));
+      // the query in flight completes after every hundred arrivals
+      if ((i + 1) % requestsPerQuery == 0) {
+        complete(queries.size() - 1, page(queries.size()));
+      }
+    }
+
+    System.out.printf("%d concurrent reads of one page: %d queries without coalescing, %d with%n",
+        requests, requests, queries.size());
+    assertEquals(requests / requestsPerQuery, queries.size());
+    assertEquals(requests, results.size());
+    assertEquals(1, (int) results.get(0).getInteger("version"));
+    assertEquals(requests / requestsPerQuery, (int) results.get(requests - 1).getInteger("version"));
+    assertNotSame(results.get(0), results.get(1));
+    assertTrue(metrics.scrape().contains(
+        "wikiservice_reads_coalesced{side=\"test\",method=\"fetchPage\"} " + (requests - queries.size()) + "\n"));
+  }
+
+  @Test
+  public void testThatDifferentPagesAreNotCoalesced() {
+    coalescing.fetchPage("One", ar -> {
+    });
+    coalescing.fetchPage("Two", ar -> {
+    });
+    coalescing.fetchPage("One", ar -> {
+    });
+
+    assertEquals(2, queries.size());
+  }
+
+  @Test
+  public void testThatReadsAfterAWriteDoNotJoinAnOlderRead() {
+    List<JsonObject> before = new ArrayList<>();
+    List<JsonObject> after = new ArrayList<>();
+    coalescing.fetchPage("Hot", ar -> before.add(ar.result()));
+    coalescing.savePage(1, "new", 1, ar -> {
+    });
+    coalescing.fetchPage("Hot", ar -> after.add(ar.result()));
+
+    assertEquals(2, queries.size());
+    complete(0, page(1));
+    complete(1, page(2));
+    assertEquals(1, (int) before.get(0).getInteger("version"));
+    assertEquals(2, (int) after.get(0).getInteger("version"));
+  }
+
+  @Test
+  public void testThatDetachedReadsAcceptNoNewWaiters() {
+    coalescing.fetchPage("Hot", ar -> {
+    });
+    CoalescingWikiService.detach(coalescing);
+    coalescing.fetchPage("Hot", ar -> {
+    });
+
+    assertEquals(2, queries.size());
+  }
+
+  @Test
+  public void testThatFailuresReachEveryWaiter() {
+    List<Throwable> failures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      coalescing.fetchPage("Hot", ar -> failures.add(ar.cause()));
+    }
+    queries.get(0).handle(Future.failedFuture("boom"));
+
+    assertEquals(1, queries.size());
+    assertEquals(3, failures.size());
+    coalescing.fetchPage("Hot", ar -> {
+    });
+    assertEquals(2, queries.size());
+  }
+
+  private void complete(int query, JsonObject page) {
+    queries.get(query).handle(Future.succeededFuture(page));
+  }
+
+  private static JsonObject page(int version) {
+    return new JsonObject().put("found", true).put("id", 1).put("version", version).put("rawContent", "# Hot");
+  }
+}
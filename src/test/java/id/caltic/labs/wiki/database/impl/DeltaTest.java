@@ -0,0 +1,49 @@
+package id.caltic.labs.wiki.database.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeltaTest {
+
+  @Test
+  public void testThatAnEditInTheMiddleKeepsOnlyTheChangedText() {
+    String previous = "# Home\n\nWelcome to the wiki.\n\nSee the index.\n";
+    String next = "# Home\n\nWelcome to the Caltic wiki.\n\nSee the index.\n";
+
+    Delta delta = Delta.between(previous, next);
+
+    assertEquals("Caltic ", delta.text);
+    assertEquals(next, delta.applyTo(previous));
+  }
+
+  @Test
+  public void testThatAppendsAndTruncationsRoundTrip() {
+    assertRoundTrip("abc", "abcdef");
+    assertRoundTrip("abcdef", "abc");
+    assertRoundTrip("", "new page");
+    assertRoundTrip("old page", "");
+    assertRoundTrip("same", "same");
+  }
+
+  @Test
+  public void testThatRepeatedTextDoesNotOverlapPrefixAndSuffix() {
+    assertRoundTrip("aaaa", "aaaaaa");
+    assertRoundTrip("abab", "ab");
+  }
+
+  @Test
+  public void testThatSurrogatePairsAreNeverSplit() {
+    String previous = "emoji \uD83D\uDE00 here";
+    String next = "emoji \uD83D\uDE01 here";
+
+    Delta delta = Delta.between(previous, next);
+
+    assertEquals("\uD83D\uDE01", delta.text);
+    assertEquals(next, delta.applyTo(previous));
+  }
+
+  private static void assertRoundTrip(String previous, String next) {
+    assertEquals(next, Delta.between(previous, next).applyTo(previous));
+  }
+}
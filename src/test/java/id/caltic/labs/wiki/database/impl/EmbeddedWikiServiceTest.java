@@ -0,0 +1,112 @@
+package id.caltic.labs.wiki.database.impl;
+
+import id.caltic.labs.wiki.database.WikiService;
+import id.caltic.labs.wiki.database.WikiServiceContractTest;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class EmbeddedWikiServiceTest extends WikiServiceContractTest {
+
+  @Override
+  protected void createService(Vertx vertx, Handler<AsyncResult<WikiService>> handler) {
+    WikiService.createEmbedded(vertx, "", handler);
+  }
+
+  @Test
+  public void testThatTheLogBringsEveryChangeBack() throws Exception {
+    Path log = Files.createTempFile("wiki", ".log");
+    try {
+      EmbeddedStore store = EmbeddedStore.open(log);
+      StringBuilder markdown = new StringBuilder("# Home\n\n[Guide](/wiki/Guide)");
+      store.create("Home", markdown.toString(), "<h1>Home</h1>");
+      int home = store.pageId("Home");
+      for (int i = 1; i < 60; i++) {
+        markdown.append("\nline ").append(i);
+        store.save(home, markdown.toString(), null, -1);
+      }
+      Map<String, String> batch = new LinkedHashMap<>();
+      batch.put("Guide", "Back [home](/wiki/Home).");
+      batch.put("Scratch", "To be deleted.");
+      store.writePages(batch, new LinkedHashMap<>(), true);
+      store.delete(store.pageId("Scratch"));
+      JsonObject revision = store.revision("Home", 30);
+      JsonObject report = store.linkReport(10);
+      store.close();
+      // a crash in the middle of a line
+      Files.write(log, "{\"op\":\"create\",\"id\":9,\"na".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+      EmbeddedStore replayed = EmbeddedStore.open(log);
+      assertEquals(new JsonArray().add("Guide").add("Home"), replayed.pageNames());
+      JsonObject page = replayed.page("Home");
+      assertEquals(markdown.toString(), page.getString("rawContent"));
+      assertEquals(60, (int) page.getInteger("version"));
+      assertFalse(page.containsKey("html"));
+      assertEquals(revision, replayed.revision("Home", 30));
+      assertEquals(report, replayed.linkReport(10));
+      assertEquals(new JsonArray().add("Home"), replayed.backlinks("Guide", 10));
+      assertEquals(1, replayed.search("back", 10).size());
+      assertEquals(0, replayed.search("deleted", 10).size());
+
+      // the cut line was dropped and new changes follow the last whole one
+      replayed.create("After", "crash", "<p>crash</p>");
+      replayed.close();
+      EmbeddedStore reopened = EmbeddedStore.open(log);
+      assertEquals(new JsonArray().add("After").add("Guide").add("Home"), reopened.pageNames());
+      assertEquals(4, (int) reopened.pageId("After"));
+      reopened.close();
+    } finally {
+      Files.delete(log);
+    }
+  }
+
+  @Test
+  public void testThatConcurrentSavesReplayAsTheyWereApplied() throws Exception {
+    Path log = Files.createTempFile("wiki", ".log");
+    try {
+      EmbeddedStore store = EmbeddedStore.open(log);
+      store.create("Busy", "start", null);
+      int id = store.pageId("Busy");
+      List<Thread> writers = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        int writer = t;
+        writers.add(new Thread(() -> {
+          for (int i = 0; i < 50; i++) {
+            store.save(id, "# Busy\n\nwriter " + writer + " save " + i, null, -1);
+          }
+        }));
+      }
+      writers.forEach(Thread::start);
+      for (Thread writer : writers) {
+        writer.join();
+      }
+      JsonObject page = store.page("Busy");
+      assertEquals(201, (int) page.getInteger("version"));
+      store.close();
+
+      EmbeddedStore replayed = EmbeddedStore.open(log);
+      assertEquals(page.getString("rawContent"), replayed.page("Busy").getString("rawContent"));
+      for (int revision = 1; revision <= 201; revision++) {
+        assertEquals(store.revision("Busy", revision), replayed.revision("Busy", revision));
+      }
+      replayed.close();
+    } finally {
+      Files.delete(log);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package id.caltic.labs.wiki.database.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.ext.sql.SQLClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PoolWarmerTest {
+
+  private Vertx vertx;
+
+  /**
+   * Hands out connections only when told to, as a pool opening them would.
+   */
+  private static final class FakePool {
+    final List<Handler<AsyncResult<SQLConnection>>> waiting = new ArrayList<>();
+    int open;
+    int maxOpen;
+    int queries;
+
+    @SuppressWarnings("unchecked")
+    final SQLClient client = (SQLClient) Proxy.newProxyInstance(SQLClient.class.getClassLoader(),
+        new Class<?>[]{SQLClient.class}, (proxy, method, args) -> {
+          waiting.add((Handler<AsyncResult<SQLConnection>>) args[0]);
+          return proxy;
+        });
+
+    void open() {
+      open++;
+      maxOpen = Math.max(maxOpen, open);
+      waiting.remove(0).handle(Future.succeededFuture(connection()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private SQLConnection connection() {
+      return (SQLConnection) Proxy.newProxyInstance(SQLConnection.class.getClassLoader(),
+          new Class<?>[]{SQLConnection.class}, (proxy, method, args) -> {
+            if (method.getName().equals("close")) {
+              open--;
+            } else {
+              queries++;
+              ((Handler<AsyncResult<Object>>) args[args.length - 1]).handle(Future.succeededFuture());
+            }
+            return null;
+          });
+    }
+  }
+
+  @Test
+  public void testThatEveryConnectionIsHeldUntilAllAreOpen() {
+    FakePool pool = new FakePool();
+    List<AsyncResult<Void>> results = new ArrayList<>();
+
+    PoolWarmer.warm(pool.client, 3, results::add);
+    assertEquals(3, pool.waiting.size());
+    pool.open();
+    pool.open();
+    assertTrue(results.isEmpty());
+    pool.open();
+
+    assertEquals(1, results.size());
+    assertTrue(results.get(0).succeeded());
+    assertEquals(3, pool.maxOpen);
+    assertEquals(3, pool.queries);
+    assertEquals(0, pool.open);
+  }
+
+  @Test
+  public void testThatAFailureIsReportedOnceEveryAttemptIsOver() {
+    FakePool pool = new FakePool();
+    List<AsyncResult<Void>> results = new ArrayList<>();
+
+    PoolWarmer.warm(pool.client, 2, results::add);
+    pool.waiting.remove(0).handle(Future.failedFuture("refused"));
+    assertTrue(results.isEmpty());
+    pool.open();
+
+    assertEquals(1, results.size());
+    assertEquals("refused", results.get(0).cause().getMessage());
+    assertEquals(0, pool.open);
+  }
+
+  @Test
+  public void testThatASharedPoolIsWarmedOncePerVertx() {
+    vertx = Vertx.vertx();
+    FakePool pool = new FakePool();
+    List<AsyncResult<Void>> results = new ArrayList<>();
+
+    PoolWarmer.warm(vertx, "wikidb", pool.client, 2, results::add);
+    PoolWarmer.warm(vertx, "wikidb", pool.client, 2, results::add);
+    assertEquals(2, pool.waiting.size());
+    assertEquals(1, results.size());
+    assertTrue(results.get(0).succeeded());
+
+    pool.open();
+    pool.open();
+    assertEquals(2, results.size());
+    assertEquals(2, pool.maxOpen);
+  }
+
+  @After
+  public void closeVertx() throws Exception {
+    if (vertx != null) {
+      CountDownLatch closed = new CountDownLatch(1);
+      vertx.close(ar -> closed.countDown());
+      closed.await(10, TimeUnit.SECONDS);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package id.caltic.labs.wiki.database.impl;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PostgresUrlTest {
+
+  @Test
+  public void testThatCredentialsAndSslModeOfTheUrlAreKept() {
+    JsonObject config = PostgresUrl.asyncConfig(
+        "jdbc:postgresql://ec2-1-2-3-4.compute.amazonaws.com:5432/d1?user=u1&password=p%40ss&sslmode=require",
+        null, null);
+
+    assertEquals("ec2-1-2-3-4.compute.amazonaws.com", config.getString("host"));
+    assertEquals(5432, (int) config.getInteger("port"));
+    assertEquals("d1", config.getString("database"));
+    assertEquals("u1", config.getString("username"));
+    assertEquals("p@ss", config.getString("password"));
+    assertEquals("require", config.getString("sslMode"));
+  }
+
+  @Test
+  public void testThatSeparateCredentialsApplyWhenTheUrlHasNone() {
+    JsonObject config = PostgresUrl.asyncConfig("jdbc:postgresql://localhost/caltic_wiki", "wiki", "secret");
+
+    assertEquals(5432, (int) config.getInteger("port"));
+    assertEquals("caltic_wiki", config.getString("database"));
+    assertEquals("wiki", config.getString("username"));
+    assertEquals("secret", config.getString("password"));
+    assertFalse(config.containsKey("sslMode"));
+  }
+
+  @Test
+  public void testThatSslModesUnknownToTheAsyncClientAreMapped() {
+    assertEquals("prefer", PostgresUrl.asyncConfig("jdbc:postgresql://db/w?sslmode=allow", null, null)
+        .getString("sslMode"));
+    assertEquals("verify-full", PostgresUrl.asyncConfig("jdbc:postgresql://db/w?ssl=true&sslrootcert=/ca.pem",
+        null, null).getString("sslMode"));
+    assertEquals("/ca.pem", PostgresUrl.asyncConfig("jdbc:postgresql://db/w?ssl=true&sslrootcert=/ca.pem",
+        null, null).getString("sslRootCert"));
+  }
+}
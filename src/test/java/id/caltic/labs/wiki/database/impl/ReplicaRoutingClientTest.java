@@ -0,0 +1,164 @@
+package id.caltic.labs.wiki.database.impl;
+
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicaRoutingClientTest {
+
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+  private static final long MAX_LAG_MILLIS = 1000;
+
+  /**
+   * Answers every query with its own name, or fails while down; the lag query reports {@code lagMillis}.
+   */
+  private static final class FakeDatabase {
+    final String name;
+    final List<String> statements = new ArrayList<>();
+    boolean down;
+    long lagMillis;
+    final SQLClient client;
+
+    @SuppressWarnings("unchecked")
+    FakeDatabase(String name) {
+      this.name = name;
+      this.client = (SQLClient) Proxy.newProxyInstance(SQLClient.class.getClassLoader(),
+          new Class<?>[]{SQLClient.class}, (proxy, method, args) -> {
+            Handler<AsyncResult<Object>> handler = (Handler<AsyncResult<Object>>) args[args.length - 1];
+            String sql = (String) args[0];
+            if (down) {
+              handler.handle(Future.failedFuture(name + " is down"));
+            } else if (sql.equals(ReplicaRoutingClient.SQL_REPLICA_LAG)) {
+              handler.handle(Future.succeededFuture(rows(new JsonArray().add(lagMillis))));
+            } else {
+              statements.add(sql);
+              handler.handle(Future.succeededFuture(rows(new JsonArray().add(name))));
+            }
+            return proxy;
+          });
+    }
+  }
+
+  private Vertx vertx;
+  private MetricsRegistry metrics;
+  private FakeDatabase primary;
+  private FakeDatabase first;
+  private FakeDatabase second;
+  private SQLClient routing;
+
+  @Before
+  public void prepare() {
+    vertx = Vertx.vertx();
+    metrics = new MetricsRegistry();
+    primary = new FakeDatabase("primary");
+    first = new FakeDatabase("first");
+    second = new FakeDatabase("second");
+    routing = ReplicaRoutingClient.wrap(vertx, primary.client, Arrays.asList(first.client, second.client),
+        Arrays.asList("first", "second"), metrics, HOUR, MAX_LAG_MILLIS);
+  }
+
+  @After
+  public void finish() throws Exception {
+    CountDownLatch closed = new CountDownLatch(1);
+    vertx.close(ar -> closed.countDown());
+    closed.await(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testThatReadsAreSpreadOverReplicasAndWritesStayOnThePrimary() {
+    List<String> answeredBy = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      routing.queryWithParams("SELECT " + i, new JsonArray(), ar -> answeredBy.add(answer(ar)));
+    }
+    routing.updateWithParams("UPDATE pages", new JsonArray(), ar -> {
+    });
+
+    Collections.sort(answeredBy);
+    assertEquals(Arrays.asList("first", "first", "second", "second"), answeredBy);
+    assertEquals(Collections.singletonList("UPDATE pages"), primary.statements);
+    assertTrue(metrics.scrape().contains("db_reads_routed{target=\"first\"} 2\n"));
+  }
+
+  @Test
+  public void testThatAReadFailingOnAReplicaIsRetriedOnThePrimary() {
+    first.down = true;
+    second.down = true;
+    List<String> answeredBy = new ArrayList<>();
+
+    routing.queryWithParams("SELECT 1", new JsonArray(), ar -> answeredBy.add(answer(ar)));
+    routing.queryWithParams("SELECT 2", new JsonArray(), ar -> answeredBy.add(answer(ar)));
+    routing.queryWithParams("SELECT 3", new JsonArray(), ar -> answeredBy.add(answer(ar)));
+
+    assertEquals(Arrays.asList("primary", "primary", "primary"), answeredBy);
+    // both replicas left the rotation after their first failure
+    String scrape = metrics.scrape();
+    assertTrue(scrape.contains("db_replica_failovers{pool=\"first\"} 1\n"));
+    assertTrue(scrape.contains("db_replica_failovers{pool=\"second\"} 1\n"));
+    assertTrue(scrape.contains("db_replica_healthy{pool=\"first\"} 0\n"));
+  }
+
+  @Test
+  public void testThatALaggingReplicaLeavesTheRotationUntilItCatchesUp() {
+    first.lagMillis = MAX_LAG_MILLIS + 1;
+    checkReplicas();
+    List<String> answeredBy = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      routing.queryWithParams("SELECT " + i, new JsonArray(), ar -> answeredBy.add(answer(ar)));
+    }
+    assertEquals(Arrays.asList("second", "second", "second"), answeredBy);
+
+    first.lagMillis = 0;
+    checkReplicas();
+    answeredBy.clear();
+    for (int i = 0; i < 2; i++) {
+      routing.queryWithParams("SELECT " + i, new JsonArray(), ar -> answeredBy.add(answer(ar)));
+    }
+    Collections.sort(answeredBy);
+    assertEquals(Arrays.asList("first", "second"), answeredBy);
+  }
+
+  @Test
+  public void testThatReadsGoToThePrimaryWithoutAHealthyReplica() {
+    first.down = true;
+    second.lagMillis = MAX_LAG_MILLIS * 10;
+    checkReplicas();
+    first.down = false;
+    List<String> answeredBy = new ArrayList<>();
+
+    routing.query("SELECT 1", ar -> answeredBy.add(answer(ar)));
+
+    assertEquals(Collections.singletonList("primary"), answeredBy);
+    assertTrue(metrics.scrape().contains("db_replica_lag_seconds{pool=\"second\"} 10.0\n"));
+  }
+
+  private void checkReplicas() {
+    ((ReplicaRoutingClient) Proxy.getInvocationHandler(routing)).checkReplicas();
+  }
+
+  private static String answer(AsyncResult<ResultSet> ar) {
+    return ar.succeeded() ? ar.result().getResults().get(0).getString(0) : "failed";
+  }
+
+  private static ResultSet rows(JsonArray row) {
+    return new ResultSet(Collections.singletonList("value"), Collections.singletonList(row), null);
+  }
+}
@@ -0,0 +1,28 @@
+package id.caltic.labs.wiki.database.impl;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import static org.junit.Assert.assertEquals;
+
+public class WikiServiceImplSqlTest {
+
+  /**
+   * The asynchronous driver turns every question mark into a numbered parameter, quoted or not.
+   */
+  @Test
+  public void testThatNoQuestionMarkIsQuoted() throws Exception {
+    for (Field field : WikiServiceImpl.class.getDeclaredFields()) {
+      if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+        field.setAccessible(true);
+        String sql = (String) field.get(null);
+        String[] parts = sql.split("'", -1);
+        for (int i = 1; i < parts.length; i += 2) {
+          assertEquals(field.getName() + " quotes a question mark", -1, parts[i].indexOf('?'));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package id.caltic.labs.wiki.database.impl;
+
+import id.caltic.labs.wiki.database.WikiService;
+import id.caltic.labs.wiki.database.WikiServiceContractTest;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.JDBCClient;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Needs the Postgres database of {@code JDBC_DATABASE_URL}, and is skipped when it is not set; each test migrates a
+ * schema of its own and drops it.
+ */
+public class WikiServiceImplTest extends WikiServiceContractTest {
+
+  private final String schema = "contract_" + UUID.randomUUID().toString().replace("-", "");
+  private JDBCClient admin;
+
+  /**
+   * {@link #createService} runs on an event loop, where a failed assumption would not reach JUnit.
+   */
+  @BeforeClass
+  public static void requireDatabase() {
+    Assume.assumeTrue("JDBC_DATABASE_URL is not set", System.getenv("JDBC_DATABASE_URL") != null);
+  }
+
+  @Override
+  protected void createService(Vertx vertx, Handler<AsyncResult<WikiService>> handler) {
+    String url = System.getenv("JDBC_DATABASE_URL");
+    JsonObject config = new JsonObject()
+        .put("url", url)
+        .put("driver_class", "org.postgresql.Driver")
+        .put("user", System.getenv("DATABASE_USER"))
+        .put("password", System.getenv("DATABASE_PASSWORD"))
+        .put("max_pool_size", 1);
+    admin = JDBCClient.createNonShared(vertx, config);
+    admin.update("CREATE SCHEMA " + schema, created -> {
+      if (created.failed()) {
+        handler.handle(Future.failedFuture(created.cause()));
+        return;
+      }
+      JDBCClient client = JDBCClient.createNonShared(vertx, config.copy()
+          .put("url", url + (url.contains("?") ? "&" : "?") + "currentSchema=" + schema)
+          .put("max_pool_size", 4));
+      WikiService.create(vertx, client, client, handler);
+    });
+  }
+
+  @After
+  public void dropSchema() throws Exception {
+    if (admin == null) {
+      return;
+    }
+    CompletableFuture<Void> dropped = new CompletableFuture<>();
+    admin.update("DROP SCHEMA IF EXISTS " + schema + " CASCADE", ar -> dropped.complete(null));
+    dropped.get(30, TimeUnit.SECONDS);
+  }
+}
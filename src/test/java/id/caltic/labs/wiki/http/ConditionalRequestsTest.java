@@ -0,0 +1,27 @@
+package id.caltic.labs.wiki.http;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConditionalRequestsTest {
+
+  @Test
+  public void testThatTheTagIsWeak() {
+    assertEquals("W/\"3-7\"", ConditionalRequests.etag(3, 7, false));
+    assertEquals("W/\"3-7-d\"", ConditionalRequests.etag(3, 7, true));
+  }
+
+  @Test
+  public void testThatIfNoneMatchComparesWeakly() {
+    String etag = ConditionalRequests.etag(3, 7, false);
+    assertTrue(ConditionalRequests.matches(etag, etag));
+    assertTrue(ConditionalRequests.matches("\"3-7\"", etag));
+    assertTrue(ConditionalRequests.matches("\"1-1\", W/\"3-7\"", etag));
+    assertTrue(ConditionalRequests.matches("*", etag));
+    assertFalse(ConditionalRequests.matches("W/\"3-7-d\"", etag));
+    assertFalse(ConditionalRequests.matches("W/\"3-8\"", etag));
+  }
+}
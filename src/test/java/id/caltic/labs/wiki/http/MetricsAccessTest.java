@@ -0,0 +1,28 @@
+package id.caltic.labs.wiki.http;
+
+import io.vertx.core.net.SocketAddress;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsAccessTest {
+
+  @Test
+  public void testThatOnlyTheConfiguredBearerTokenIsAccepted() {
+    MetricsAccess access = new MetricsAccess("s3cret");
+
+    assertTrue(access.hasToken("Bearer s3cret"));
+    assertFalse(access.hasToken("Bearer s3cre"));
+    assertFalse(access.hasToken("Basic s3cret"));
+    assertFalse(access.hasToken(null));
+  }
+
+  @Test
+  public void testThatOnlyLoopbackAddressesAreLocal() {
+    assertTrue(MetricsAccess.isLoopback(SocketAddress.inetSocketAddress(40000, "127.0.0.1")));
+    assertTrue(MetricsAccess.isLoopback(SocketAddress.inetSocketAddress(40000, "0:0:0:0:0:0:0:1")));
+    assertFalse(MetricsAccess.isLoopback(SocketAddress.inetSocketAddress(40000, "10.0.0.5")));
+    assertFalse(MetricsAccess.isLoopback(null));
+  }
+}
@@ -0,0 +1,100 @@
+package id.caltic.labs.wiki.http;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PageCacheTest {
+
+  @Test
+  public void testThatLeastRecentlyUsedPagesAreEvictedByWeight() {
+    PageCache.Entry sample = new PageCache.Entry(1, 1, 0, "aaaa", "<p>aaaa</p>");
+    PageCache cache = new PageCache(sample.weight * 2);
+
+    cache.put("one", cache.generation(), sample);
+    cache.put("two", cache.generation(), new PageCache.Entry(2, 1, 0, "bbbb", "<p>bbbb</p>"));
+    assertNotNull(cache.get("one"));
+    cache.put("three", cache.generation(), new PageCache.Entry(3, 1, 0, "cccc", "<p>cccc</p>"));
+
+    assertNotNull(cache.get("one"));
+    assertNull(cache.get("two"));
+    assertNotNull(cache.get("three"));
+    assertEquals(1L, (long) cache.stats().getLong("evictions"));
+  }
+
+  @Test
+  public void testThatInvalidationByIdRemovesThePage() {
+    PageCache cache = new PageCache(1024 * 1024);
+    cache.put("home", cache.generation(), new PageCache.Entry(7, 1, 0, "# Home", "<h1>Home</h1>"));
+
+    cache.invalidate(new JsonObject().put("id", 7));
+
+    assertNull(cache.get("home"));
+    assertEquals(1L, (long) cache.stats().getLong("invalidations"));
+  }
+
+  @Test
+  public void testThatBatchInvalidationRemovesEveryNamedPage() {
+    PageCache cache = new PageCache(1024 * 1024);
+    cache.put("one", cache.generation(), new PageCache.Entry(1, 1, 0, "# One", "<h1>One</h1>"));
+    cache.put("two", cache.generation(), new PageCache.Entry(2, 1, 0, "# Two", "<h1>Two</h1>"));
+    cache.put("three", cache.generation(), new PageCache.Entry(3, 1, 0, "# Three", "<h1>Three</h1>"));
+
+    cache.invalidate(new JsonObject().put("names", new JsonArray().add("one").add("three")));
+
+    assertNull(cache.get("one"));
+    assertNotNull(cache.get("two"));
+    assertNull(cache.get("three"));
+  }
+
+  @Test
+  public void testThatFetchRacingWithInvalidationIsNotCached() {
+    PageCache cache = new PageCache(1024 * 1024);
+    long generation = cache.generation();
+
+    cache.invalidate(new JsonObject().put("name", "home"));
+    cache.put("home", generation, new PageCache.Entry(7, 1, 0, "# Home", "<h1>Home</h1>"));
+
+    assertNull(cache.get("home"));
+  }
+
+  @Test
+  public void testThatAReadOlderThanTheLastChangeIsNotCached() {
+    PageCache cache = new PageCache(1024 * 1024);
+    cache.invalidate(new JsonObject().put("id", 7).put("name", "home").put("version", 3));
+
+    // a replica that hasn't replayed the save yet
+    cache.put("home", cache.generation(), new PageCache.Entry(7, 2, 0, "# Old", "<h1>Old</h1>"));
+    assertNull(cache.get("home"));
+
+    cache.put("home", cache.generation(), new PageCache.Entry(7, 3, 0, "# New", "<h1>New</h1>"));
+    assertEquals("# New", cache.get("home").rawContent);
+  }
+
+  @Test
+  public void testThatAPageCreatedAgainIsCachedFromItsFirstVersion() {
+    PageCache cache = new PageCache(1024 * 1024);
+    cache.put("home", cache.generation(), new PageCache.Entry(7, 5, 0, "# Home", "<h1>Home</h1>"));
+    cache.invalidate(new JsonObject().put("id", 7));
+
+    cache.put("home", cache.generation(), new PageCache.Entry(7, 5, 0, "# Home", "<h1>Home</h1>"));
+    assertNull(cache.get("home"));
+
+    cache.invalidate(new JsonObject().put("name", "home").put("version", 1));
+    cache.put("home", cache.generation(), new PageCache.Entry(8, 1, 0, "# Again", "<h1>Again</h1>"));
+    assertNotNull(cache.get("home"));
+  }
+
+  @Test
+  public void testThatPagesLargerThanTheBudgetAreNotCached() {
+    PageCache cache = new PageCache(16);
+    cache.put("home", cache.generation(), new PageCache.Entry(7, 1, 0, "# Home", "<h1>Home</h1>"));
+
+    assertNull(cache.get("home"));
+    assertEquals(0, (int) cache.stats().getInteger("entries"));
+  }
+}
@@ -0,0 +1,74 @@
+package id.caltic.labs.wiki.http;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testThatABurstUpToCapacityIsAllowedThenTheWaitIsReported() {
+    TokenBucket bucket = new TokenBucket(3, SECOND, 0);
+
+    assertEquals(0, bucket.tryTake(0));
+    assertEquals(0, bucket.tryTake(0));
+    assertEquals(0, bucket.tryTake(0));
+    assertEquals(SECOND, bucket.tryTake(0));
+    assertEquals(SECOND / 4, bucket.tryTake(3 * SECOND / 4));
+  }
+
+  @Test
+  public void testThatTokensComeBackOverTime() {
+    TokenBucket bucket = new TokenBucket(2, SECOND, 0);
+    bucket.tryTake(0);
+    bucket.tryTake(0);
+
+    assertEquals(0, bucket.tryTake(SECOND));
+    assertTrue(bucket.tryTake(SECOND) > 0);
+    assertFalse(bucket.full(SECOND));
+    assertTrue(bucket.full(3 * SECOND));
+    assertEquals(0, bucket.tryTake(3 * SECOND));
+    assertEquals(0, bucket.tryTake(3 * SECOND));
+    assertTrue(bucket.tryTake(3 * SECOND) > 0);
+  }
+
+  @Test
+  public void testThatConcurrentCallersShareTheCapacity() throws InterruptedException {
+    TokenBucket bucket = new TokenBucket(1000, SECOND, 0);
+    AtomicInteger taken = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int j = 0; j < 500; j++) {
+          if (bucket.tryTake(0) == 0) {
+            taken.incrementAndGet();
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(1000, taken.get());
+  }
+}
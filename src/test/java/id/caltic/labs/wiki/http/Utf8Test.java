@@ -0,0 +1,30 @@
+package id.caltic.labs.wiki.http;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class Utf8Test {
+
+  private static final String TEXT = "a\u00E9\u20AC\uD83D\uDE00";
+
+  @Test
+  public void testThatLengthMatchesTheEncodedSize() {
+    assertEquals(TEXT.getBytes(StandardCharsets.UTF_8).length, Utf8.length(TEXT));
+    assertEquals(0, Utf8.length(""));
+  }
+
+  @Test
+  public void testThatBoundaryNeverSplitsACharacter() {
+    byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+    // 1 + 2 + 3 + 4 bytes: every cut inside a character moves back to where it starts
+    int[] expected = {0, 1, 1, 3, 3, 3, 6, 6, 6, 6, 10};
+    for (int end = 0; end <= bytes.length; end++) {
+      Buffer prefix = Buffer.buffer().appendBytes(bytes, 0, end);
+      assertEquals("cut at " + end, expected[end], Utf8.boundary(prefix));
+    }
+  }
+}
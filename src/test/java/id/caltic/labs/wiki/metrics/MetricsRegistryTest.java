@@ -0,0 +1,61 @@
+package id.caltic.labs.wiki.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+  @Test
+  public void testThatTimerBucketsAreCumulative() {
+    MetricsRegistry registry = new MetricsRegistry();
+    Timer timer = registry.timer("requests_seconds", "Request latency", "route", "/wiki/:page");
+    timer.record(TimeUnit.MICROSECONDS.toNanos(300));
+    timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+    timer.record(TimeUnit.SECONDS.toNanos(30));
+
+    String scrape = registry.scrape();
+    assertTrue(scrape.contains("# TYPE requests_seconds histogram\n"));
+    assertTrue(scrape.contains("requests_seconds_bucket{route=\"/wiki/:page\",le=\"5.0E-4\"} 1\n"));
+    assertTrue(scrape.contains("requests_seconds_bucket{route=\"/wiki/:page\",le=\"0.005\"} 2\n"));
+    assertTrue(scrape.contains("requests_seconds_bucket{route=\"/wiki/:page\",le=\"10.0\"} 2\n"));
+    assertTrue(scrape.contains("requests_seconds_bucket{route=\"/wiki/:page\",le=\"+Inf\"} 3\n"));
+    assertTrue(scrape.contains("requests_seconds_count{route=\"/wiki/:page\"} 3\n"));
+  }
+
+  @Test
+  public void testThatSameLabelsShareOneMetric() {
+    MetricsRegistry registry = new MetricsRegistry();
+    assertSame(registry.timer("calls_seconds", "Calls", "method", "fetchPage"),
+        registry.timer("calls_seconds", "Calls", "method", "fetchPage"));
+
+    registry.level("pool_active", "Active", "pool", "wikidb").incrementAndGet();
+    registry.level("pool_active", "Active", "pool", "wikidb").incrementAndGet();
+    assertEquals(2L, registry.level("pool_active", "Active", "pool", "wikidb").get());
+    assertTrue(registry.scrape().contains("pool_active{pool=\"wikidb\"} 2\n"));
+  }
+
+  @Test
+  public void testThatAMaximumIsSharedAndResetByTheScrape() {
+    MetricsRegistry registry = new MetricsRegistry();
+    Maximum first = registry.maximum("lag_max_seconds", "Lag", "loop", "loop-1");
+    Maximum second = registry.maximum("lag_max_seconds", "Lag", "loop", "loop-1");
+    assertSame(first, second);
+    first.record(TimeUnit.MILLISECONDS.toNanos(250));
+    second.record(TimeUnit.MILLISECONDS.toNanos(100));
+
+    assertTrue(registry.scrape().contains("lag_max_seconds{loop=\"loop-1\"} 0.25\n"));
+    assertTrue(registry.scrape().contains("lag_max_seconds{loop=\"loop-1\"} 0.0\n"));
+  }
+
+  @Test
+  public void testThatLabelValuesAreEscaped() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.gauge("odd", "Odd label", () -> 1, "name", "a\"b\\c");
+    assertTrue(registry.scrape().contains("odd{name=\"a\\\"b\\\\c\"} 1\n"));
+  }
+}
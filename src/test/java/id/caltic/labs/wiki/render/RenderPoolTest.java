@@ -0,0 +1,126 @@
+package id.caltic.labs.wiki.render;
+
+import com.github.rjeschke.txtmark.Processor;
+import id.caltic.labs.wiki.metrics.MetricsRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RenderPoolTest {
+
+  private static final int PAGE_BYTES = 5 * 1024 * 1024;
+  private static final long PROBE_MILLIS = 5;
+
+  private Vertx vertx;
+
+  @Before
+  public void prepare() {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void finish() throws Exception {
+    CountDownLatch closed = new CountDownLatch(1);
+    vertx.close(ar -> closed.countDown());
+    closed.await(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testThatTheEventLoopKeepsTurningWhileAHugePageRenders() throws Exception {
+    RenderPool pool = new RenderPool(vertx, new MetricsRegistry(), 1, 4, 16384);
+    String markdown = hugePage();
+    AtomicLong maxLagNanos = new AtomicLong();
+    AtomicLong renderNanos = new AtomicLong();
+    CompletableFuture<AsyncResult<String>> rendered = new CompletableFuture<>();
+
+    vertx.runOnContext(v -> {
+      long interval = TimeUnit.MILLISECONDS.toNanos(PROBE_MILLIS);
+      long[] due = {System.nanoTime() + interval};
+      long probe = vertx.setPeriodic(PROBE_MILLIS, id -> {
+        long now = System.nanoTime();
+        maxLagNanos.accumulateAndGet(now - due[0], Math::max);
+        due[0] = now + interval;
+      });
+      long start = System.nanoTime();
+      pool.execute(markdown.length(), () -> Processor.process(markdown), render -> {
+        renderNanos.set(System.nanoTime() - start);
+        vertx.cancelTimer(probe);
+        rendered.complete(render);
+      });
+    });
+
+    AsyncResult<String> render = rendered.get(60, TimeUnit.SECONDS);
+    assertTrue(render.succeeded());
+    assertTrue(render.result().length() > PAGE_BYTES);
+    // rendered on the loop, the lag would be the whole render time
+    long maxLagMillis = TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get());
+    long renderMillis = TimeUnit.NANOSECONDS.toMillis(renderNanos.get());
+    assertTrue("loop lagged " + maxLagMillis + " ms during a " + renderMillis + " ms render",
+        maxLagMillis < Math.max(50, renderMillis / 4));
+  }
+
+  @Test
+  public void testThatASaturatedPoolRejectsAtOnce() throws Exception {
+    MetricsRegistry metrics = new MetricsRegistry();
+    RenderPool pool = new RenderPool(vertx, metrics, 1, 2, 0);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    CompletableFuture<Throwable> rejected = new CompletableFuture<>();
+    AtomicBoolean saturated = new AtomicBoolean();
+
+    vertx.runOnContext(v -> {
+      for (int i = 0; i < 2; i++) {
+        pool.execute(1, () -> release.await(10, TimeUnit.SECONDS), ar -> done.countDown());
+      }
+      saturated.set(pool.saturated());
+      pool.execute(1, () -> "too late", ar -> rejected.complete(ar.cause()));
+    });
+
+    assertTrue(rejected.get(10, TimeUnit.SECONDS) instanceof RejectedExecutionException);
+    assertTrue(saturated.get());
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertFalse(pool.saturated());
+    assertTrue(metrics.scrape().contains("render_tasks_rejected 1\n"));
+  }
+
+  @Test
+  public void testThatLightTasksRunOnTheCallingThread() {
+    RenderPool pool = new RenderPool(vertx, new MetricsRegistry(), 1, 1, 1024);
+    Thread caller = Thread.currentThread();
+    Thread[] ranOn = new Thread[1];
+    String[] result = new String[1];
+
+    pool.execute(100, () -> {
+      ranOn[0] = Thread.currentThread();
+      return "done";
+    }, ar -> result[0] = ar.result());
+
+    assertSame(caller, ranOn[0]);
+    assertEquals("done", result[0]);
+  }
+
+  private static String hugePage() {
+    StringBuilder markdown = new StringBuilder(PAGE_BYTES + 256);
+    for (int i = 0; markdown.length() < PAGE_BYTES; i++) {
+      markdown.append("## Section ").append(i).append("\n\n")
+          .append("Some *emphasis*, a [link](/wiki/Page-").append(i).append(") and `code`.\n\n")
+          .append("* first item\n* second item\n\n");
+    }
+    return markdown.toString();
+  }
+}